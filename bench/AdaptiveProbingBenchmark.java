@@ -0,0 +1,92 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares fixed and adaptive probe scheduling on a simulated target, without waiting in real time.
+ * <p>
+ * The target replies in about 20 ms with occasional 300 ms spikes, and goes down for 5 to 60 seconds
+ * at random times. The simulation follows {@code Main.workerThreadMainLoop}: a failed probe is confirmed by
+ * a second probe right away, and the target is marked disconnected when both fail.
+ * Detection latency is measured from the start of the outage.
+ * <p>
+ * Usage: {@code java -cp out AdaptiveProbingBenchmark [hours] [seed]}
+ */
+public class AdaptiveProbingBenchmark {
+
+    private static final int TIMEOUT = 4000;
+    private static final long NORMAL_INTERVAL = 250;
+    private static final long STABLE_INTERVAL = 2000;
+    private static final int OUTAGES_PER_HOUR = 10;
+    private static final double SPIKE_CHANCE = 0.002;
+
+    private record Outage(long start, long end) {}
+
+    public static void main(String[] args) {
+        int hours = args.length > 0 ? Integer.parseInt(args[0]) : 24;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        System.out.printf("%d simulated hours, %d outages per hour, timeout %d ms%n", hours, OUTAGES_PER_HOUR, TIMEOUT);
+        run("fixed", false, hours, seed);
+        run("adaptive", true, hours, seed);
+    }
+
+    private static void run(String name, boolean adaptive, int hours, long seed) {
+        Random random = new Random(seed);
+        long end = TimeUnit.HOURS.toNanos(hours);
+        List<Outage> outages = new ArrayList<>();
+        for(int i = 0; i < hours * OUTAGES_PER_HOUR; i++){
+            long start = (long) (random.nextDouble() * end);
+            outages.add(new Outage(start, start + TimeUnit.SECONDS.toNanos(5 + random.nextInt(56))));
+        }
+        outages.sort((a, b) -> Long.compare(a.start, b.start));
+
+        AdaptiveSchedule schedule = new AdaptiveSchedule(NORMAL_INTERVAL, STABLE_INTERVAL, adaptive, 0);
+        long now = 0;
+        int failuresInRow = 0;
+        boolean disconnected = false;
+        int detected = 0;
+        int falseAlarms = 0;
+        long totalDetection = 0;
+        long maxDetection = 0;
+
+        while(now < end){
+            int timeout = schedule.beginProbe(now, TIMEOUT);
+            Outage outage = outageAt(outages, now);
+            long rtt = TimeUnit.MICROSECONDS.toNanos(random.nextDouble() < SPIKE_CHANCE ? 300_000 : 18_000 + random.nextInt(4000));
+            boolean connected = outage == null && rtt <= TimeUnit.MILLISECONDS.toNanos(timeout);
+            now += connected ? rtt : TimeUnit.MILLISECONDS.toNanos(timeout);
+            schedule.onResult(now, connected, connected ? rtt : -1);
+
+            if(connected){
+                failuresInRow = 0;
+                disconnected = false;
+            } else if(++failuresInRow == 2 && ! disconnected){
+                disconnected = true;
+                schedule.onDisconnected(now);
+                if(outage == null){
+                    falseAlarms++;
+                } else {
+                    detected++;
+                    long latency = now - outage.start;
+                    totalDetection += latency;
+                    maxDetection = Math.max(maxDetection, latency);
+                }
+            }
+            // the first failure is confirmed right away, like the worker threads do
+            if(failuresInRow != 1) now += TimeUnit.MILLISECONDS.toNanos(schedule.getDelay());
+        }
+
+        System.out.printf("%-9s %8.0f probes/hour   detected %d/%d outages   detection avg %6.0f ms  max %6.0f ms   false alarms %d%n",
+                name, schedule.getProbeCount() / (double) hours, detected, outages.size(),
+                detected == 0 ? 0 : totalDetection / (double) detected / 1e6, maxDetection / 1e6, falseAlarms);
+    }
+
+    private static Outage outageAt(List<Outage> outages, long time) {
+        for(Outage outage : outages){
+            if(outage.start > time) break;
+            if(time < outage.end) return outage;
+        }
+        return null;
+    }
+}
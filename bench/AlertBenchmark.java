@@ -0,0 +1,111 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the alerts.
+ * <ul>
+ * <li>decode - what every alert used to cost before the sound reached the speaker: reading and decoding the wav file</li>
+ * <li>flapping - a link that changes state every millisecond for a few seconds while the only sink takes 50 ms per alert.
+ *     Shows how long submitting an alert blocks the caller, and how many alerts get through the coalescing and the rate limit</li>
+ * <li>reload - replaces the only sink while it is delivering an alert, like a config reload during a slow webhook.
+ *     The replaced sink must not be closed before its delivery returns. Exits with 1 if it is</li>
+ * </ul>
+ * Usage: {@code java -cp out:resources AlertBenchmark}
+ */
+public class AlertBenchmark {
+
+    private static final int CHANGES = 5_000;
+    private static final long SINK_TIME = 50;
+
+    public static void main(String[] args) throws Exception {
+        Bench bench = new Bench();
+        bench.run("decode connect_ping.wav", () -> {
+            try {
+                return AlertSinks.Audio.decode("connect_ping.wav");
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        flapping(0);
+        flapping(6);
+        if(! reload()) System.exit(1);
+    }
+
+    private static boolean reload() throws Exception {
+        CountDownLatch delivering = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        AtomicBoolean closedDuringDelivery = new AtomicBoolean();
+        AtomicBoolean delivered = new AtomicBoolean();
+        AtomicInteger errors = new AtomicInteger();
+        AlertDispatcher dispatcher = new AlertDispatcher(0, error -> {
+            errors.incrementAndGet();
+            System.out.println(error);
+        });
+        dispatcher.setSinks(List.of(new AlertDispatcher.Sink() {
+            private volatile boolean inDelivery;
+
+            @Override
+            public void deliver(AlertDispatcher.Alert alert) throws Exception {
+                inDelivery = true;
+                delivering.countDown();
+                Thread.sleep(SINK_TIME * 4);
+                inDelivery = false;
+                delivered.set(true);
+            }
+
+            @Override
+            public void close() {
+                if(inDelivery) closedDuringDelivery.set(true);
+                closed.countDown();
+            }
+        }));
+        dispatcher.submit(new AlertDispatcher.Alert("reload", false, System.currentTimeMillis(), "down", 1, 0));
+        delivering.await();
+        long start = System.nanoTime();
+        dispatcher.setSinks(List.of(alert -> {}));
+        long setNanos = System.nanoTime() - start;
+        boolean wasClosed = closed.await(SINK_TIME * 20, TimeUnit.MILLISECONDS);
+        dispatcher.close();
+
+        boolean passed = wasClosed && delivered.get() && ! closedDuringDelivery.get() && errors.get() == 0;
+        System.out.printf("%-4s reload during a delivery: setSinks took %.1f us, old sink %s, delivery %s, %d errors%n",
+                passed ? "ok" : "FAIL", setNanos / 1e3,
+                ! wasClosed ? "NEVER CLOSED" : closedDuringDelivery.get() ? "CLOSED DURING THE DELIVERY" : "closed after the delivery",
+                delivered.get() ? "completed" : "STILL RUNNING", errors.get());
+        return passed;
+    }
+
+    private static void flapping(int rateLimit) throws Exception {
+        AtomicInteger delivered = new AtomicInteger();
+        AtomicLong changes = new AtomicLong();
+        AlertDispatcher dispatcher = new AlertDispatcher(rateLimit, System.out::println);
+        dispatcher.setSinks(List.of(alert -> {
+            delivered.incrementAndGet();
+            changes.addAndGet(alert.changes());
+            Thread.sleep(SINK_TIME);
+        }));
+
+        long[] latencies = new long[CHANGES];
+        for(int i = 0; i < CHANGES; i++){
+            AlertDispatcher.Alert alert = new AlertDispatcher.Alert("flapping", i % 2 == 1, System.currentTimeMillis(), "change "+i, 1, 0);
+            long start = System.nanoTime();
+            dispatcher.submit(alert);
+            latencies[i] = System.nanoTime() - start;
+            Thread.sleep(1);
+        }
+        // let the last alert through, and the ones waiting for the sink
+        Thread.sleep(rateLimit == 0 ? SINK_TIME * 3 : TimeUnit.MINUTES.toMillis(1) / rateLimit + SINK_TIME * 2);
+        dispatcher.close();
+
+        Arrays.sort(latencies);
+        System.out.printf("flapping, rate limit %d: submit p50 %d ns, p99 %d ns, max %.1f us; %d changes -> %d alerts (%d changes reported)%n",
+                rateLimit, latencies[CHANGES / 2], latencies[CHANGES * 99 / 100], latencies[CHANGES - 1] / 1e3,
+                CHANGES, delivered.get(), changes.get());
+    }
+}
@@ -0,0 +1,240 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Checks the dns://, http:// and tcp:// probes of the selector prober against stub servers on loopback,
+ * then measures how many of them a selector prober keeps up with.
+ * <p>
+ * The stub DNS server answers by the name that is looked up: ok.test is found, missing.test isn't,
+ * broken.test fails (SERVFAIL), silent.test gets no reply and spoof.test gets a reply with the wrong id.
+ * The stub HTTP server answers by the path: /ok with 200, /error with 503, /slow after 150 ms,
+ * /hang never and /garbage with something that isn't HTTP.
+ * Exits with 1 if a probe doesn't end as expected.
+ * Usage: {@code java -cp out ApplicationProbeBenchmark [dns targets] [http targets] [seconds]}
+ */
+public class ApplicationProbeBenchmark {
+
+    private static final int TIMEOUT = 500;
+    private static final long SLOW_REPLY = 150;
+
+    public static void main(String[] args) throws Exception {
+        int dnsTargets = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int httpTargets = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        DatagramSocket dns = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        dns.setReceiveBufferSize(4 << 20); // the stub answers on one thread, bursts of queries wait here
+        ServerSocket http = new ServerSocket();
+        http.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1000);
+        int closedPort = closedPort();
+        startDnsServer(dns);
+        startHttpServer(http);
+        String dnsServer = "127.0.0.1:" + dns.getLocalPort();
+        String httpServer = "127.0.0.1:" + http.getLocalPort();
+
+        // address -> the status its probes must end with
+        Map<String,ProbeResult.Status> cases = new LinkedHashMap<>();
+        cases.put("dns://" + dnsServer + "/ok.test", ProbeResult.Status.SUCCESS);
+        cases.put("dns://" + dnsServer + "/missing.test", ProbeResult.Status.SUCCESS);
+        cases.put("dns://" + dnsServer + "/broken.test", ProbeResult.Status.ERROR);
+        cases.put("dns://" + dnsServer + "/silent.test", ProbeResult.Status.TIMEOUT);
+        cases.put("dns://" + dnsServer + "/spoof.test", ProbeResult.Status.TIMEOUT);
+        cases.put("dns://127.0.0.1:" + closedPort + "/ok.test", ProbeResult.Status.UNREACHABLE);
+        cases.put("http://" + httpServer + "/ok", ProbeResult.Status.SUCCESS);
+        cases.put("http://" + httpServer + "/ok?a=b", ProbeResult.Status.SUCCESS);
+        cases.put("http://" + httpServer + "/slow", ProbeResult.Status.SUCCESS);
+        cases.put("http://" + httpServer + "/error", ProbeResult.Status.ERROR);
+        cases.put("http://" + httpServer + "/hang", ProbeResult.Status.TIMEOUT);
+        cases.put("http://" + httpServer + "/garbage", ProbeResult.Status.ERROR);
+        cases.put("http://127.0.0.1:" + closedPort + "/", ProbeResult.Status.UNREACHABLE);
+        cases.put("tcp://" + httpServer, ProbeResult.Status.SUCCESS);
+        cases.put("tcp://127.0.0.1:" + closedPort, ProbeResult.Status.SUCCESS); // refused is an answer
+
+        String[] addresses = cases.keySet().toArray(new String[0]);
+        AtomicReferenceArray<ProbeResult> last = new AtomicReferenceArray<>(addresses.length);
+        SelectorProber prober = new SelectorProber(addresses, 1, TIMEOUT, 300, (index, result) -> last.set(index, result));
+        prober.start();
+        Thread.sleep(2000);
+        prober.close();
+
+        boolean passed = true;
+        for(int i = 0; i < addresses.length; i++){
+            ProbeResult result = last.get(i);
+            ProbeResult.Status expected = cases.get(addresses[i]);
+            boolean ok = result != null && result.getStatus() == expected;
+            if(ok && addresses[i].endsWith("/slow")) ok = result.getFirstByteNanos() >= TimeUnit.MILLISECONDS.toNanos(SLOW_REPLY);
+            passed &= ok;
+            System.out.printf("%-4s %-45s %-11s %s%n", ok ? "ok" : "FAIL", addresses[i],
+                    result == null ? "no result" : result.getStatus(), result == null ? "" : result.getOutput());
+        }
+        if(prober.getException() != null) passed = false;
+
+        // many targets at once
+        List<String> many = new ArrayList<>();
+        for(int i = 0; i < dnsTargets; i++) many.add("dns://" + dnsServer + "/ok.test");
+        for(int i = 0; i < httpTargets; i++) many.add("http://" + httpServer + "/ok");
+        String[] manyAddresses = many.toArray(new String[0]);
+        AtomicLong successes = new AtomicLong();
+        AtomicLong failures = new AtomicLong();
+        AtomicLongArray failuresByStatus = new AtomicLongArray(ProbeResult.Status.values().length);
+        long[] firstBytes = new long[manyAddresses.length * (seconds + 1)];
+        AtomicLong samples = new AtomicLong();
+        SelectorProber load = new SelectorProber(manyAddresses, SelectorProber.defaultLoopCount(manyAddresses.length), 2000, 1000,
+                (index, result) -> {
+                    if(! result.isConnected()){
+                        failures.incrementAndGet();
+                        failuresByStatus.incrementAndGet(result.getStatus().ordinal());
+                        return;
+                    }
+                    successes.incrementAndGet();
+                    long n = samples.getAndIncrement();
+                    if(n < firstBytes.length) firstBytes[(int) n] = result.getFirstByteNanos();
+                });
+        long start = System.nanoTime();
+        load.start();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        load.close();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        int count = (int) Math.min(samples.get(), firstBytes.length);
+        long[] sorted = Arrays.copyOf(firstBytes, count);
+        Arrays.sort(sorted);
+        StringBuilder failed = new StringBuilder();
+        for(ProbeResult.Status status : ProbeResult.Status.values()){
+            long n = failuresByStatus.get(status.ordinal());
+            if(n > 0) failed.append(failed.isEmpty() ? " (" : ", ").append(n).append(' ').append(status);
+        }
+        if(! failed.isEmpty()) failed.append(')');
+        System.out.printf("%n%d dns and %d http targets probed every second for %d s: %.0f results/s, %d failed%s, first byte p50 %.2f ms, p99 %.2f ms%n",
+                dnsTargets, httpTargets, seconds, (successes.get() + failures.get()) / elapsed, failures.get(), failed,
+                count == 0 ? 0 : sorted[count / 2] / 1e6, count == 0 ? 0 : sorted[(int) (count * 0.99)] / 1e6);
+        System.out.println(passed ? "all probes ended as expected" : "SOME PROBES DID NOT END AS EXPECTED");
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static void startDnsServer(DatagramSocket socket) {
+        Thread thread = new Thread(() -> {
+            byte[] buffer = new byte[512];
+            try {
+                while(true){
+                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                    socket.receive(packet);
+                    String name = readName(buffer);
+                    ByteBuffer reply = ByteBuffer.allocate(packet.getLength() + 16);
+                    reply.put(buffer, 0, packet.getLength());
+                    switch(name){
+                        case "silent.test" -> { continue; }
+                        case "spoof.test" -> reply.putShort(0, (short) (reply.getShort(0) + 1)).putShort(2, (short) 0x8180);
+                        case "missing.test" -> reply.putShort(2, (short) 0x8183);
+                        case "broken.test" -> reply.putShort(2, (short) 0x8182);
+                        default -> {
+                            reply.putShort(2, (short) 0x8180).putShort(6, (short) 1);
+                            // the answer: a pointer to the name of the question, A, IN, a ttl of 60 and 127.0.0.1
+                            reply.putShort((short) 0xC00C).putShort((short) 1).putShort((short) 1).putInt(60)
+                                    .putShort((short) 4).put(new byte[]{127, 0, 0, 1});
+                        }
+                    }
+                    socket.send(new DatagramPacket(reply.array(), reply.position(), packet.getSocketAddress()));
+                }
+            } catch (IOException ignored) {}
+        }, "stub-dns");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static String readName(byte[] query) {
+        StringBuilder name = new StringBuilder();
+        int i = 12;
+        while(query[i] != 0){
+            if(! name.isEmpty()) name.append('.');
+            name.append(new String(query, i + 1, query[i], StandardCharsets.US_ASCII));
+            i += query[i] + 1;
+        }
+        return name.toString();
+    }
+
+    private static void startHttpServer(ServerSocket server) {
+        List<Socket> hanging = new ArrayList<>();
+        Thread thread = new Thread(() -> {
+            try {
+                while(true){
+                    Socket socket = server.accept();
+                    String path = readPath(socket.getInputStream());
+                    switch(path){
+                        case "/hang" -> hanging.add(socket);
+                        case "/slow" -> {
+                            Thread slow = new Thread(() -> {
+                                try (socket) {
+                                    Thread.sleep(SLOW_REPLY);
+                                    reply(socket, "HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n");
+                                } catch (Exception ignored) {}
+                            });
+                            slow.setDaemon(true);
+                            slow.start();
+                        }
+                        default -> {
+                            try (socket) {
+                                reply(socket, switch(path){
+                                    case "/error" -> "HTTP/1.1 503 Service Unavailable\r\nContent-Length: 0\r\n\r\n";
+                                    case "/garbage" -> "hello\n";
+                                    default -> "HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n";
+                                });
+                            } catch (IOException ignored) {}
+                        }
+                    }
+                }
+            } catch (IOException ignored) {}
+        }, "stub-http");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the path of the request line, after reading the whole request
+     */
+    private static String readPath(InputStream in) throws IOException {
+        StringBuilder request = new StringBuilder();
+        int b;
+        while((b = in.read()) != -1){
+            request.append((char) b);
+            if(request.length() >= 4 && request.lastIndexOf("\r\n\r\n") == request.length() - 4) break;
+        }
+        String[] requestLine = request.toString().split(" ", 3);
+        if(requestLine.length < 2) return "";
+        int query = requestLine[1].indexOf('?');
+        return query == -1 ? requestLine[1] : requestLine[1].substring(0, query);
+    }
+
+    private static void reply(Socket socket, String reply) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(reply.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    /**
+     * @return a port nothing listens on, for TCP or UDP
+     */
+    private static int closedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+}
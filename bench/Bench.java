@@ -0,0 +1,114 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A minimal microbenchmark harness - the project has no build system to pull in JMH,
+ * so this covers the two numbers we care about the same way JMH's gc profiler does:
+ * average time per operation and bytes allocated per operation (gc.alloc.rate.norm).
+ * <p>
+ * Results can be saved as a baseline and compared against on later runs to catch regressions.
+ */
+public class Bench {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASUREMENT_ROUNDS = 10;
+    private static final long ROUND_TIME_NANOS = 200_000_000;
+
+    /** Ops slower or allocating more than this factor of the baseline are reported as regressions */
+    private static final double REGRESSION_FACTOR = 1.2;
+
+    private static final com.sun.management.ThreadMXBean threadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // results are written here so the JIT can't drop the benchmarked code
+    @SuppressWarnings("unused")
+    private static volatile Object sink;
+
+    private final Map<String, double[]> results = new LinkedHashMap<>();
+
+    // captured up front so benchmarks can redirect System.out without hiding the results
+    private final PrintStream out = System.out;
+
+    public record Result(double nanosPerOp, double bytesPerOp) {}
+
+    public Result run(String name, Supplier<?> op) {
+        long opsPerRound = calibrate(op);
+        for(int i = 0; i < WARMUP_ROUNDS; i++){
+            runRound(op, opsPerRound);
+        }
+
+        long totalNanos = 0;
+        long totalBytes = 0;
+        long threadId = Thread.currentThread().threadId();
+        for(int i = 0; i < MEASUREMENT_ROUNDS; i++){
+            long bytesBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+            totalNanos += runRound(op, opsPerRound);
+            totalBytes += threadMXBean.getThreadAllocatedBytes(threadId) - bytesBefore;
+        }
+
+        long ops = opsPerRound * MEASUREMENT_ROUNDS;
+        Result result = new Result(totalNanos / (double) ops, totalBytes / (double) ops);
+        results.put(name, new double[]{result.nanosPerOp, result.bytesPerOp});
+        double allocRate = result.bytesPerOp / result.nanosPerOp * 1000; // bytes per ns -> MB per second
+        out.printf("%-45s %12.1f ns/op %10.1f B/op %10.1f MB/sec%n", name, result.nanosPerOp, result.bytesPerOp, allocRate);
+        return result;
+    }
+
+    public void saveBaseline(Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+            for(var entry : results.entrySet()){
+                writer.write("%s\t%s\t%s\n".formatted(entry.getKey(), entry.getValue()[0], entry.getValue()[1]));
+            }
+        }
+    }
+
+    /**
+     * @return true if none of the results regressed compared to the baseline
+     */
+    public boolean compareToBaseline(Path path) throws IOException {
+        boolean ok = true;
+        for(String line : Files.readAllLines(path)){
+            String[] parts = line.split("\t");
+            double[] current = results.get(parts[0]);
+            if(current == null) continue;
+            double nanos = Double.parseDouble(parts[1]);
+            double bytes = Double.parseDouble(parts[2]);
+            if(current[0] > nanos * REGRESSION_FACTOR){
+                out.printf("REGRESSION: %s took %.1f ns/op, baseline is %.1f ns/op%n", parts[0], current[0], nanos);
+                ok = false;
+            }
+            // a few bytes of noise are normal for allocation free code
+            if(current[1] > bytes * REGRESSION_FACTOR + 8){
+                out.printf("REGRESSION: %s allocated %.1f B/op, baseline is %.1f B/op%n", parts[0], current[1], bytes);
+                ok = false;
+            }
+        }
+        return ok;
+    }
+
+    private static long calibrate(Supplier<?> op) {
+        long ops = 1;
+        while(true){
+            long nanos = runRound(op, ops);
+            if(nanos >= ROUND_TIME_NANOS / 10) {
+                return Math.max(1, ops * ROUND_TIME_NANOS / nanos);
+            }
+            ops *= 2;
+        }
+    }
+
+    private static long runRound(Supplier<?> op, long ops) {
+        long start = System.nanoTime();
+        for(long i = 0; i < ops; i++){
+            sink = op.get();
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,202 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Concurrency tests of {@link ConnectivityState}, in the spirit of jcstress (the repo has no test framework).
+ * <ul>
+ * <li>race - two actors mark their targets down at the same moment, over and over, and every outcome is counted.
+ *     Outcomes that break the state machine are forbidden and fail the run</li>
+ * <li>properties - every target is owned by a thread that flips it up and down at random, like a probe would,
+ *     while an observer checks the invariants of every snapshot it sees</li>
+ * <li>mass outage - every target of a large group goes down and comes back, from a few threads at once,
+ *     like a lost connection seen by every probe. Prints the time per change</li>
+ * </ul>
+ * Usage: {@code java -cp out ConnectivityStateStress [race iterations] [property seconds] [mass outage targets]}
+ */
+public class ConnectivityStateStress {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int massTargets = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+        boolean ok = race(iterations, 2);
+        ok &= race(iterations, 1);
+        ok &= properties(64 * 3 + 5, 7, seconds);
+        ok &= massOutage(massTargets, 4);
+        if(! ok) System.exit(1);
+    }
+
+    /**
+     * Two targets go down at once. With a quorum of 2 exactly one actor must see the group go down,
+     * with a quorum of 1 both see it down but only one outage is counted
+     */
+    private static boolean race(int iterations, int quorum) throws Exception {
+        AtomicReference<ConnectivityState> current = new AtomicReference<>();
+        ConnectivityState.State[] results = new ConnectivityState.State[2];
+        Map<String,Integer> outcomes = new TreeMap<>();
+
+        // both actors wait for the same round number, then race
+        AtomicInteger round = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+        Thread[] actors = new Thread[2];
+        for(int a = 0; a < 2; a++){
+            int actor = a;
+            actors[a] = new Thread(() -> {
+                for(int i = 1; i <= iterations; i++){
+                    while(round.get() < i) Thread.yield();
+                    results[actor] = current.get().markDown(actor, 1000 + actor).getState();
+                    done.incrementAndGet();
+                }
+            });
+            actors[a].setDaemon(true);
+            actors[a].start();
+        }
+
+        boolean ok = true;
+        for(int i = 1; i <= iterations; i++){
+            ConnectivityState state = new ConnectivityState(2, quorum);
+            current.set(state);
+            done.set(0);
+            round.set(i);
+            while(done.get() < 2) Thread.yield();
+
+            ConnectivityState.Snapshot last = state.get();
+            String outcome = "%s, %s | final %s, outages %d, down since %d".formatted(
+                    results[0], results[1], last.getState(), last.getOutages(), last.getDownSince());
+            outcomes.merge(outcome, 1, Integer::sum);
+        }
+
+        System.out.printf("race, 2 targets, quorum %d:%n", quorum);
+        for(var entry : outcomes.entrySet()){
+            boolean acceptable = isAcceptable(entry.getKey(), quorum);
+            ok &= acceptable;
+            System.out.printf("  %-70s %9d  %s%n", entry.getKey(), entry.getValue(), acceptable ? "ACCEPTABLE" : "FORBIDDEN");
+        }
+        return ok;
+    }
+
+    private static boolean isAcceptable(String outcome, int quorum) {
+        if(quorum == 2){
+            // the group went down when the second target failed, at 1001
+            return outcome.equals("DEGRADED, DOWN | final DOWN, outages 1, down since 1001")
+                    || outcome.equals("DOWN, DEGRADED | final DOWN, outages 1, down since 1001");
+        }
+        // whoever was first took the group down
+        return outcome.equals("DOWN, DOWN | final DOWN, outages 1, down since 1000")
+                || outcome.equals("DOWN, DOWN | final DOWN, outages 1, down since 1001");
+    }
+
+    private static boolean properties(int targets, int threads, int seconds) throws Exception {
+        int quorum = targets / 2;
+        ConnectivityState state = new ConnectivityState(targets, quorum);
+        AtomicBoolean running = new AtomicBoolean(true);
+        boolean[][] finalDown = new boolean[threads][];
+        AtomicReference<String> violation = new AtomicReference<>();
+
+        Thread observer = new Thread(() -> {
+            long lastOutages = 0;
+            while(running.get()){
+                ConnectivityState.Snapshot snapshot = state.get();
+                String problem = check(snapshot, targets, quorum, lastOutages);
+                if(problem != null){
+                    violation.compareAndSet(null, problem);
+                    return;
+                }
+                lastOutages = snapshot.getOutages();
+            }
+        });
+
+        Thread[] owners = new Thread[threads];
+        for(int t = 0; t < threads; t++){
+            int owner = t;
+            owners[t] = new Thread(() -> {
+                // this thread owns every target where target % threads == owner
+                boolean[] down = new boolean[targets];
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while(running.get()){
+                    int target = owner + threads * random.nextInt((targets - owner + threads - 1) / threads);
+                    long now = System.currentTimeMillis();
+                    ConnectivityState.Snapshot after = down[target] ? state.markUp(target, now) : state.markDown(target, now);
+                    String problem = check(after, targets, quorum, 0);
+                    if(problem != null) violation.compareAndSet(null, problem);
+                    down[target] = ! down[target];
+                    // a thread always sees its own change
+                    if(state.isDown(target) != down[target]){
+                        violation.compareAndSet(null, "target %d: own change not visible".formatted(target));
+                    }
+                }
+                finalDown[owner] = down;
+            });
+        }
+
+        observer.start();
+        for(Thread owner : owners) owner.start();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for(Thread owner : owners) owner.join();
+        observer.join();
+
+        // the final snapshot matches what every owner believes
+        ConnectivityState.Snapshot last = state.get();
+        int expectedDown = 0;
+        for(int target = 0; target < targets; target++){
+            boolean down = finalDown[target % threads][target];
+            if(down) expectedDown++;
+            if(state.isDown(target) != down) violation.compareAndSet(null, "target %d: final state lost an update".formatted(target));
+        }
+        if(last.getDownCount() != expectedDown) violation.compareAndSet(null, "final down count %d, expected %d".formatted(last.getDownCount(), expectedDown));
+        String problem = check(last, targets, quorum, 0);
+        if(problem != null) violation.compareAndSet(null, problem);
+
+        System.out.printf("properties, %d targets, %d threads, quorum %d, %d s: %d outages, %s%n",
+                targets, threads, quorum, seconds, last.getOutages(), violation.get() == null ? "no violations" : "VIOLATION: " + violation.get());
+        return violation.get() == null;
+    }
+
+    private static String check(ConnectivityState.Snapshot snapshot, int targets, int quorum, long lastOutages) {
+        int down = snapshot.getDownCount();
+        if(down < 0 || down > targets) return "down count %d of %d targets".formatted(down, targets);
+        ConnectivityState.State expected = down == 0 ? ConnectivityState.State.UP
+                : down >= quorum ? ConnectivityState.State.DOWN : ConnectivityState.State.DEGRADED;
+        if(snapshot.getState() != expected) return "state %s with %d of %d down".formatted(snapshot.getState(), down, quorum);
+        if(snapshot.getOutages() < lastOutages) return "outages went backwards";
+        return null;
+    }
+
+    private static boolean massOutage(int targets, int threads) throws Exception {
+        ConnectivityState state = new ConnectivityState(targets, 0);
+        long[] nanos = new long[2];
+        for(int phase = 0; phase < 2; phase++){
+            boolean down = phase == 0;
+            Thread[] workers = new Thread[threads];
+            for(int t = 0; t < threads; t++){
+                int owner = t;
+                workers[t] = new Thread(() -> {
+                    for(int target = owner; target < targets; target += threads){
+                        if(down) state.markDown(target, 1000 + target);
+                        else state.markUp(target, 1_000_000);
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            for(Thread worker : workers) worker.start();
+            for(Thread worker : workers) worker.join();
+            nanos[phase] = System.nanoTime() - start;
+            ConnectivityState.State expected = down ? ConnectivityState.State.DOWN : ConnectivityState.State.UP;
+            if(state.getState() != expected) {
+                System.out.printf("mass outage: %s after every target changed, expected %s%n", state.getState(), expected);
+                return false;
+            }
+        }
+        ConnectivityState.Snapshot last = state.get();
+        boolean ok = last.getOutages() == 1 && last.getDownSince() == 1000 + targets - 1 && last.getDownCount() == 0;
+        System.out.printf("mass outage, %d targets, %d threads: down %.0f ns and up %.0f ns per change, %d outage since %d%s%n",
+                targets, threads, nanos[0] / (double) targets, nanos[1] / (double) targets, last.getOutages(), last.getDownSince(),
+                ok ? "" : " - WRONG");
+        return ok;
+    }
+}
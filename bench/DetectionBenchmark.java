@@ -0,0 +1,478 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures how fast and how reliably the program notices that a connection is lost or found, end to end:
+ * the real {@link Main} runs headless with dns:// addresses that all point at a scripted stub DNS server on loopback,
+ * and the stub drops, delays or answers the queries of each address as a scenario says.
+ * <p>
+ * The addresses are paired into up to {@value #SCENARIO_GROUPS} groups of 2, like a connection checked through 2
+ * redundant addresses, and the scenario acts on these groups. The rest of the addresses are in one more group 'bg'
+ * that stays up, so 10000 addresses load the program without more groups to watch.
+ * A group is really down while all its addresses are down. The time from a change in the stub to the
+ * "Lost connection" or "Found connection" line on the console is the detection latency.
+ * A "Lost connection" line without an outage is a false positive; an outage of at least {@value #MIN_OUTAGE} ms
+ * without a "Lost connection" line, or an outage that ended without a "Found connection" line, is a false negative.
+ * The CPU and the allocation are of the program only, without the stub and the script.
+ * <p>
+ * Every scenario and number of addresses runs in a fresh JVM with its own INTERNET_TESTER_HOME.
+ * A scenario is a script, one step a line: {@code <second> <groups> <addresses> <action> [value]}, where groups is
+ * {@code all}, a number or a range like {@code 0-9}, addresses is {@code all} or the number of the address in the group,
+ * and the action is {@code down}, {@code up}, {@code loss <percent>} or {@code latency <ms>}.
+ * {@code <second> end} ends the run, {@code set <key>: <value>} is a line for config.txt and
+ * {@code min_targets <n>} skips the smaller runs. The seconds count from when every address got its first probe.
+ * The built in scenarios are {@value #BUILT_IN_NAMES}; the name of a file runs the script in it.
+ * Usage: {@code java -cp out DetectionBenchmark [all|scenario,...|script file] [numbers of addresses, like 1,10,100,1000,10000]}
+ */
+public class DetectionBenchmark {
+
+    private static final int SCENARIO_GROUPS = 50;
+    private static final int GROUP_SIZE = 2;
+    private static final long MIN_OUTAGE = 3000;
+    private static final long STARTUP_TIMEOUT = 60_000;
+    private static final long SEED = 42;
+    private static final String BUILT_IN_NAMES = "outage, flaps, partial-loss, dead-redundant and latency";
+    private static final String CONFIG = """
+            probe_mode: nio
+            timeout: 1000
+            """;
+
+    private static final Map<String,String> SCENARIOS = new LinkedHashMap<>();
+    static {
+        SCENARIOS.put("outage", """
+                10 all all down
+                20 all all up
+                30 end
+                """);
+        SCENARIOS.put("flaps", """
+                10 all all down
+                13 all all up
+                17 all all down
+                20 all all up
+                24 all all down
+                27 all all up
+                31 all all down
+                34 all all up
+                40 end
+                """);
+        SCENARIOS.put("partial-loss", """
+                10 all all loss 30
+                30 all all up
+                35 end
+                """);
+        SCENARIOS.put("dead-redundant", """
+                min_targets 2
+                10 all 0 down
+                30 end
+                """);
+        SCENARIOS.put("latency", """
+                10 all all latency 300
+                30 all all up
+                35 end
+                """);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if(args.length > 0 && args[0].equals("--run")){
+            run(args[1], Files.exists(Path.of(args[1])) ? Files.readString(Path.of(args[1])) : SCENARIOS.get(args[1]),
+                    Integer.parseInt(args[2]));
+            return;
+        }
+        String which = args.length > 0 ? args[0] : "all";
+        int[] counts = Arrays.stream((args.length > 1 ? args[1] : "1,10,100,1000,10000").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        List<String> scenarios = which.equals("all") ? List.copyOf(SCENARIOS.keySet()) : List.of(which.split(","));
+        for(String scenario : scenarios){
+            if(! SCENARIOS.containsKey(scenario) && ! Files.exists(Path.of(scenario))){
+                System.out.println("Unknown scenario " + scenario + ", the built in ones are " + BUILT_IN_NAMES);
+                return;
+            }
+        }
+
+        System.out.printf("%-15s %7s %6s %-26s %-26s %4s %4s %8s %6s %9s %7s%n", "scenario", "targets", "events",
+                "lost p50/p90/p99/max ms", "found p50/p90/p99/max ms", "FP", "FN", "probes/s", "CPU %", "alloc MB/s", "heap MB");
+        for(String scenario : scenarios){
+            for(int targets : counts){
+                Path home = Files.createTempDirectory("detection-bench");
+                ProcessBuilder builder = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                        "-cp", System.getProperty("java.class.path"), "DetectionBenchmark", "--run", scenario, String.valueOf(targets));
+                builder.environment().put("INTERNET_TESTER_HOME", home.toString());
+                builder.redirectErrorStream(true);
+                Process process = builder.start();
+                String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                int exit = process.waitFor();
+                String row = output.lines().filter(line -> line.startsWith("ROW ")).findFirst().orElse(null);
+                if(exit == 0 && row != null){
+                    System.out.println(row.substring(4));
+                } else {
+                    System.out.printf("%-15s %7d failed with exit code %d:%n%s%n", scenario, targets, exit, output.indent(4));
+                }
+                deleteFolder(home);
+            }
+        }
+    }
+
+    //==================================================================================================================
+    // < RUN >
+
+    private record Step(long millis, int fromGroup, int toGroup, int address, String action, int value) {}
+
+    /**
+     * When a scenario group became really down or up
+     */
+    private record Change(long nanos, boolean down) {}
+
+    /**
+     * Runs a scenario against the program in this JVM, prints its row and exits
+     */
+    private static void run(String name, String script, int targets) throws Exception {
+        PrintStream console = System.out;
+        int groupSize = Math.min(GROUP_SIZE, targets);
+        int scenarioGroups = Math.min(SCENARIO_GROUPS, targets / groupSize);
+        List<Step> steps = new ArrayList<>();
+        StringBuilder config = new StringBuilder(CONFIG);
+        long end = 0;
+        for(String line : script.lines().map(String::strip).toList()){
+            if(line.isEmpty() || line.startsWith("#")) continue;
+            String[] parts = line.split("\\s+");
+            if(parts[0].equals("set")){
+                config.append(line.substring(4)).append('\n');
+            } else if(parts[0].equals("min_targets")){
+                if(targets < Integer.parseInt(parts[1])){
+                    console.printf("ROW %-15s %7d n/a, needs %s addresses%n", name, targets, parts[1]);
+                    System.exit(0);
+                }
+            } else if(parts[1].equals("end")){
+                end = TimeUnit.SECONDS.toMillis(Long.parseLong(parts[0]));
+            } else {
+                int from = 0;
+                int to = scenarioGroups - 1;
+                if(! parts[1].equals("all")){
+                    String[] range = parts[1].split("-");
+                    from = Integer.parseInt(range[0]);
+                    to = Math.min(to, Integer.parseInt(range[range.length - 1]));
+                }
+                int address = parts[2].equals("all") ? -1 : Integer.parseInt(parts[2]);
+                steps.add(new Step((long) (Double.parseDouble(parts[0]) * 1000), from, to, address, parts[3],
+                        parts.length > 4 ? Integer.parseInt(parts[4]) : 0));
+            }
+        }
+        steps.sort((a, b) -> Long.compare(a.millis, b.millis));
+        Files.writeString(Path.of(System.getenv("INTERNET_TESTER_HOME"), "config.txt"), config);
+
+        StubDns stub = new StubDns(targets);
+        stub.start();
+        String server = "dns://127.0.0.1:" + stub.port() + "/t";
+        List<String> args = new ArrayList<>();
+        args.add("--headless");
+        for(int g = 0; g < scenarioGroups; g++){
+            StringBuilder arg = new StringBuilder("g" + g + "=");
+            for(int i = 0; i < groupSize; i++) arg.append(i == 0 ? "" : ",").append(server).append(g * groupSize + i).append(".sim");
+            args.add(arg.toString());
+        }
+        if(scenarioGroups * groupSize < targets){
+            StringBuilder arg = new StringBuilder("bg=");
+            for(int i = scenarioGroups * groupSize; i < targets; i++){
+                arg.append(i == scenarioGroups * groupSize ? "" : ",").append(server).append(i).append(".sim");
+            }
+            args.add(arg.toString());
+        }
+
+        DetectionLog log = new DetectionLog();
+        System.setOut(new PrintStream(log, true, StandardCharsets.UTF_8));
+        Thread program = new Thread(() -> Main.main(args.toArray(new String[0])), "program");
+        program.setDaemon(true);
+        program.start();
+        long waitUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STARTUP_TIMEOUT);
+        while(stub.probed.get() < targets){
+            if(System.nanoTime() > waitUntil){
+                console.printf("only %d of %d addresses were probed after %d ms%n", stub.probed.get(), targets, STARTUP_TIMEOUT);
+                System.exit(1);
+            }
+            Thread.sleep(10);
+        }
+
+        // the script, from the first probe of the last address
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var os = (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        long harness = Thread.currentThread().threadId();
+        long start = System.nanoTime();
+        long cpuBefore = os.getProcessCpuTime() - threads.getThreadCpuTime(stub.threadId()) - threads.getThreadCpuTime(harness);
+        long allocatedBefore = allocated(threads, harness, stub.threadId());
+        long queriesBefore = stub.queries.get();
+        boolean[][] down = new boolean[scenarioGroups][groupSize];
+        boolean[] groupDown = new boolean[scenarioGroups];
+        List<List<Change>> changes = new ArrayList<>();
+        for(int g = 0; g < scenarioGroups; g++) changes.add(new ArrayList<>());
+        for(Step step : steps){
+            sleepUntil(start + TimeUnit.MILLISECONDS.toNanos(step.millis));
+            for(int g = step.fromGroup; g <= step.toGroup; g++){
+                for(int i = 0; i < groupSize; i++){
+                    if(step.address != -1 && step.address != i) continue;
+                    int target = g * groupSize + i;
+                    switch(step.action){
+                        case "down" -> { stub.loss.set(target, 100); down[g][i] = true; }
+                        case "up" -> { stub.loss.set(target, 0); stub.latency.set(target, 0); down[g][i] = false; }
+                        case "loss" -> { stub.loss.set(target, step.value); down[g][i] = step.value >= 100; }
+                        case "latency" -> stub.latency.set(target, step.value);
+                        default -> throw new IllegalArgumentException("Unknown action " + step.action);
+                    }
+                }
+                boolean isDown = true;
+                for(boolean addressDown : down[g]) isDown &= addressDown;
+                if(isDown != groupDown[g]){
+                    groupDown[g] = isDown;
+                    changes.get(g).add(new Change(System.nanoTime(), isDown));
+                }
+            }
+        }
+        sleepUntil(start + TimeUnit.MILLISECONDS.toNanos(end));
+        long elapsed = System.nanoTime() - start;
+        long cpu = os.getProcessCpuTime() - threads.getThreadCpuTime(stub.threadId()) - threads.getThreadCpuTime(harness) - cpuBefore;
+        long allocatedBytes = allocated(threads, harness, stub.threadId()) - allocatedBefore;
+        long probes = stub.queries.get() - queriesBefore;
+        System.gc();
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+        // match the lines to the changes, group by group
+        List<Long> lost = new ArrayList<>();
+        List<Long> found = new ArrayList<>();
+        int falsePositives = 0;
+        int falseNegatives = 0;
+        int events = 0;
+        long endNanos = start + elapsed;
+        List<List<DetectionLog.Line>> lines = log.byGroup(scenarioGroups);
+        for(int g = 0; g < scenarioGroups; g++){
+            List<Change> groupChanges = changes.get(g);
+            boolean[] matched = new boolean[groupChanges.size()];
+            for(DetectionLog.Line line : lines.get(g)){
+                int change = -1;
+                // the latest change of the right kind before the line
+                for(int c = 0; c < groupChanges.size(); c++){
+                    if(groupChanges.get(c).nanos <= line.nanos && groupChanges.get(c).down == line.lost) change = c;
+                }
+                if(change == -1 || matched[change]){
+                    if(line.lost) falsePositives++;
+                    continue;
+                }
+                matched[change] = true;
+                (line.lost ? lost : found).add(line.nanos - groupChanges.get(change).nanos);
+            }
+            for(int c = 0; c < groupChanges.size(); c++){
+                Change change = groupChanges.get(c);
+                events++;
+                if(matched[c]) continue;
+                long until = c + 1 < groupChanges.size() ? groupChanges.get(c + 1).nanos : endNanos;
+                // a short outage can end before the probes notice it, an outage that is found again can't be missed
+                boolean mustSee = change.down ? until - change.nanos >= TimeUnit.MILLISECONDS.toNanos(MIN_OUTAGE) : c > 0 && matched[c - 1];
+                if(mustSee) falseNegatives++;
+            }
+        }
+        falsePositives += log.byGroup(scenarioGroups).get(scenarioGroups).size(); // 'bg' never goes down
+
+        console.printf("ROW %-15s %7d %6d %-26s %-26s %4d %4d %8.0f %6.1f %9.1f %7.0f%n", name, targets, events,
+                percentiles(lost), percentiles(found), falsePositives, falseNegatives,
+                probes / (elapsed / 1e9), 100.0 * cpu / elapsed, allocatedBytes / (elapsed / 1e9) / 1e6, heap / 1e6);
+        System.exit(0);
+    }
+
+    private static String percentiles(List<Long> nanos) {
+        if(nanos.isEmpty()) return "-";
+        long[] sorted = nanos.stream().mapToLong(Long::longValue).sorted().toArray();
+        return "%d/%d/%d/%d".formatted(millis(sorted, 0.5), millis(sorted, 0.9), millis(sorted, 0.99), millis(sorted, 1));
+    }
+
+    private static long millis(long[] sorted, double percentile) {
+        return TimeUnit.NANOSECONDS.toMillis(sorted[(int) Math.min(sorted.length - 1, Math.ceil(sorted.length * percentile) - 1)]);
+    }
+
+    /**
+     * @return the bytes allocated by the live threads, but the given ones
+     */
+    private static long allocated(com.sun.management.ThreadMXBean threads, long... except) {
+        long sum = 0;
+        for(long id : threads.getAllThreadIds()){
+            if(Arrays.stream(except).anyMatch(e -> e == id)) continue;
+            long bytes = threads.getThreadAllocatedBytes(id);
+            if(bytes > 0) sum += bytes;
+        }
+        return sum;
+    }
+
+    private static void sleepUntil(long nanos) throws InterruptedException {
+        long left;
+        while((left = nanos - System.nanoTime()) > 0) TimeUnit.NANOSECONDS.sleep(left);
+    }
+
+    //==================================================================================================================
+    // < CONSOLE >
+
+    /**
+     * The console of the program: keeps when each "Lost connection" and "Found connection" line was printed
+     */
+    private static final class DetectionLog extends OutputStream {
+
+        private static final Pattern DETECTION = Pattern.compile("\\] (\\w+): (Lost|Found) connection");
+
+        private record Line(long nanos, String group, boolean lost) {}
+
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private final List<Line> lines = new ArrayList<>();
+
+        @Override
+        public synchronized void write(int b) {
+            if(b != '\n'){
+                line.write(b);
+                return;
+            }
+            Matcher matcher = DETECTION.matcher(line.toString(StandardCharsets.UTF_8));
+            if(matcher.find()) lines.add(new Line(System.nanoTime(), matcher.group(1), matcher.group(2).equals("Lost")));
+            line.reset();
+        }
+
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int length) {
+            for(int i = offset; i < offset + length; i++) write(bytes[i]);
+        }
+
+        /**
+         * @return the lines of the groups g0 to g[groups - 1], and of 'bg' last
+         */
+        private synchronized List<List<Line>> byGroup(int groups) {
+            List<List<Line>> byGroup = new ArrayList<>();
+            for(int g = 0; g <= groups; g++) byGroup.add(new ArrayList<>());
+            for(Line line : lines){
+                byGroup.get(line.group.equals("bg") ? groups : Integer.parseInt(line.group.substring(1))).add(line);
+            }
+            return byGroup;
+        }
+    }
+
+    //==================================================================================================================
+    // < STUB DNS >
+
+    /**
+     * Answers the query for t[n].sim by the loss and the latency of address n, on one thread
+     */
+    private static final class StubDns {
+
+        private record Delayed(long due, byte[] reply, SocketAddress to) {}
+
+        private final AtomicIntegerArray loss; // percent
+        private final AtomicIntegerArray latency; // ms
+        private final AtomicIntegerArray seen;
+        private final AtomicLong probed = new AtomicLong(); // addresses with a query
+        private final AtomicLong queries = new AtomicLong();
+        private final DatagramSocket socket;
+        private final Thread thread;
+
+        private StubDns(int targets) throws IOException {
+            loss = new AtomicIntegerArray(targets);
+            latency = new AtomicIntegerArray(targets);
+            seen = new AtomicIntegerArray(targets);
+            socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            socket.setReceiveBufferSize(4 << 20); // 10000 addresses probed in the same millisecond wait here
+            thread = new Thread(this::serve, "stub-dns");
+            thread.setDaemon(true);
+        }
+
+        private void start() {
+            thread.start();
+        }
+
+        private int port() {
+            return socket.getLocalPort();
+        }
+
+        private long threadId() {
+            return thread.threadId();
+        }
+
+        private void serve() {
+            Random random = new Random(SEED);
+            byte[] buffer = new byte[512];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            PriorityQueue<Delayed> delayed = new PriorityQueue<>((a, b) -> Long.compare(a.due, b.due));
+            try {
+                while(true){
+                    long now = System.nanoTime();
+                    while(! delayed.isEmpty() && delayed.peek().due <= now){
+                        Delayed reply = delayed.poll();
+                        socket.send(new DatagramPacket(reply.reply, reply.reply.length, reply.to));
+                    }
+                    socket.setSoTimeout(delayed.isEmpty() ? 0 : (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(delayed.peek().due - now)));
+                    packet.setLength(buffer.length);
+                    try {
+                        socket.receive(packet);
+                    } catch (SocketTimeoutException e) {
+                        continue;
+                    }
+                    queries.incrementAndGet();
+                    int target = readTarget(buffer);
+                    if(target < 0 || target >= loss.length()) continue;
+                    if(seen.getAndSet(target, 1) == 0) probed.incrementAndGet();
+                    if(random.nextInt(100) < loss.get(target)) continue;
+
+                    // the answer: a pointer to the name of the question, A, IN, a ttl of 60 and 127.0.0.1
+                    int length = packet.getLength();
+                    byte[] reply = Arrays.copyOf(buffer, length + 16);
+                    reply[2] = (byte) 0x81;
+                    reply[3] = (byte) 0x80;
+                    reply[7] = 1;
+                    byte[] answer = {(byte) 0xC0, 0x0C, 0, 1, 0, 1, 0, 0, 0, 60, 0, 4, 127, 0, 0, 1};
+                    System.arraycopy(answer, 0, reply, length, answer.length);
+                    int delay = latency.get(target);
+                    if(delay > 0){
+                        delayed.add(new Delayed(now + TimeUnit.MILLISECONDS.toNanos(delay), reply, packet.getSocketAddress()));
+                    } else {
+                        socket.send(new DatagramPacket(reply, reply.length, packet.getSocketAddress()));
+                    }
+                }
+            } catch (IOException ignored) {}
+        }
+
+        /**
+         * @return n of the name t[n].sim in the question, or -1
+         */
+        private static int readTarget(byte[] query) {
+            int length = query[12];
+            if(length < 2 || query[13] != 't') return -1;
+            int target = 0;
+            for(int i = 14; i < 13 + length; i++){
+                if(query[i] < '0' || query[i] > '9') return -1;
+                target = target * 10 + query[i] - '0';
+            }
+            return target;
+        }
+    }
+
+    private static void deleteFolder(Path folder) throws IOException {
+        try (var files = Files.walk(folder)) {
+            for(Path path : files.sorted((a, b) -> b.compareTo(a)).toList()) Files.delete(path);
+        }
+    }
+}
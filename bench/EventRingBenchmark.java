@@ -0,0 +1,120 @@
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the event ring between the probing threads and the main thread.
+ * <ul>
+ * <li>throughput - several producers publish as fast as they can, and the consumer checks that
+ *     every producer's events arrive complete and in order</li>
+ * <li>wake up latency - a producer publishes a single event while the consumer is parked, like a target going down
+ *     on a quiet connection. The old main loop noticed such a change on its next poll, up to 250 ms later</li>
+ * <li>full from the consumer - the consumer publishes into its own ring until it is full, like the main thread printing
+ *     during a mass outage. It must get an answer instead of waiting for itself. Exits with 1 if it doesn't</li>
+ * </ul>
+ * Usage: {@code java -cp out EventRingBenchmark [producers]}
+ */
+public class EventRingBenchmark {
+
+    private static final int EVENTS_PER_PRODUCER = 2_000_000;
+    private static final int WAKE_UP_SAMPLES = 2000;
+
+    public static void main(String[] args) throws Exception {
+        int producers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        throughput(producers);
+        wakeUpLatency();
+        fullFromConsumer();
+    }
+
+    private static void throughput(int producers) throws Exception {
+        EventRing ring = new EventRing(1 << 16);
+        Thread[] threads = new Thread[producers];
+        for(int p = 0; p < producers; p++){
+            int producer = p;
+            threads[p] = new Thread(() -> {
+                for(int i = 0; i < EVENTS_PER_PRODUCER; i++){
+                    ring.publish(EventRing.Type.PROBE_RESULT, producer, null, i);
+                }
+            });
+        }
+
+        int[] next = new int[producers];
+        long total = (long) producers * EVENTS_PER_PRODUCER;
+        long start = System.nanoTime();
+        for(Thread thread : threads) thread.start();
+        long received = 0;
+        while(received < total){
+            received += ring.drain(event -> {
+                int expected = next[event.index()]++;
+                if((int) event.payload() != expected){
+                    throw new IllegalStateException("Producer %d: expected %d, got %s".formatted(event.index(), expected, event.payload()));
+                }
+            }, TimeUnit.SECONDS.toNanos(1));
+        }
+        long elapsed = System.nanoTime() - start;
+        for(Thread thread : threads) thread.join();
+
+        System.out.printf("throughput: %d producers, %d events in %.0f ms, %.1f M events/s, all in order%n",
+                producers, total, elapsed / 1e6, total / (elapsed / 1e9) / 1e6);
+    }
+
+    private static void wakeUpLatency() throws Exception {
+        EventRing ring = new EventRing(1024);
+        long[] latencies = new long[WAKE_UP_SAMPLES];
+        Thread producer = new Thread(() -> {
+            for(int i = 0; i < WAKE_UP_SAMPLES; i++){
+                try {
+                    Thread.sleep(1 + ThreadLocalRandom.current().nextInt(3));
+                } catch (InterruptedException e) {
+                    return;
+                }
+                ring.publish(EventRing.Type.TARGET_DOWN, i, null, System.nanoTime());
+            }
+        });
+        producer.start();
+
+        int[] count = new int[1];
+        while(count[0] < WAKE_UP_SAMPLES){
+            ring.drain(event -> latencies[count[0]++] = System.nanoTime() - (long) event.payload(), TimeUnit.SECONDS.toNanos(1));
+        }
+        producer.join();
+
+        Arrays.sort(latencies);
+        System.out.printf("wake up latency: p50 %.1f us, p99 %.1f us, max %.1f us (%d samples)%n",
+                latencies[WAKE_UP_SAMPLES / 2] / 1e3, latencies[WAKE_UP_SAMPLES * 99 / 100] / 1e3,
+                latencies[WAKE_UP_SAMPLES - 1] / 1e3, WAKE_UP_SAMPLES);
+    }
+
+    private static void fullFromConsumer() throws Exception {
+        EventRing ring = new EventRing(16);
+        int[] result = {-1, 0, 0}; // events that fit, whether one more failed, events drained afterwards
+        // on a thread of its own, so a consumer that waits for itself shows up as a timeout
+        Thread consumer = new Thread(() -> {
+            try {
+                ring.drain(event -> {}, 0); // this thread is the consumer from now on
+                int published = 0;
+                while(ring.tryPublish(new EventRing.Event(EventRing.Type.LOG_LINE, -1, null, published))) published++;
+                result[0] = published;
+                try {
+                    ring.publish(EventRing.Type.LOG_LINE, -1, null, "one too many");
+                } catch (IllegalStateException e) {
+                    result[1] = 1;
+                }
+                result[2] = ring.drain(event -> {}, 0);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }, "consumer");
+        consumer.setDaemon(true);
+        consumer.start();
+        consumer.join(TimeUnit.SECONDS.toMillis(5));
+        if(consumer.isAlive()){
+            System.out.println("full from the consumer: FAILED, publishing waited for the consumer itself for more than 5 s");
+            System.exit(1);
+        }
+        boolean passed = result[0] == 16 && result[1] == 1 && result[2] == 16;
+        System.out.printf("full from the consumer: %d events fit, one more %s, %d drained afterwards%s%n", result[0],
+                result[1] == 1 ? "failed right away" : "didn't fail", result[2], passed ? "" : " - FAILED");
+        if(! passed) System.exit(1);
+    }
+}
@@ -0,0 +1,94 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+
+/**
+ * Benchmarks the code that runs for every ping sample and every status line update.
+ * <p>
+ * Usage: {@code java -cp out HotPathBenchmark [baseline file]}<br/>
+ * If the baseline file exists the results are compared against it and the exit code is 1 on a regression,
+ * otherwise the results are saved to it.
+ */
+public class HotPathBenchmark {
+
+    private static final String REPLY_LINE = "Reply from 8.8.8.8: bytes=32 time=14ms TTL=117";
+    private static final String TIMEOUT_LINE = "Request timed out.";
+    private static final String LINUX_REPLY_LINE = "64 bytes from 8.8.8.8: icmp_seq=12 ttl=117 time=14.2 ms";
+    private static final String LINUX_TIMEOUT_LINE = "no answer yet for icmp_seq=13";
+    private static final String BUSYBOX_REPLY_LINE = "64 bytes from 8.8.8.8: seq=12 ttl=117 time=14.123 ms";
+
+    public static void main(String[] args) throws Exception {
+        Bench bench = new Bench();
+        LocalDateTime now = LocalDateTime.of(2024, 3, 7, 9, 5, 2);
+
+        // ping output parsing
+        PingOutputParser windows = new PingOutputParser(PingOutputParser.Dialect.WINDOWS);
+        PingOutputParser linux = new PingOutputParser(PingOutputParser.Dialect.LINUX_IPUTILS);
+        PingOutputParser busybox = new PingOutputParser(PingOutputParser.Dialect.BUSYBOX);
+        bench.run("parse windows(reply)", () -> windows.parse(REPLY_LINE));
+        bench.run("parse windows(timeout)", () -> windows.parse(TIMEOUT_LINE));
+        bench.run("parse linux(reply)", () -> linux.parse(LINUX_REPLY_LINE));
+        bench.run("parse linux(timeout)", () -> linux.parse(LINUX_TIMEOUT_LINE));
+        bench.run("parse busybox(reply)", () -> busybox.parse(BUSYBOX_REPLY_LINE));
+        bench.run("parse + toResult(reply)", () -> {
+            windows.parse(REPLY_LINE);
+            return ProcessProbeEngine.toResult(windows, REPLY_LINE);
+        });
+
+        // log formatting
+        bench.run("getTimestamp", () -> Main.getTimestamp(now));
+        bench.run("long response message", () -> "[%s] %s took %s ms to respond".formatted(Main.getTimestamp(now), "8.8.8.8", 1500));
+        bench.run("debug message", () -> "[%s]\n%s\n".formatted(Main.getTimestamp(now), REPLY_LINE));
+
+        // probe bookkeeping around the engine
+        ProbeResult cannedResult = ProbeResult.success(14_000_000, REPLY_LINE);
+        PingEndPoint endPoint = new PingEndPoint("8.8.8.8", timeout -> cannedResult);
+        bench.run("PingEndPoint.probe (output history)", endPoint::probe);
+
+        // latency statistics
+        LatencyStats stats = new LatencyStats();
+        bench.run("LatencyStats.record", () -> {
+            stats.record(false, 14_000_000);
+            return stats;
+        });
+        bench.run("LatencyStats.getPercentile(1h, 99)", () -> stats.getPercentile(LatencyStats.ONE_HOUR, 99));
+
+        // status line - printing goes nowhere so only the line building is measured
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            Main.initDisplayState(new String[]{"8.8.8.8", "8.8.4.4", "1.0.0.1"});
+            bench.run("animateMonitoring(3 addresses)", HotPathBenchmark::animateMonitoring);
+            Main.initDisplayState(addresses(100));
+            bench.run("animateMonitoring(100 addresses)", HotPathBenchmark::animateMonitoring);
+        } finally {
+            System.setOut(out);
+        }
+
+        if(args.length > 0){
+            Path baseline = Path.of(args[0]);
+            if(Files.exists(baseline)){
+                if(! bench.compareToBaseline(baseline)) System.exit(1);
+                System.out.println("No regressions compared to "+baseline);
+            } else {
+                bench.saveBaseline(baseline);
+                System.out.println("Saved baseline to "+baseline);
+            }
+        }
+    }
+
+    private static Object animateMonitoring() {
+        Main.animateMonitoring();
+        return null;
+    }
+
+    private static String[] addresses(int count) {
+        String[] addresses = new String[count];
+        for(int i = 0; i < count; i++){
+            addresses[i] = "10.0.%d.%d".formatted(i / 256, i % 256);
+        }
+        return addresses;
+    }
+}
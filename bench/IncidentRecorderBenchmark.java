@@ -0,0 +1,184 @@
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the incident recorder with the debug log over a simulated hour of probe results
+ * of a group of 3 addresses probed every 250 ms (tcp mode), with one outage of 30 seconds in the middle
+ * and a number of slow responses spread over the hour.
+ * <p>
+ * The debug log writes every result, like {@code enable_debug_log: true}. The recorder keeps the default
+ * 10 minutes in memory and only writes around the incidents. Prints the bytes each one wrote,
+ * and the time and the allocation of recording a result.
+ * When the incidents come more often than the window, the files cover most of the hour and write
+ * about as much as the debug log, with longer lines.
+ * <p>
+ * Then checks that a burst of adaptive probing before an incident (failures every
+ * {@link AdaptiveSchedule#BURST_INTERVAL} ms for a minute) doesn't push the start of the window out of the rings:
+ * the incident file must have every result of the window. Exits with 1 if not.
+ * Usage: {@code java -cp out IncidentRecorderBenchmark [slow responses an hour]}
+ */
+public class IncidentRecorderBenchmark {
+
+    private static final long INTERVAL = 250;
+    private static final String[] ADDRESSES = {"8.8.8.8", "1.1.1.1", "9.9.9.9"};
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static long longestIncident; // the longest the main thread took to report an incident
+
+    public static void main(String[] args) throws Exception {
+        int slowPerHour = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        Path folder = Files.createTempDirectory("incident-bench");
+        MonitorGroup group = new MonitorGroup(null, ADDRESSES, 0);
+        group.applyConfig(Config.parse(Map.of()));
+
+        // the results, made up front so only the recording is measured
+        int count = (int) (HOUR / INTERVAL) * ADDRESSES.length;
+        int slowEvery = slowPerHour == 0 ? Integer.MAX_VALUE : count / slowPerHour;
+        ProbeResult[] results = new ProbeResult[count];
+        long outageStart = HOUR / 2;
+        long outageEnd = outageStart + TimeUnit.SECONDS.toMillis(30);
+        for(int i = 0; i < count; i++){
+            long time = (i / ADDRESSES.length) * INTERVAL;
+            String address = ADDRESSES[i % ADDRESSES.length];
+            if(time >= outageStart && time < outageEnd){
+                results[i] = ProbeResult.failure(ProbeResult.Status.TIMEOUT, "Request timed out.");
+            } else {
+                long rtt = i % slowEvery == slowEvery / 2 ? 900 : 12 + i % 7;
+                results[i] = ProbeResult.success(TimeUnit.MILLISECONDS.toNanos(rtt),
+                        "Reply from %s: bytes=32 time=%dms TTL=117".formatted(address, rtt));
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        try (AsyncLogWriter writer = new AsyncLogWriter(30_000, 1000)) {
+            AsyncLogWriter.Log debugLog = writer.open(folder.resolve("debug_log.txt").toString(), AsyncLogWriter.OverflowPolicy.BLOCK);
+            for(int i = 0; i < count; i++){
+                debugLog.write("[%s]\n%s\n".formatted(Main.getTimestamp(toLocalDateTime(start + (i / ADDRESSES.length) * INTERVAL)),
+                        results[i].getOutput()));
+            }
+        }
+        long debugBytes = Files.size(folder.resolve("debug_log.txt"));
+
+        // the rings are allocated with the first result, and full after 10 minutes:
+        // the second hour shows the cost of a result on a full ring
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long steadyNanos;
+        long steadyAllocated;
+        try (AsyncLogWriter writer = new AsyncLogWriter(30_000, 1000)) {
+            IncidentRecorder recorder = new IncidentRecorder(group, INTERVAL, writer, folder.resolve("steady"));
+            record(recorder, results, start, false);
+            long allocated = threads.getCurrentThreadAllocatedBytes();
+            steadyNanos = record(recorder, results, start + HOUR, false);
+            steadyAllocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+        }
+
+        IncidentRecorder recorder;
+        long incidentNanos;
+        try (AsyncLogWriter writer = new AsyncLogWriter(30_000, 1000)) {
+            recorder = new IncidentRecorder(group, INTERVAL, writer, folder.resolve("incidents"));
+            incidentNanos = record(recorder, results, start, true);
+        }
+        long incidentBytes = 0;
+        int files = 0;
+        try (var paths = Files.list(folder.resolve("incidents"))) {
+            for(Path path : paths.toList()){
+                incidentBytes += Files.size(path);
+                files++;
+            }
+        }
+
+        System.out.printf("%d results in a simulated hour, 3 addresses every %d ms, one 30 s outage, %d slow responses%n",
+                count, INTERVAL, slowPerHour);
+        System.out.printf("debug log:         %,10d bytes written%n", debugBytes);
+        System.out.printf("incident recorder: %,10d bytes written in %d files (%d incidents)%n", incidentBytes, files, recorder.getIncidents());
+        System.out.printf("recording a result on a full ring: %.1f ns, %.2f bytes allocated%n",
+                steadyNanos / (double) count, steadyAllocated / (double) count);
+        System.out.printf("recording with the incidents written: %.1f ns per result, the longest incident took %.1f ms%n",
+                incidentNanos / (double) count, longestIncident / 1e6);
+        boolean burstOk = checkBurst(group, folder.resolve("burst"), start);
+        deleteFolder(folder);
+        if(! burstOk) System.exit(1);
+    }
+
+    private static boolean checkBurst(MonitorGroup group, Path folder, long start) throws Exception {
+        long window = TimeUnit.MINUTES.toMillis(group.getConfig().incidentWindow());
+        long burst = TimeUnit.MINUTES.toMillis(1);
+        long burstStart = start + window + TimeUnit.MINUTES.toMillis(5);
+        long incident = burstStart + burst;
+        int inWindow = 0;
+        try (AsyncLogWriter writer = new AsyncLogWriter(30_000, 1000)) {
+            IncidentRecorder recorder = new IncidentRecorder(group, INTERVAL, writer, folder);
+            long time = start;
+            while(time < incident){
+                boolean bursting = time >= burstStart;
+                for(int a = 0; a < ADDRESSES.length; a++){
+                    recorder.record(a, time, bursting ? ProbeResult.failure(ProbeResult.Status.TIMEOUT, "Request timed out.")
+                            : ProbeResult.success(TimeUnit.MILLISECONDS.toNanos(12), "Reply from %s: bytes=32 time=12ms TTL=117".formatted(ADDRESSES[a])));
+                    if(time >= incident - window) inWindow++;
+                }
+                time += bursting ? AdaptiveSchedule.BURST_INTERVAL : INTERVAL;
+            }
+            recorder.onIncident(incident, "[%d] Lost connection".formatted(incident), true);
+        }
+        int written;
+        try (var paths = Files.list(folder)) {
+            Path file = paths.findFirst().orElseThrow();
+            // the incident line and the heading come first
+            written = Files.readAllLines(file).size() - 2;
+        }
+        boolean passed = written == inWindow;
+        System.out.printf("burst of %d ms probes for %d s before an incident: %d of the %d results of the %d minute window written%s%n",
+                AdaptiveSchedule.BURST_INTERVAL, TimeUnit.MILLISECONDS.toSeconds(burst), written, inWindow,
+                TimeUnit.MILLISECONDS.toMinutes(window), passed ? "" : " - FAILED");
+        return passed;
+    }
+
+    /**
+     * Records the results like the main thread does, and reports the incidents like the main thread would
+     * @return the nanoseconds it took
+     */
+    private static long record(IncidentRecorder recorder, ProbeResult[] results, long start, boolean incidents) throws Exception {
+        int down = 0;
+        boolean outage = false;
+        long begin = System.nanoTime();
+        for(int i = 0; i < results.length; i++){
+            long time = start + (i / ADDRESSES.length) * INTERVAL;
+            ProbeResult result = results[i];
+            recorder.record(i % ADDRESSES.length, time, result);
+            if(! incidents) continue;
+            if(result.isConnected() && result.getRttMillis() >= 500){
+                long incidentStart = System.nanoTime();
+                recorder.onIncident(time, "[%d] %s took %d ms to respond".formatted(time, ADDRESSES[i % ADDRESSES.length], result.getRttMillis()), false);
+                longestIncident = Math.max(longestIncident, System.nanoTime() - incidentStart);
+            }
+            down = result.isConnected() ? 0 : down + 1;
+            if(! outage && down == ADDRESSES.length * 2){
+                outage = true;
+                long incidentStart = System.nanoTime();
+                recorder.onIncident(time, "[%d] Lost connection".formatted(time), true);
+                longestIncident = Math.max(longestIncident, System.nanoTime() - incidentStart);
+            } else if(outage && result.isConnected()){
+                outage = false;
+                long incidentStart = System.nanoTime();
+                recorder.onIncident(time, "[%d] Found connection after 30 seconds".formatted(time), false);
+                longestIncident = Math.max(longestIncident, System.nanoTime() - incidentStart);
+            }
+        }
+        return System.nanoTime() - begin;
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    private static void deleteFolder(Path folder) throws Exception {
+        try (var files = Files.walk(folder)) {
+            for(Path path : files.sorted((a, b) -> b.compareTo(a)).toList()) Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes a synthetic internet log of a few GB with known outages, checks that {@link LogAnalyzer} finds them,
+ * and compares its speed with reading the file line by line, the way a script (or grep) would.
+ * <p>
+ * Usage: {@code java -cp out LogAnalyzerBenchmark [size in MB] [file]}<br/>
+ * The file is written once and reused while its size matches.
+ */
+public class LogAnalyzerBenchmark {
+
+    private static final String[] ADDRESSES = {"8.8.8.8", "1.1.1.1", "192.168.1.1"};
+
+    public static void main(String[] args) throws Exception {
+        long megabytes = args.length > 0 ? Long.parseLong(args[0]) : 2048;
+        Path file = Path.of(args.length > 1 ? args[1] : System.getProperty("java.io.tmpdir") + "/internet_log - synthetic.txt");
+        Expected expected = generate(file, megabytes * 1024 * 1024);
+        System.out.printf("%s: %.1f MB%n", file, Files.size(file) / 1e6);
+
+        // the first read of a file that didn't fit the page cache measures the disk, so read it once up front
+        lineByLine(file);
+        long start = System.nanoTime();
+        long[] naive = lineByLine(file);
+        double naiveSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("line by line:  %.2f s (%.0f MB/s), %d outages, %d slow responses%n",
+                naiveSeconds, Files.size(file) / 1e6 / naiveSeconds, naive[0], naive[1]);
+
+        for(int round = 0; round < 3; round++){
+            start = System.nanoTime();
+            LogAnalyzer.Part part = LogAnalyzer.analyze(file);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("LogAnalyzer:   %.2f s (%.0f MB/s) on %d threads%n", seconds, Files.size(file) / 1e6 / seconds,
+                    Runtime.getRuntime().availableProcessors());
+            if(round == 2){
+                check(part, expected);
+                LogAnalyzer.report(new PrintStream(System.out), file, part, Files.size(file), System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static class Expected {
+        long lines;
+        long outages;
+        long downtime;
+        long slow;
+        int sessions;
+    }
+
+    private static Expected generate(Path file, long size) throws Exception {
+        Path expectedFile = Path.of(file + ".expected");
+        if(Files.exists(file) && Files.exists(expectedFile) && Files.size(file) >= size && Files.size(file) < size + 4096){
+            String[] values = Files.readString(expectedFile).strip().split(" ");
+            Expected expected = new Expected();
+            expected.lines = Long.parseLong(values[0]);
+            expected.outages = Long.parseLong(values[1]);
+            expected.downtime = Long.parseLong(values[2]);
+            expected.slow = Long.parseLong(values[3]);
+            expected.sessions = Integer.parseInt(values[4]);
+            return expected;
+        }
+
+        Expected expected = new Expected();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        LocalDateTime time = LocalDateTime.of(2021, 1, 1, 0, 0, 0);
+        long written = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            while(written < size){
+                String line;
+                int kind = random.nextInt(100_000);
+                if(kind == 0 || expected.lines == 0){
+                    line = "\n[%s] Started logging connection to \"8.8.8.8\",\"1.1.1.1\",\"192.168.1.1\" with timeout of 4000".formatted(Main.getTimestamp(time));
+                    expected.sessions++;
+                    expected.lines++; // the empty line
+                } else if(kind < 40){
+                    // an outage, and a few lines while it lasts
+                    long seconds = random.nextInt(100) < 90 ? 1 + random.nextInt(120) : 1 + random.nextInt(4 * 3600);
+                    StringBuilder outage = new StringBuilder("[%s] Lost connection".formatted(Main.getTimestamp(time)));
+                    for(int i = 0; i < 3; i++){
+                        outage.append('\n').append("[%s] %s Request timed out.".formatted(Main.getTimestamp(time.plusSeconds(i)), ADDRESSES[i]));
+                    }
+                    LocalDateTime end = time.plusSeconds(seconds);
+                    outage.append('\n').append("[%s] Found connection after %s".formatted(Main.getTimestamp(end), timeDiff(seconds)));
+                    line = outage.toString();
+                    expected.lines += 4;
+                    expected.outages++;
+                    expected.downtime += seconds;
+                    time = end;
+                } else {
+                    line = "[%s] %s took %d ms to respond".formatted(Main.getTimestamp(time), ADDRESSES[random.nextInt(ADDRESSES.length)], 1000 + random.nextInt(3000));
+                    expected.slow++;
+                }
+                writer.write(line);
+                writer.write('\n');
+                written += line.length() + 1;
+                expected.lines++;
+                time = time.plusSeconds(1 + random.nextInt(3));
+            }
+        }
+        Files.writeString(expectedFile, "%d %d %d %d %d".formatted(expected.lines, expected.outages, expected.downtime, expected.slow, expected.sessions));
+        return expected;
+    }
+
+    /**
+     * The format of Main.getTimeDiff
+     */
+    private static String timeDiff(long seconds) {
+        StringBuilder output = new StringBuilder();
+        if(seconds >= 3600) output.append(seconds / 3600).append(" hours");
+        if(seconds % 3600 >= 60){
+            if(! output.isEmpty()) output.append(", ");
+            output.append(seconds % 3600 / 60).append(" minutes");
+        }
+        if(seconds % 60 > 0){
+            if(! output.isEmpty()) output.append(", ");
+            output.append(seconds % 60).append(" seconds");
+        }
+        return output.toString();
+    }
+
+    private static long[] lineByLine(Path file) throws Exception {
+        long outages = 0;
+        long slow = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while((line = reader.readLine()) != null){
+                if(line.contains("] Lost connection")) outages++;
+                else if(line.endsWith(" ms to respond")) slow++;
+            }
+        }
+        return new long[]{outages, slow};
+    }
+
+    private static void check(LogAnalyzer.Part part, Expected expected) {
+        LogAnalyzer.History history = LogAnalyzer.history(part);
+        long slow = 0;
+        for(long count : part.slowByHour) slow += count;
+        String result = "lines %d/%d, outages %d/%d, downtime %d/%d s, slow %d/%d, sessions %d/%d (found/expected)".formatted(
+                part.lines, expected.lines, history.outages.size(), expected.outages,
+                history.downtimeSeconds(), expected.downtime, slow, expected.slow, history.sessions, expected.sessions);
+        if(part.lines != expected.lines || history.outages.size() != expected.outages || history.downtimeSeconds() != expected.downtime
+                || slow != expected.slow || history.sessions != expected.sessions){
+            throw new IllegalStateException("Wrong analysis: "+result);
+        }
+        System.out.println("correct: "+result);
+    }
+}
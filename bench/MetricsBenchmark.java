@@ -0,0 +1,125 @@
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures the metrics endpoint.
+ * <ul>
+ * <li>render - the time and allocation of rendering the metrics of 10, 100 and 1000 addresses</li>
+ * <li>scrape - a local HTTP client scrapes the endpoint and checks the response</li>
+ * <li>probe timing - how long recording a probe result takes, with and without a client scraping as fast as it can.
+ *     Recording shares a lock with the scrape, so this is what the probes of a monitored program would feel</li>
+ * </ul>
+ * Usage: {@code java -cp out MetricsBenchmark}
+ */
+public class MetricsBenchmark {
+
+    private static final int SCRAPES = 200;
+    private static final int RECORDS = 2_000_000;
+
+    public static void main(String[] args) throws Exception {
+        Bench bench = new Bench();
+        for(int addresses : new int[]{10, 100, 1000}){
+            MonitorGroup[] groups = groups(addresses);
+            LatencyStats[] stats = stats(addresses);
+            try (MetricsServer server = new MetricsServer(new InetSocketAddress("127.0.0.1", 0), groups, stats, supervisors(addresses))) {
+                bench.run("render %d addresses".formatted(addresses), server::render);
+            }
+        }
+
+        MonitorGroup[] groups = groups(1000);
+        LatencyStats[] stats = stats(1000);
+        try (MetricsServer server = new MetricsServer(new InetSocketAddress("127.0.0.1", 0), groups, stats, supervisors(1000))) {
+            scrape(server);
+            probeTiming(server, stats[0]);
+        }
+    }
+
+    private static void scrape(MetricsServer server) throws Exception {
+        HttpClient client = HttpClient.newHttpClient();
+        URI uri = URI.create("http://127.0.0.1:%d/metrics".formatted(server.getAddress().getPort()));
+        HttpRequest request = HttpRequest.newBuilder(uri).build();
+        long[] latencies = new long[SCRAPES];
+        String body = null;
+        for(int i = 0; i < SCRAPES; i++){
+            long start = System.nanoTime();
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            latencies[i] = System.nanoTime() - start;
+            if(response.statusCode() != 200) throw new IllegalStateException("HTTP "+response.statusCode());
+            body = response.body();
+        }
+        if(! body.contains("internet_tester_rtt_seconds_bucket{group=\"g0\",address=\"10.0.0.0\",le=\"+Inf\"}")
+                || ! body.contains("internet_tester_group_connected{group=\"g99\"} ")){
+            throw new IllegalStateException("Unexpected metrics:\n"+body.substring(0, Math.min(body.length(), 2000)));
+        }
+        Arrays.sort(latencies);
+        System.out.printf("scrape 1000 addresses: %d bytes, %d lines, p50 %.2f ms, p99 %.2f ms%n",
+                body.length(), body.lines().count(), latencies[SCRAPES / 2] / 1e6, latencies[SCRAPES * 99 / 100] / 1e6);
+    }
+
+    private static void probeTiming(MetricsServer server, LatencyStats target) throws Exception {
+        System.out.printf("record a probe, idle:      %s%n", recordLatency(target));
+
+        AtomicBoolean scraping = new AtomicBoolean(true);
+        Thread scraper = new Thread(() -> {
+            while(scraping.get()) server.render();
+        });
+        scraper.start();
+        System.out.printf("record a probe, scraping:  %s%n", recordLatency(target));
+        scraping.set(false);
+        scraper.join();
+    }
+
+    private static String recordLatency(LatencyStats target) {
+        long[] latencies = new long[RECORDS];
+        for(int i = 0; i < RECORDS; i++){
+            long start = System.nanoTime();
+            target.record(false, 20_000_000);
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        return "p50 %d ns, p99.9 %d ns, max %.1f us".formatted(latencies[RECORDS / 2], latencies[(int) (RECORDS * 0.999)], latencies[RECORDS - 1] / 1e3);
+    }
+
+    /**
+     * @return groups of 10 addresses, with every tenth group down
+     */
+    private static MonitorGroup[] groups(int addresses) {
+        MonitorGroup[] groups = new MonitorGroup[addresses / 10];
+        for(int g = 0; g < groups.length; g++){
+            String[] members = new String[10];
+            for(int i = 0; i < 10; i++) members[i] = "10.0.%d.%d".formatted(g, i);
+            groups[g] = new MonitorGroup("g" + g, members, g * 10);
+            groups[g].applyConfig(Config.parse(Map.of()));
+            if(g % 10 == 9){
+                for(int i = 0; i < 10; i++) groups[g].markDown(g * 10 + i, System.currentTimeMillis() - 60_000);
+            }
+        }
+        return groups;
+    }
+
+    private static TargetSupervisor[] supervisors(int addresses) {
+        TargetSupervisor[] supervisors = new TargetSupervisor[addresses];
+        for(int i = 0; i < addresses; i++) supervisors[i] = new TargetSupervisor();
+        return supervisors;
+    }
+
+    private static LatencyStats[] stats(int addresses) {
+        LatencyStats[] stats = new LatencyStats[addresses];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for(int i = 0; i < addresses; i++){
+            stats[i] = new LatencyStats();
+            for(int p = 0; p < 1000; p++){
+                boolean lost = random.nextInt(100) == 0;
+                stats[i].record(lost, lost ? -1 : 1_000_000L + random.nextLong(200_000_000));
+            }
+        }
+        return stats;
+    }
+}
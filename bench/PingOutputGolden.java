@@ -0,0 +1,98 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Golden files for the ping dialects: captured output of Windows, iputils and BusyBox ping in "bench/ping-output",
+ * each line next to the classification it must get in the ".expected" file of the same name
+ * (the line type, then the RTT in ms, the TTL and the sequence number when the line has them).
+ * "windows-localized-digits" has numbers in Arabic-Indic, fullwidth and Devanagari digits, which must be left out
+ * rather than read as garbage.
+ * <p>
+ * Then runs the process engine with the BusyBox dialect on the fake ping in "bench/fake-ping.sh", once with a target
+ * that answers and once with one that doesn't (--silent). BusyBox prints nothing for a request that gets no reply,
+ * so the silent target must still end up as timeouts, one per interval and timeout, and the answering one must not.
+ * Exits with 1 if anything differs.
+ * Usage: {@code java -cp out PingOutputGolden [folder of the files] [fake ping]}
+ */
+public class PingOutputGolden {
+
+    private static final int TIMEOUT = 500;
+    private static final long REQUEST_INTERVAL = 1000;
+
+    public static void main(String[] args) throws Exception {
+        Path folder = Path.of(args.length > 0 ? args[0] : "bench/ping-output");
+        String fakePing = args.length > 1 ? args[1] : "bench/fake-ping.sh";
+
+        boolean passed = true;
+        passed &= check(folder, "windows", PingOutputParser.Dialect.WINDOWS);
+        passed &= check(folder, "windows-localized-digits", PingOutputParser.Dialect.WINDOWS);
+        passed &= check(folder, "iputils", PingOutputParser.Dialect.LINUX_IPUTILS);
+        passed &= check(folder, "busybox", PingOutputParser.Dialect.BUSYBOX);
+        passed &= checkSilentBusyBox(fakePing);
+        System.out.println(passed ? "all dialects classified as expected" : "SOME LINES WERE NOT CLASSIFIED AS EXPECTED");
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static boolean check(Path folder, String name, PingOutputParser.Dialect dialect) throws Exception {
+        List<String> lines = Files.readAllLines(folder.resolve(name + ".txt"));
+        List<String> expected = Files.readAllLines(folder.resolve(name + ".expected"));
+        PingOutputParser parser = new PingOutputParser(dialect);
+        int failed = 0;
+        for(int i = 0; i < Math.max(lines.size(), expected.size()); i++){
+            String actual = i < lines.size() ? classify(parser, lines.get(i)) : "(no line)";
+            String wanted = i < expected.size() ? expected.get(i).strip() : "(no expectation)";
+            if(actual.equals(wanted)) continue;
+            failed++;
+            System.out.printf("%s:%d: expected %s, got %s for \"%s\"%n", name, i + 1, wanted, actual, i < lines.size() ? lines.get(i) : "");
+        }
+        System.out.printf("%-24s %2d lines, %s%n", name, lines.size(), failed == 0 ? "all as expected" : failed + " FAILED");
+        return failed == 0;
+    }
+
+    private static String classify(PingOutputParser parser, String line) {
+        StringBuilder result = new StringBuilder(parser.parse(line).name());
+        if(parser.getRttNanos() >= 0) result.append(" rtt=").append("%.3f".formatted(parser.getRttNanos() / 1e6));
+        if(parser.getTtl() >= 0) result.append(" ttl=").append(parser.getTtl());
+        if(parser.getSequence() >= 0) result.append(" seq=").append(parser.getSequence());
+        return result.toString();
+    }
+
+    private static boolean checkSilentBusyBox(String fakePing) {
+        Map<String,String> answering = new LinkedHashMap<>();
+        answering.put("-c", "4");
+        answering.put("-i", "0.2");
+        ProcessProbeEngine engine = new ProcessProbeEngine("10.0.0.1", fakePing, () -> answering, PingOutputParser.Dialect.BUSYBOX);
+        engine.start();
+        int replies = 0;
+        for(int i = 0; i < 4; i++){
+            if(engine.probe(TIMEOUT).isConnected()) replies++;
+        }
+        if(engine.isRunning()) engine.stop();
+        boolean passed = replies == 4;
+        System.out.printf("busybox answering target: %d of 4 replies%s%n", replies, passed ? "" : " - FAILED");
+
+        Map<String,String> silent = new LinkedHashMap<>(answering);
+        silent.put("-i", "1");
+        silent.put("--silent", null);
+        engine = new ProcessProbeEngine("10.255.255.1", fakePing, () -> silent, PingOutputParser.Dialect.BUSYBOX);
+        engine.start();
+        long limit = TimeUnit.MILLISECONDS.toNanos(REQUEST_INTERVAL + TIMEOUT + 200);
+        long slowest = 0;
+        int timeouts = 0;
+        for(int i = 0; i < 4; i++){
+            long start = System.nanoTime();
+            ProbeResult result = engine.probe(TIMEOUT);
+            slowest = Math.max(slowest, System.nanoTime() - start);
+            if(result.getStatus() == ProbeResult.Status.TIMEOUT) timeouts++;
+        }
+        if(engine.isRunning()) engine.stop();
+        boolean silentPassed = timeouts == 4 && slowest <= limit;
+        System.out.printf("busybox silent target: %d of 4 timeouts, the slowest after %d ms (at most %d)%s%n", timeouts,
+                TimeUnit.NANOSECONDS.toMillis(slowest), TimeUnit.NANOSECONDS.toMillis(limit), silentPassed ? "" : " - FAILED");
+        return passed && silentPassed;
+    }
+}
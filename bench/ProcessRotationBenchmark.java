@@ -0,0 +1,96 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Measures how long a target goes unmeasured when a ping process runs out of echo requests
+ * and the next one takes over, using the scripted fake ping in "bench/fake-ping.sh".
+ * <p>
+ * Two runs with the same fake ping:
+ * <ul>
+ * <li>sequential - no count flag, so the engine can't see the end of a process coming
+ *     and starts the next one after it exits (the behaviour before overlapped rotation)</li>
+ * <li>overlapped - with the count flag, the successor starts while the current process sends its last request</li>
+ * </ul>
+ * Then checks that a handover doesn't drop results: the first request of every process gets no reply, and the
+ * successor starts right away, and the results are read with a pause like the worker thread's,
+ * so the first lines of the successor are waiting when the current process exits.
+ * Every sequence number must come through in order, and every lost request as a timeout. Exits with 1 if not.
+ * Usage: {@code java -cp out ProcessRotationBenchmark [fake ping] [startup seconds]}
+ */
+public class ProcessRotationBenchmark {
+
+    private static final String INTERVAL = "0.2";
+    private static final int REQUESTS_PER_PROCESS = 4;
+    private static final int RESULTS = 40;
+    private static final long WORKER_SLEEP = 150;
+
+    public static void main(String[] args) {
+        String fakePing = args.length > 0 ? args[0] : "bench/fake-ping.sh";
+        String startup = args.length > 1 ? args[1] : "0.15";
+        System.out.printf("fake ping: %s every %s s, %s s to start, %d requests per process%n",
+                fakePing, INTERVAL, startup, REQUESTS_PER_PROCESS);
+
+        // the fake ping sends 4 requests when it gets no count, same as with the count flag
+        Map<String,String> sequential = new LinkedHashMap<>();
+        sequential.put("-i", INTERVAL);
+        sequential.put("--startup", startup);
+        run("sequential", fakePing, sequential);
+
+        Map<String,String> overlapped = new LinkedHashMap<>(sequential);
+        overlapped.put("-c", String.valueOf(REQUESTS_PER_PROCESS));
+        run("overlapped", fakePing, overlapped);
+
+        Map<String,String> lossy = new LinkedHashMap<>(overlapped);
+        lossy.put("--startup", "0");
+        lossy.put("--lose", "1");
+        if(! checkLossy(fakePing, lossy)) System.exit(1);
+    }
+
+    private static boolean checkLossy(String fakePing, Map<String,String> params) {
+        ProcessProbeEngine engine = new ProcessProbeEngine("10.0.0.1", fakePing, () -> params, PingOutputParser.Dialect.LINUX_IPUTILS);
+        PingOutputParser parser = new PingOutputParser(PingOutputParser.Dialect.LINUX_IPUTILS);
+        engine.start();
+        int timeouts = 0;
+        int outOfOrder = 0;
+        int expectedSequence = 1;
+        for(int i = 0; i < RESULTS; i++){
+            ProbeResult result = engine.probe(0);
+            parser.parse(result.getOutput());
+            if(parser.getSequence() != expectedSequence) outOfOrder++;
+            if(result.getStatus() == ProbeResult.Status.TIMEOUT) timeouts++;
+            expectedSequence = parser.getSequence() % REQUESTS_PER_PROCESS + 1;
+            try {
+                Thread.sleep(WORKER_SLEEP); // like the worker thread between probes
+            } catch (InterruptedException ignored) {}
+        }
+        if(engine.isRunning()) engine.stop();
+
+        int expectedTimeouts = RESULTS / REQUESTS_PER_PROCESS;
+        boolean passed = timeouts == expectedTimeouts && outOfOrder == 0;
+        System.out.printf("lossy handovers  %d of %d timeouts delivered, %d results out of sequence%s%n",
+                timeouts, expectedTimeouts, outOfOrder, passed ? "" : " - FAILED");
+        return passed;
+    }
+
+    private static void run(String name, String fakePing, Map<String,String> params) {
+        ProcessProbeEngine engine = new ProcessProbeEngine("10.0.0.1", fakePing, () -> params, PingOutputParser.Dialect.LINUX_IPUTILS);
+        engine.start();
+        engine.probe(0);
+
+        long maxInterval = 0;
+        long last = System.nanoTime();
+        for(int i = 1; i < RESULTS; i++){
+            ProbeResult result = engine.probe(0);
+            if(! result.isConnected()) throw new IllegalStateException("Unexpected output: "+result.getOutput());
+            long now = System.nanoTime();
+            maxInterval = Math.max(maxInterval, now - last);
+            last = now;
+        }
+        if(engine.isRunning()) engine.stop();
+
+        ProcessProbeEngine.Handovers handovers = engine.getHandovers();
+        System.out.printf("%-10s  handovers %3d (%d overlapped)  gap avg %7.1f ms  max %7.1f ms  longest time between results %7.1f ms%n",
+                name, handovers.count(), handovers.overlapped(),
+                handovers.getAverageGapMillis(), handovers.maxGapNanos() / 1e6, maxInterval / 1e6);
+    }
+}
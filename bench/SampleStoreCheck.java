@@ -0,0 +1,127 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Checks the sample store across segment boundaries: appends samples of two targets to a store with tiny segments,
+ * so most appends open a new segment (many of them in the same millisecond), then reads every sample back
+ * with {@link SampleStore#query} and {@link SampleStore#forEach} and compares them with what was appended.
+ * <p>
+ * Then opens the store again, which must continue the last segment, and checks that a closed store rejects appends
+ * without creating a segment. Exits with 1 if anything differs.
+ * Usage: {@code java -cp out SampleStoreCheck [samples] [segment capacity]}
+ */
+public class SampleStoreCheck {
+
+    private static final String[] TARGETS = {"1.1.1.1", "tcp://example.com:443"};
+
+    public static void main(String[] args) throws Exception {
+        int samples = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 7;
+        Path folder = Files.createTempDirectory("sample-store-check");
+        boolean passed;
+        try {
+            passed = check(folder, samples, capacity);
+        } finally {
+            try (Stream<Path> files = Files.walk(folder)) {
+                for(Path file : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(file);
+            }
+        }
+        System.out.println(passed ? "all samples read back as appended" : "SOME SAMPLES DID NOT READ BACK AS APPENDED");
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static boolean check(Path folder, int samples, int capacity) throws IOException {
+        boolean passed = true;
+        List<ProbeResult> appended = new ArrayList<>();
+        SampleStore store = new SampleStore(folder, capacity);
+        for(int i = 0; i < samples; i++){
+            ProbeResult result = result(i);
+            store.append(TARGETS[i % TARGETS.length], result);
+            appended.add(result);
+        }
+        store.close();
+
+        int segments = segmentCount(folder);
+        int expectedSegments = (samples + capacity - 1) / capacity;
+        boolean segmentsOk = segments == expectedSegments;
+        passed &= segmentsOk;
+        System.out.printf("%-4s %d samples in %d segments of %d (expected %d segments)%n",
+                segmentsOk ? "ok" : "FAIL", samples, segments, capacity, expectedSegments);
+
+        for(int t = 0; t < TARGETS.length; t++){
+            List<SampleStore.Sample> read = SampleStore.query(folder, TARGETS[t], 0, Long.MAX_VALUE);
+            int mismatches = 0;
+            int expectedCount = 0;
+            long lastTime = Long.MIN_VALUE;
+            for(int i = t; i < samples; i += TARGETS.length){
+                int index = expectedCount++;
+                if(index >= read.size()) continue;
+                SampleStore.Sample sample = read.get(index);
+                ProbeResult result = appended.get(i);
+                long rtt = result.getRttNanos() < 0 ? -1 : result.getRttNanos() / 1000;
+                if(sample.status() != result.getStatus() || sample.rttMicros() != rtt || sample.time() < lastTime) mismatches++;
+                lastTime = sample.time();
+            }
+            boolean targetOk = read.size() == expectedCount && mismatches == 0;
+            passed &= targetOk;
+            System.out.printf("%-4s %s: %d of %d samples read back, %d mismatches%n",
+                    targetOk ? "ok" : "FAIL", TARGETS[t], read.size(), expectedCount, mismatches);
+        }
+
+        long[] total = new long[1];
+        long[] lastTime = {Long.MIN_VALUE};
+        boolean[] ordered = {true};
+        SampleStore.forEach(folder, 0, Long.MAX_VALUE, (time, targetId, status, rttMicros) -> {
+            total[0]++;
+            if(time < lastTime[0]) ordered[0] = false;
+            lastTime[0] = time;
+        });
+        boolean forEachOk = total[0] == samples && ordered[0];
+        passed &= forEachOk;
+        System.out.printf("%-4s forEach: %d of %d samples, %s%n", forEachOk ? "ok" : "FAIL", total[0], samples,
+                ordered[0] ? "in time order" : "OUT OF TIME ORDER");
+
+        // a store opened again continues the last segment while it has room
+        store = new SampleStore(folder, capacity);
+        store.append(TARGETS[0], result(samples));
+        store.close();
+        int expectedAfterReopen = samples % capacity == 0 ? expectedSegments + 1 : expectedSegments;
+        int reopenedSegments = segmentCount(folder);
+        int reopenedCount = SampleStore.query(folder, TARGETS[0], 0, Long.MAX_VALUE).size();
+        int expectedReopenedCount = (samples + TARGETS.length - 1) / TARGETS.length + 1;
+        boolean reopenOk = reopenedSegments == expectedAfterReopen && reopenedCount == expectedReopenedCount;
+        passed &= reopenOk;
+        System.out.printf("%-4s reopened store: %d segments (expected %d), %d samples of %s (expected %d)%n",
+                reopenOk ? "ok" : "FAIL", reopenedSegments, expectedAfterReopen, reopenedCount, TARGETS[0], expectedReopenedCount);
+
+        boolean rejected = false;
+        try {
+            store.append(TARGETS[0], result(0));
+        } catch (IOException e) {
+            rejected = true;
+        }
+        boolean closedOk = rejected && segmentCount(folder) == reopenedSegments;
+        passed &= closedOk;
+        System.out.printf("%-4s closed store: append %s%n", closedOk ? "ok" : "FAIL", rejected ? "rejected" : "ACCEPTED");
+        return passed;
+    }
+
+    private static ProbeResult result(int i) {
+        return switch(i % 3){
+            case 0 -> ProbeResult.success((i + 1) * 1_000_000L + 123_000, "reply");
+            case 1 -> ProbeResult.failure(ProbeResult.Status.TIMEOUT, "timeout");
+            default -> ProbeResult.failure(ProbeResult.Status.UNREACHABLE, "unreachable");
+        };
+    }
+
+    private static int segmentCount(Path folder) throws IOException {
+        try (Stream<Path> files = Files.list(folder)) {
+            return (int) files.filter(file -> file.getFileName().toString().startsWith("segment-")).count();
+        }
+    }
+}
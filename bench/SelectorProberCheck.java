@@ -0,0 +1,180 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.UnknownHostException;
+import java.net.spi.InetAddressResolver;
+import java.net.spi.InetAddressResolverProvider;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Stream;
+
+/**
+ * Checks the TCP probes of the selector prober on loopback: addresses with a listener and unbound ports
+ * (a refused connection is an answer of the host, so both count as connected), and names that take
+ * {@value #SLOW_LOOKUP} ms to look up, found (slow.test) or not (missing.test).
+ * <p>
+ * The lookups must not hold up the loop: all the addresses share a single loop, and the loopback ones must go on
+ * getting a result every {@value #INTERVAL} ms while the slow names are looked up. The slow names time out until
+ * their lookup ends, then slow.test connects and missing.test is reported as not found.
+ * <p>
+ * The slow names come from a resolver of the JDK resolver SPI, so the check runs in a child JVM that has it
+ * registered. Exits with 1 if an address doesn't end as expected.
+ * Usage: {@code java -cp out SelectorProberCheck [seconds]}
+ */
+public class SelectorProberCheck {
+
+    private static final long SLOW_LOOKUP = 2000;
+    private static final long INTERVAL = 100;
+    private static final int TIMEOUT = 500;
+    private static final int LISTENED = 10;
+    private static final int UNBOUND = 10;
+    private static final long MAX_GAP = INTERVAL + 300; // between two results of a loopback address
+
+    public static void main(String[] args) throws Exception {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 5;
+        if(args.length > 1 && args[1].equals("--child")){
+            System.exit(check(seconds) ? 0 : 1);
+        }
+
+        // registers the slow resolver for the child
+        Path services = Files.createTempDirectory("selector-check");
+        Path registration = services.resolve("META-INF/services/" + InetAddressResolverProvider.class.getName());
+        Files.createDirectories(registration.getParent());
+        Files.writeString(registration, SlowResolverProvider.class.getName() + "\n");
+        Process child = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path") + java.io.File.pathSeparator + services,
+                SelectorProberCheck.class.getName(), String.valueOf(seconds), "--child").inheritIO().start();
+        int exit = child.waitFor();
+        Files.delete(registration);
+        Files.delete(registration.getParent());
+        Files.delete(registration.getParent().getParent());
+        Files.delete(services);
+        System.exit(exit);
+    }
+
+    private static boolean check(long seconds) throws Exception {
+        ServerSocket server = new ServerSocket(0, 100, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> {
+            while(true){
+                try {
+                    server.accept().close();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }, "listener");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        List<String> addresses = new ArrayList<>();
+        for(int i = 0; i < LISTENED; i++) addresses.add("127.0.0.1:" + server.getLocalPort());
+        for(int port : unboundPorts(UNBOUND)) addresses.add("127.0.0.1:" + port);
+        int slow = addresses.size();
+        addresses.add("slow.test:" + server.getLocalPort());
+        int missing = addresses.size();
+        addresses.add("missing.test:" + server.getLocalPort());
+
+        int count = addresses.size();
+        AtomicLongArray last = new AtomicLongArray(count);
+        AtomicLongArray maxGap = new AtomicLongArray(count);
+        AtomicLongArray failures = new AtomicLongArray(count);
+        AtomicReferenceArray<String> firstResult = new AtomicReferenceArray<>(count);
+        AtomicReferenceArray<ProbeResult> lastResult = new AtomicReferenceArray<>(count);
+        long start = System.nanoTime();
+        for(int i = 0; i < count; i++) last.set(i, start);
+        SelectorProber prober = new SelectorProber(addresses.toArray(new String[0]), 1, TIMEOUT, INTERVAL, (index, result) -> {
+            long now = System.nanoTime();
+            maxGap.set(index, Math.max(maxGap.get(index), now - last.get(index)));
+            last.set(index, now);
+            if(! result.isConnected()) failures.incrementAndGet(index);
+            firstResult.compareAndSet(index, null, result.getStatus() + " " + result.getOutput());
+            lastResult.set(index, result);
+        });
+        prober.start();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        prober.close();
+        server.close();
+
+        boolean passed = true;
+        long worstGap = 0;
+        long loopbackFailures = 0;
+        for(int i = 0; i < LISTENED + UNBOUND; i++){
+            worstGap = Math.max(worstGap, maxGap.get(i));
+            loopbackFailures += failures.get(i);
+        }
+        boolean loopbackOk = worstGap <= TimeUnit.MILLISECONDS.toNanos(MAX_GAP) && loopbackFailures == 0;
+        passed &= loopbackOk;
+        System.out.printf("%-4s %d listened and %d unbound loopback ports: %d failures, longest gap between results %d ms (at most %d)%n",
+                loopbackOk ? "ok" : "FAIL", LISTENED, UNBOUND, loopbackFailures, TimeUnit.NANOSECONDS.toMillis(worstGap), MAX_GAP);
+
+        ProbeResult slowResult = lastResult.get(slow);
+        boolean slowOk = slowResult != null && slowResult.isConnected() && firstResult.get(slow).startsWith("TIMEOUT");
+        passed &= slowOk;
+        System.out.printf("%-4s %s: first %s, last %s%n", slowOk ? "ok" : "FAIL", addresses.get(slow), firstResult.get(slow),
+                slowResult == null ? "none" : slowResult.getStatus() + " " + slowResult.getOutput());
+
+        ProbeResult missingResult = lastResult.get(missing);
+        boolean missingOk = missingResult != null && missingResult.getStatus() == ProbeResult.Status.ERROR;
+        passed &= missingOk;
+        System.out.printf("%-4s %s: first %s, last %s%n", missingOk ? "ok" : "FAIL", addresses.get(missing), firstResult.get(missing),
+                missingResult == null ? "none" : missingResult.getStatus() + " " + missingResult.getOutput());
+
+        if(prober.getException() != null) passed = false;
+        System.out.println(passed ? "all addresses ended as expected" : "SOME ADDRESSES DID NOT END AS EXPECTED");
+        return passed;
+    }
+
+    /**
+     * @return ports nothing listens on
+     */
+    private static int[] unboundPorts(int count) throws IOException {
+        ServerSocket[] sockets = new ServerSocket[count];
+        int[] ports = new int[count];
+        for(int i = 0; i < count; i++){
+            sockets[i] = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+            ports[i] = sockets[i].getLocalPort();
+        }
+        for(ServerSocket socket : sockets) socket.close();
+        return ports;
+    }
+
+    /**
+     * Takes {@value #SLOW_LOOKUP} ms to look up the names ending in .test, only slow.test is found (as 127.0.0.1)
+     */
+    public static class SlowResolverProvider extends InetAddressResolverProvider {
+
+        @Override
+        public InetAddressResolver get(Configuration configuration) {
+            InetAddressResolver builtin = configuration.builtinResolver();
+            return new InetAddressResolver() {
+                @Override
+                public Stream<InetAddress> lookupByName(String host, LookupPolicy lookupPolicy) throws UnknownHostException {
+                    if(! host.endsWith(".test")) return builtin.lookupByName(host, lookupPolicy);
+                    try {
+                        Thread.sleep(SLOW_LOOKUP);
+                    } catch (InterruptedException e) {
+                        throw new UnknownHostException(host);
+                    }
+                    if(! host.equals("slow.test")) throw new UnknownHostException(host);
+                    return Stream.of(InetAddress.getByAddress(host, new byte[]{127, 0, 0, 1}));
+                }
+
+                @Override
+                public String lookupByAddress(byte[] address) throws UnknownHostException {
+                    return builtin.lookupByAddress(address);
+                }
+            };
+        }
+
+        @Override
+        public String name() {
+            return "slow lookups of .test names";
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time to the first probe of a fresh headless program: from starting the JVM
+ * until a local listener accepts the first TCP probe. Then stops it with SIGTERM and checks
+ * that the stop line made it to the internet log.
+ * <p>
+ * The program runs in a temporary INTERNET_TESTER_HOME with probe_mode set to tcp.
+ * AppCDS only archives classes from jars, so compare the options on a jar:<br/>
+ * {@code java -cp out StartupBenchmark internet-tester.jar 10}<br/>
+ * {@code java -cp out StartupBenchmark internet-tester.jar 10 -XX:+AutoCreateSharedArchive -XX:SharedArchiveFile=/tmp/it.jsa}
+ */
+public class StartupBenchmark {
+
+    private static final long FIRST_PROBE_TIMEOUT = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        if(args.length < 1){
+            System.out.println("Usage: StartupBenchmark <class path of the program> [runs] [JVM options...]");
+            return;
+        }
+        String classPath = args[0];
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        List<String> jvmOptions = args.length > 2 ? Arrays.asList(args).subList(2, args.length) : List.of();
+
+        long[] millis = new long[runs];
+        int stopped = 0;
+        for(int run = 0; run < runs; run++){
+            Path home = Files.createTempDirectory("startup-bench");
+            Files.writeString(home.resolve("config.txt"), "probe_mode: tcp\n");
+            try (ServerSocket server = new ServerSocket()) {
+                server.bind(new InetSocketAddress("127.0.0.1", 0));
+                server.setSoTimeout((int) FIRST_PROBE_TIMEOUT);
+
+                List<String> command = new ArrayList<>();
+                command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+                command.addAll(jvmOptions);
+                command.addAll(List.of("-cp", classPath, "Main", "--headless", "127.0.0.1:" + server.getLocalPort()));
+                ProcessBuilder builder = new ProcessBuilder(command)
+                        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                        .redirectError(ProcessBuilder.Redirect.INHERIT);
+                builder.environment().put("INTERNET_TESTER_HOME", home.toString());
+
+                long start = System.nanoTime();
+                Process process = builder.start();
+                try {
+                    server.accept().close();
+                    millis[run] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                } catch (IOException e) {
+                    process.destroyForcibly();
+                    throw new IOException("No probe within %d ms".formatted(FIRST_PROBE_TIMEOUT), e);
+                }
+
+                process.destroy(); // SIGTERM
+                if(! process.waitFor(10, TimeUnit.SECONDS)){
+                    process.destroyForcibly();
+                    System.out.println("run %d: did not stop within 10 seconds".formatted(run));
+                }
+                try (var files = Files.list(home)) {
+                    Path internetLog = files.filter(p -> p.getFileName().toString().startsWith("internet_log")).findFirst().orElse(null);
+                    if(internetLog != null && Files.readString(internetLog).contains("Stopped logging")) stopped++;
+                }
+            }
+            deleteFolder(home);
+            System.out.printf("run %2d: first probe after %4d ms%n", run, millis[run]);
+        }
+
+        long[] sorted = millis.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%s%nfirst probe: min %d ms, median %d ms, max %d ms over %d runs, stop line logged in %d/%d%n",
+                jvmOptions.isEmpty() ? "(default JVM options)" : String.join(" ", jvmOptions),
+                sorted[0], sorted[runs / 2], sorted[runs - 1], runs, stopped, runs);
+    }
+
+    private static void deleteFolder(Path folder) throws IOException {
+        try (var files = Files.walk(folder)) {
+            for(Path path : files.sorted((a, b) -> b.compareTo(a)).toList()) Files.delete(path);
+        }
+    }
+}
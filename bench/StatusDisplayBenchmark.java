@@ -0,0 +1,74 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures a frame of the status display at 10, 100 and 1000 addresses: the time, allocation and bytes written.
+ * <ul>
+ * <li>line - the single status line, written in full every frame</li>
+ * <li>grid steady - the grid when nothing but the spinner changes, the usual frame</li>
+ * <li>grid 1% changing - the grid when 1% of the addresses go down or up every frame</li>
+ * </ul>
+ * The console is replaced by a stream that only counts bytes.
+ * Usage: {@code java -cp out StatusDisplayBenchmark}
+ */
+public class StatusDisplayBenchmark {
+
+    private static class CountingStream extends OutputStream {
+        private long bytes;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+        }
+    }
+
+    private static final char[] SYMBOLS = {'|', '/', '-', '\\'};
+
+    public static void main(String[] args) {
+        Bench bench = new Bench();
+        for(int count : new int[]{10, 100, 1000}){
+            run(bench, count, StatusDisplay.Mode.LINE, 0);
+            run(bench, count, StatusDisplay.Mode.GRID, 0);
+            run(bench, count, StatusDisplay.Mode.GRID, Math.max(1, count / 100));
+        }
+    }
+
+    private static void run(Bench bench, int count, StatusDisplay.Mode mode, int changesPerFrame) {
+        String[] addresses = new String[count];
+        for(int i = 0; i < count; i++) addresses[i] = "10.0.%d.%d".formatted(i / 256, i % 256);
+        MonitorGroup group = new MonitorGroup(null, addresses, 0);
+        group.applyConfig(Config.parse(Map.of()));
+        MonitorGroup[] targetGroups = new MonitorGroup[count];
+        LatencyStats[] stats = new LatencyStats[count];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for(int i = 0; i < count; i++){
+            targetGroups[i] = group;
+            stats[i] = new LatencyStats();
+            for(int p = 0; p < 60; p++) stats[i].record(false, 5_000_000L + random.nextLong(30_000_000));
+        }
+
+        CountingStream counter = new CountingStream();
+        StatusDisplay display = new StatusDisplay(new PrintStream(counter), mode, new MonitorGroup[]{group}, targetGroups, addresses, stats);
+        int[] frame = {0};
+        long startBytes = counter.bytes;
+        String name = "%s %d addresses%s".formatted(mode == StatusDisplay.Mode.LINE ? "line" : "grid", count,
+                mode == StatusDisplay.Mode.LINE ? "" : changesPerFrame == 0 ? " steady" : " 1% changing");
+        Bench.Result result = bench.run(name, () -> {
+            for(int c = 0; c < changesPerFrame; c++){
+                int target = random.nextInt(count);
+                if(group.isDown(target)) group.markUp(target, System.currentTimeMillis());
+                else group.markDown(target, System.currentTimeMillis());
+            }
+            display.render(SYMBOLS[frame[0]++ & 3]);
+            return display;
+        });
+        System.out.printf("    %.0f bytes per frame%n", (counter.bytes - startBytes) / (double) frame[0]);
+    }
+}
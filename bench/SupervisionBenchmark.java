@@ -0,0 +1,70 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Shows that one failing address doesn't stop the others: a selector prober with 20 addresses
+ * (127.0.0.1 with a closed port, which answers right away) where handling the results of the first address
+ * throws a NumberFormatException every third time, like a reply the parser doesn't expect.
+ * <p>
+ * Before, the exception stopped the event loop and every address with it, until the whole monitor was rebuilt.
+ * Prints the longest gap between the results of the healthy addresses, and the restarts of the failing one.
+ * Usage: {@code java -cp out SupervisionBenchmark [seconds]}
+ */
+public class SupervisionBenchmark {
+
+    private static final int ADDRESSES = 20;
+    private static final long INTERVAL = 100;
+
+    public static void main(String[] args) throws Exception {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 10;
+        String[] addresses = new String[ADDRESSES];
+        for(int i = 0; i < ADDRESSES; i++) addresses[i] = "127.0.0.1:" + (i + 1);
+        TargetSupervisor[] supervisors = new TargetSupervisor[ADDRESSES];
+        for(int i = 0; i < ADDRESSES; i++) supervisors[i] = new TargetSupervisor();
+
+        AtomicLongArray results = new AtomicLongArray(ADDRESSES);
+        AtomicLongArray lastResult = new AtomicLongArray(ADDRESSES);
+        AtomicLongArray maxGap = new AtomicLongArray(ADDRESSES);
+        long start = System.nanoTime();
+        for(int i = 0; i < ADDRESSES; i++) lastResult.set(i, start);
+
+        SelectorProber prober = new SelectorProber(addresses, 1, 1000, INTERVAL, new SelectorProber.Listener() {
+            @Override
+            public void onResult(int index, ProbeResult result) {
+                long now = System.nanoTime();
+                maxGap.set(index, Math.max(maxGap.get(index), now - lastResult.get(index)));
+                lastResult.set(index, now);
+                if(index == 0 && results.incrementAndGet(index) % 3 == 0){
+                    throw new NumberFormatException("For input string: \"1,5\"");
+                }
+                if(index != 0) results.incrementAndGet(index);
+            }
+
+            @Override
+            public void onFailure(int index, Exception e, long backoffNanos) {
+                System.out.printf("%6d ms: address %d failed (%s), probed again in %d ms%n",
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), index, e.getMessage(),
+                        TimeUnit.NANOSECONDS.toMillis(backoffNanos));
+            }
+        });
+        prober.setSupervisors(supervisors);
+        prober.start();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        prober.close();
+
+        long healthyResults = 0;
+        long worstGap = 0;
+        for(int i = 1; i < ADDRESSES; i++){
+            healthyResults += results.get(i);
+            worstGap = Math.max(worstGap, maxGap.get(i));
+        }
+        System.out.printf("%nevent loop stopped by an exception: %s%n", prober.getException() != null);
+        System.out.printf("healthy addresses: %d results in %d s (%.1f per address per second), longest gap %d ms at a %d ms interval%n",
+                healthyResults, seconds, healthyResults / (double) (ADDRESSES - 1) / seconds,
+                TimeUnit.NANOSECONDS.toMillis(worstGap), INTERVAL);
+        System.out.printf("failing address: %d results, %d restarts, not probed for %d ms in total (longest %d ms)%n",
+                results.get(0), supervisors[0].getRestarts(),
+                TimeUnit.NANOSECONDS.toMillis(supervisors[0].getRestartNanos()),
+                TimeUnit.NANOSECONDS.toMillis(supervisors[0].getMaxRestartNanos()));
+    }
+}
@@ -0,0 +1,143 @@
+import com.sun.management.OperatingSystemMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares the overhead of running the address monitors on platform threads and on virtual threads.
+ * <p>
+ * Every simulated monitor does what {@code Main.workerThreadMainLoop} does when the connection is fine:
+ * blocks for a ping response, then sleeps between connection checks. The response is either simulated
+ * with a sleep, or (with "process") read from a real ping process - the fake ping in "bench/fake-ping.sh",
+ * through {@link PingEndPoint} and {@link ProcessProbeEngine} like the process probe mode.
+ * <p>
+ * Also samples the carrier threads of the virtual threads: a virtual thread blocked in a read of the process output
+ * holds on to its carrier, and the scheduler starts more carriers to make up for it.
+ * <p>
+ * Run each mode in a fresh JVM so the memory numbers don't affect each other:<br/>
+ * {@code java -cp out ThreadModeBenchmark platform 1000}<br/>
+ * {@code java -cp out ThreadModeBenchmark virtual 10000}<br/>
+ * {@code java -cp out ThreadModeBenchmark virtual 100 process [fake ping]}
+ */
+public class ThreadModeBenchmark {
+
+    private static final long SLEEP_TIME_BETWEEN_CONNECTION_CHECKS = 250;
+    private static final long MEASUREMENT_TIME = 10_000;
+    private static final int TIMEOUT = 4000;
+
+    private static volatile boolean running = true;
+    private static final LongAdder wakeUps = new LongAdder();
+    private static final LongAdder totalLateness = new LongAdder();
+    private static final AtomicLong maxLateness = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        boolean virtual = args[0].equals("virtual");
+        int count = Integer.parseInt(args[1]);
+        boolean process = args.length > 2 && args[2].equals("process");
+        String fakePing = args.length > 3 ? args[3] : "bench/fake-ping.sh";
+
+        long rssBefore = getRssKb();
+        long startTime = System.nanoTime();
+        Thread[] threads = new Thread[count];
+        for(int i = 0; i < count; i++){
+            int index = i;
+            Runnable worker = process ? () -> processWorkerLoop(index, fakePing) : ThreadModeBenchmark::workerLoop;
+            threads[i] = virtual ? Thread.ofVirtual().start(worker) : new Thread(worker);
+            if(! virtual) threads[i].start();
+        }
+        long startupMillis = (System.nanoTime() - startTime) / 1_000_000;
+
+        // let the threads settle before measuring
+        Thread.sleep(2000);
+        wakeUps.reset();
+        totalLateness.reset();
+        maxLateness.set(0);
+
+        OperatingSystemMXBean os = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        long cpuBefore = os.getProcessCpuTime();
+        int maxCarriers = 0;
+        for(long end = System.currentTimeMillis() + MEASUREMENT_TIME; System.currentTimeMillis() < end; ){
+            Thread.sleep(100);
+            maxCarriers = Math.max(maxCarriers, countCarriers());
+        }
+        long cpuMillis = (os.getProcessCpuTime() - cpuBefore) / 1_000_000;
+        long rssAfter = getRssKb();
+        int liveThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        running = false;
+        for(Thread t : threads) t.join();
+
+        long wakes = wakeUps.sum();
+        System.out.printf("mode=%s targets=%d response=%s%n", virtual ? "virtual" : "platform", count, process ? "ping process" : "sleep");
+        System.out.printf("  startup:            %d ms%n", startupMillis);
+        System.out.printf("  os threads:         %d%n", liveThreads);
+        if(virtual) System.out.printf("  carrier threads:    %d at most, %d processors%n", maxCarriers, Runtime.getRuntime().availableProcessors());
+        System.out.printf("  rss growth:         %d KB (%.1f KB per target)%n", rssAfter - rssBefore, (rssAfter - rssBefore) / (double) count);
+        System.out.printf("  cpu:                %d ms over %d ms (%.2f us per wake up)%n", cpuMillis, MEASUREMENT_TIME, cpuMillis * 1000.0 / wakes);
+        System.out.printf("  sleep lateness avg: %.3f ms%n", totalLateness.sum() / (double) wakes / 1_000_000);
+        System.out.printf("  sleep lateness max: %.3f ms%n", maxLateness.get() / 1_000_000.0);
+    }
+
+    private static void workerLoop() {
+        try {
+            while(running){
+                // simulated blocking read of a ping response
+                Thread.sleep(ThreadLocalRandom.current().nextInt(1, 30));
+
+                long before = System.nanoTime();
+                Thread.sleep(SLEEP_TIME_BETWEEN_CONNECTION_CHECKS);
+                long lateness = System.nanoTime() - before - SLEEP_TIME_BETWEEN_CONNECTION_CHECKS * 1_000_000;
+                wakeUps.increment();
+                totalLateness.add(lateness);
+                maxLateness.accumulateAndGet(lateness, Math::max);
+            }
+        } catch (InterruptedException ignored) {}
+    }
+
+    /**
+     * Probes a fake ping process like the process probe mode, with a new process every 60 requests
+     */
+    private static void processWorkerLoop(int index, String fakePing) {
+        Map<String,String> params = Map.of("-c", "60", "-i", "1");
+        String ip = "10.0.%d.%d".formatted(index / 250, index % 250 + 1);
+        PingEndPoint endPoint = new PingEndPoint(ip, new ProcessProbeEngine(ip, fakePing, () -> params, PingOutputParser.Dialect.LINUX_IPUTILS));
+        try {
+            while(running){
+                if(! endPoint.isRunning()) endPoint.start();
+                endPoint.probe(TIMEOUT);
+
+                long before = System.nanoTime();
+                Thread.sleep(SLEEP_TIME_BETWEEN_CONNECTION_CHECKS);
+                long lateness = System.nanoTime() - before - SLEEP_TIME_BETWEEN_CONNECTION_CHECKS * 1_000_000;
+                wakeUps.increment();
+                totalLateness.add(lateness);
+                maxLateness.accumulateAndGet(lateness, Math::max);
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            if(endPoint.isRunning()) endPoint.stop();
+        }
+    }
+
+    private static int countCarriers() {
+        int carriers = 0;
+        for(Thread thread : Thread.getAllStackTraces().keySet()){
+            if(thread.getName().startsWith("ForkJoinPool-")) carriers++;
+        }
+        return carriers;
+    }
+
+    private static long getRssKb() throws Exception {
+        for(String line : Files.readAllLines(Path.of("/proc/self/status"))){
+            if(line.startsWith("VmRSS:")){
+                return Long.parseLong(line.replaceAll("\\D", ""));
+            }
+        }
+        return -1;
+    }
+}
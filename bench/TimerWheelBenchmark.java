@@ -0,0 +1,151 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compares the {@link TimerWheel} of the NIO probe mode with a {@link ScheduledThreadPoolExecutor}.
+ * <ul>
+ * <li>reschedule - moving one of 100k pending timers to a new deadline, which is what every probe result does</li>
+ * <li>periodic - 100k timers firing at their own rate (250 to 2000 ms) on a single thread, like probes of 100k targets.
+ *     Measures how late the timers fire and the CPU time it costs</li>
+ * </ul>
+ * Usage: {@code java -cp out TimerWheelBenchmark [timers] [seconds]}
+ */
+public class TimerWheelBenchmark {
+
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int MAX_SAMPLES = 4_000_000;
+
+    private static final com.sun.management.OperatingSystemMXBean osMXBean =
+            (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+    private static class PeriodicTimer extends TimerWheel.Timer {
+        private final long interval;
+
+        private PeriodicTimer(long interval) {
+            this.interval = interval;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int timers = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        reschedule(timers);
+        System.out.printf("%nperiodic, %d timers, %d s%n", timers, seconds);
+        periodicWheel(timers, seconds);
+        periodicExecutor(timers, seconds);
+    }
+
+    private static void reschedule(int timers) {
+        Bench bench = new Bench();
+        long now = System.nanoTime();
+        long[] deadlines = new long[1 << 16];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for(int i = 0; i < deadlines.length; i++) deadlines[i] = now + random.nextLong(TimeUnit.SECONDS.toNanos(60));
+
+        TimerWheel wheel = new TimerWheel(TICK, now);
+        TimerWheel.Timer[] wheelTimers = new TimerWheel.Timer[timers];
+        for(int i = 0; i < timers; i++){
+            wheelTimers[i] = new TimerWheel.Timer();
+            wheel.schedule(wheelTimers[i], deadlines[i & (deadlines.length - 1)]);
+        }
+        int[] next = new int[1];
+        bench.run("wheel reschedule (%d pending)".formatted(timers), () -> {
+            int i = next[0]++;
+            wheel.schedule(wheelTimers[i % timers], deadlines[i & (deadlines.length - 1)]);
+            return wheel;
+        });
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+        @SuppressWarnings("unchecked")
+        ScheduledFuture<?>[] futures = new ScheduledFuture<?>[timers];
+        Runnable task = () -> {};
+        for(int i = 0; i < timers; i++){
+            futures[i] = executor.schedule(task, deadlines[i & (deadlines.length - 1)] - now, TimeUnit.NANOSECONDS);
+        }
+        bench.run("executor cancel + schedule (%d pending)".formatted(timers), () -> {
+            int i = next[0]++;
+            int index = i % timers;
+            futures[index].cancel(false);
+            futures[index] = executor.schedule(task, deadlines[i & (deadlines.length - 1)] - now, TimeUnit.NANOSECONDS);
+            return futures[index];
+        });
+        executor.shutdownNow();
+    }
+
+    private static void periodicWheel(int timers, int seconds) {
+        long[] lateness = new long[MAX_SAMPLES];
+        int count = 0;
+        long start = System.nanoTime();
+        TimerWheel wheel = new TimerWheel(TICK, start);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for(int i = 0; i < timers; i++){
+            PeriodicTimer timer = new PeriodicTimer(TimeUnit.MILLISECONDS.toNanos(250 + random.nextInt(1751)));
+            wheel.schedule(timer, start + random.nextLong(timer.interval));
+        }
+
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long cpuBefore = osMXBean.getProcessCpuTime();
+        int[] fired = new int[1];
+        long[] firedAt = new long[1];
+        long[][] samples = {lateness};
+        int[] sampleCount = {0};
+        TimerWheel.Handler handler = t -> {
+            PeriodicTimer timer = (PeriodicTimer) t;
+            if(sampleCount[0] < MAX_SAMPLES) samples[0][sampleCount[0]++] = firedAt[0] - timer.getDeadline();
+            fired[0]++;
+            wheel.schedule(timer, timer.getDeadline() + timer.interval);
+        };
+        // the same loop shape as SelectorProber: advance, then sleep until the wheel needs attention
+        while(true){
+            long now = System.nanoTime();
+            if(now >= end) break;
+            firedAt[0] = now;
+            wheel.advance(now, handler);
+            long wait = wheel.nanosUntilNext(System.nanoTime());
+            if(wait > 0) LockSupport.parkNanos(Math.min(wait, end - now));
+        }
+        long cpu = osMXBean.getProcessCpuTime() - cpuBefore;
+        report("wheel", fired[0], lateness, sampleCount[0], cpu, seconds);
+    }
+
+    private static void periodicExecutor(int timers, int seconds) throws Exception {
+        long[] lateness = new long[MAX_SAMPLES];
+        int[] sampleCount = {0};
+        int[] fired = new int[1];
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        long start = System.nanoTime();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long cpuBefore = osMXBean.getProcessCpuTime();
+        for(int i = 0; i < timers; i++){
+            long interval = TimeUnit.MILLISECONDS.toNanos(250 + random.nextInt(1751));
+            long first = random.nextLong(interval);
+            long[] expected = {start + first};
+            // only touched by the single executor thread
+            executor.scheduleAtFixedRate(() -> {
+                long now = System.nanoTime();
+                if(sampleCount[0] < MAX_SAMPLES) lateness[sampleCount[0]++] = now - expected[0];
+                fired[0]++;
+                expected[0] += interval;
+            }, start + first - System.nanoTime(), interval, TimeUnit.NANOSECONDS);
+        }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        long cpu = osMXBean.getProcessCpuTime() - cpuBefore;
+        report("executor", fired[0], lateness, sampleCount[0], cpu, seconds);
+    }
+
+    private static void report(String name, int fired, long[] lateness, int samples, long cpuNanos, int seconds) {
+        Arrays.sort(lateness, 0, samples);
+        System.out.printf("%-9s %9d fired   late p50 %6.2f ms  p99 %6.2f ms  max %7.2f ms   cpu %5.1f%% of a core (%.2f us per timer)%n",
+                name, fired,
+                lateness[samples / 2] / 1e6, lateness[(int) (samples * 0.99)] / 1e6, lateness[samples - 1] / 1e6,
+                cpuNanos * 100.0 / TimeUnit.SECONDS.toNanos(seconds), cpuNanos / 1e3 / fired);
+    }
+}
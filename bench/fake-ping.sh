@@ -0,0 +1,49 @@
+#!/bin/sh
+# A scripted stand-in for the iputils ping, used by ProcessRotationBenchmark and PingOutputGolden.
+# usage: fake-ping.sh <host> [-c count] [-i interval seconds] [--startup seconds] [--lose seq] [--silent] [other ping flags are ignored]
+# --startup delays the header line, like a slow fork on a busy machine
+# --lose reports the request with that sequence number as unanswered, like iputils ping with -O
+# --silent gets no replies and prints nothing for them, like BusyBox ping for a target that doesn't answer
+
+host=$1
+shift
+count=4
+interval=1
+startup=0
+silent=0
+lose=0
+while [ $# -gt 0 ]; do
+    case "$1" in
+        -c) count=$2; shift ;;
+        -i) interval=$2; shift ;;
+        --startup) startup=$2; shift ;;
+        --lose) lose=$2; shift ;;
+        --silent) silent=1 ;;
+        -W|-w|-n) shift ;;
+    esac
+    shift
+done
+
+sleep "$startup"
+if [ "$silent" -eq 1 ]; then
+    echo "PING $host ($host): 56 data bytes"
+    sleep "$(awk "BEGIN { print $count * $interval }")"
+    echo ""
+    echo "--- $host ping statistics ---"
+    echo "$count packets transmitted, 0 packets received, 100% packet loss"
+    exit 1
+fi
+echo "PING $host ($host) 56(84) bytes of data."
+seq=1
+while [ "$seq" -le "$count" ]; do
+    if [ "$seq" -eq "$lose" ]; then
+        echo "no answer yet for icmp_seq=$seq"
+    else
+        echo "64 bytes from $host: icmp_seq=$seq ttl=64 time=1.$seq ms"
+    fi
+    [ "$seq" -lt "$count" ] && sleep "$interval"
+    seq=$((seq + 1))
+done
+echo ""
+echo "--- $host ping statistics ---"
+echo "$count packets transmitted, $count received, 0% packet loss, time 0ms"
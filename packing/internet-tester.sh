@@ -0,0 +1,14 @@
+#!/bin/sh
+# Runs the program headless, for systemd or another supervisor, or as a short check from a script:
+#   internet-tester.sh 8.8.8.8 1.1.1.1
+# The logs and config.txt go to $INTERNET_TESTER_HOME, or next to the jar when it isn't set.
+#
+# The first run writes a class data sharing archive (internet-tester.jsa) when it exits, and the next runs
+# start from it. The archive is made again by itself when the jar or the JVM changes.
+# The client compiler alone and the serial collector start faster, and are plenty for a program that mostly waits.
+DIR=$(dirname "$(readlink -f "$0")")
+ARCHIVE="${INTERNET_TESTER_HOME:-$DIR}/internet-tester.jsa"
+exec java \
+    -XX:+AutoCreateSharedArchive -XX:SharedArchiveFile="$ARCHIVE" \
+    -XX:TieredStopAtLevel=1 -XX:+UseSerialGC -XX:-UsePerfData \
+    -cp "$DIR/internet-tester.jar" Main --headless "$@"
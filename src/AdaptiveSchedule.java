@@ -0,0 +1,181 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a target is probed next and how long its probe waits for a reply.
+ * <p>
+ * A target starts at the normal interval. As soon as a probe fails, or a reply is much slower than usual,
+ * it goes into a burst: probes every {@link #BURST_INTERVAL} milliseconds with a short timeout,
+ * so a failure is confirmed (or cleared) quickly. After {@link #BURST_RECOVERY} good replies in a row it goes back
+ * to the normal interval, and once it has been stable for {@link #STABLE_AFTER} the interval doubles
+ * with every probe, up to the stable interval.
+ * <p>
+ * The short timeout follows TCP's retransmission timeout: the smoothed round trip time plus 4 times its variation
+ * (RFC 6298), kept between {@link #MIN_BURST_TIMEOUT} and the configured timeout.
+ * <p>
+ * When disabled it keeps the normal interval and the configured timeout, but still counts the probes and the
+ * detection latency. All times are {@link System#nanoTime()} values passed in by the caller.
+ */
+public class AdaptiveSchedule {
+
+    public enum State { BURST, NORMAL, STABLE }
+
+    public static final long BURST_INTERVAL = 50;
+    public static final int MIN_BURST_TIMEOUT = 200;
+    private static final int BURST_RECOVERY = 5;
+    private static final int MAX_BURST_FAILURES = 20; // a long outage is probed at the normal interval
+    private static final long STABLE_AFTER = TimeUnit.SECONDS.toNanos(60);
+
+    private final long normalInterval;
+    private volatile long stableInterval;
+    private volatile boolean enabled;
+
+    private State state = State.NORMAL;
+    private long interval;
+    private long lastProblemTime;
+    private int goodInRow;
+    private int failuresInRow;
+
+    // smoothed round trip time and its variation in nanoseconds, -1 before the first reply
+    private long srtt = -1;
+    private long rttvar;
+
+    // statistics
+    private long lastProbeStart;
+    private long failureStart = -1;
+    private long probes;
+    private long detections;
+    private long lastDetection;
+    private long maxDetection;
+    private long totalDetection;
+
+    /**
+     * @param normalInterval milliseconds between probes of a target that is neither in trouble nor stable
+     * @param stableInterval the longest time between probes of a stable target in milliseconds
+     * @param now the start time, the target is only considered stable after {@link #STABLE_AFTER} from it
+     */
+    public AdaptiveSchedule(long normalInterval, long stableInterval, boolean enabled, long now) {
+        this.normalInterval = normalInterval;
+        this.interval = normalInterval;
+        this.enabled = enabled;
+        lastProblemTime = now;
+        this.stableInterval = Math.max(normalInterval, stableInterval);
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setStableInterval(long stableInterval) {
+        this.stableInterval = Math.max(normalInterval, stableInterval);
+    }
+
+    /**
+     * Called right before a probe is sent
+     * @return the timeout for this probe in milliseconds
+     */
+    public synchronized int beginProbe(long now, int configuredTimeout) {
+        probes++;
+        lastProbeStart = now;
+        if(! enabled || state != State.BURST || srtt == -1) return configuredTimeout;
+        long rto = TimeUnit.NANOSECONDS.toMillis(srtt + 4 * rttvar);
+        return (int) Math.min(configuredTimeout, Math.max(MIN_BURST_TIMEOUT, rto));
+    }
+
+    /**
+     * @param rttNanos the round trip time, or -1 if it is unknown
+     */
+    public synchronized void onResult(long now, boolean connected, long rttNanos) {
+        if(! connected){
+            if(failureStart == -1) failureStart = lastProbeStart == 0 ? now : lastProbeStart;
+            failuresInRow++;
+            goodInRow = 0;
+            lastProblemTime = now;
+            state = failuresInRow <= MAX_BURST_FAILURES ? State.BURST : State.NORMAL;
+            interval = normalInterval;
+            return;
+        }
+
+        failuresInRow = 0;
+        failureStart = -1;
+        if(rttNanos >= 0){
+            boolean degraded = srtt != -1 && rttNanos > srtt + 4 * rttvar && rttNanos > 2 * srtt;
+            updateRtt(rttNanos);
+            if(degraded){
+                goodInRow = 0;
+                lastProblemTime = now;
+                state = State.BURST;
+                return;
+            }
+        }
+
+        goodInRow++;
+        if(state == State.BURST && goodInRow >= BURST_RECOVERY){
+            state = State.NORMAL;
+            interval = normalInterval;
+        } else if(state != State.BURST && now - lastProblemTime >= STABLE_AFTER){
+            state = State.STABLE;
+            interval = Math.min(stableInterval, interval * 2);
+        }
+    }
+
+    /**
+     * Called when the failures of the target are confirmed and it is marked as disconnected
+     */
+    public synchronized void onDisconnected(long now) {
+        if(failureStart == -1) return;
+        long latency = now - failureStart;
+        detections++;
+        lastDetection = latency;
+        maxDetection = Math.max(maxDetection, latency);
+        totalDetection += latency;
+    }
+
+    /**
+     * @return milliseconds to wait before the next probe
+     */
+    public synchronized long getDelay() {
+        if(! enabled) return normalInterval;
+        return switch(state){
+            case BURST -> BURST_INTERVAL;
+            case NORMAL -> normalInterval;
+            case STABLE -> Math.min(interval, stableInterval);
+        };
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized long getProbeCount() {
+        return probes;
+    }
+
+    public synchronized long getDetectionCount() {
+        return detections;
+    }
+
+    /**
+     * @return the average time from the start of the first failed probe to the confirmation, in milliseconds
+     */
+    public synchronized double getAverageDetectionMillis() {
+        return detections == 0 ? 0 : totalDetection / (double) detections / 1_000_000;
+    }
+
+    public synchronized double getMaxDetectionMillis() {
+        return maxDetection / 1_000_000.0;
+    }
+
+    public synchronized double getLastDetectionMillis() {
+        return lastDetection / 1_000_000.0;
+    }
+
+    private void updateRtt(long rtt) {
+        if(srtt == -1){
+            srtt = rtt;
+            rttvar = rtt / 2;
+        } else {
+            rttvar = (3 * rttvar + Math.abs(srtt - rtt)) / 4;
+            srtt = (7 * srtt + rtt) / 8;
+        }
+    }
+}
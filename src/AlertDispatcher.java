@@ -0,0 +1,232 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Delivers the alerts of lost and found connections (sounds, commands, files, HTTP) on its own thread,
+ * so detecting a change in the connection never waits for an alert to be delivered.
+ * <p>
+ * Every group has at most one alert waiting. A new alert for a group replaces the waiting one and counts
+ * the changes it replaced, so a flapping link can't pile up alerts - whatever happens, the next alert
+ * tells the latest state. Every group also has a rate limit: a bucket of {@code rateLimit} alerts that
+ * refills at {@code rateLimit} alerts a minute. A group that runs out waits for the bucket, and the changes
+ * in the meantime are folded into its waiting alert.
+ */
+public class AlertDispatcher implements Closeable {
+
+    private static final long ONE_MINUTE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * @param group the name of the group, or null for a single unnamed group
+     * @param connected true when the connection was found, false when it was lost
+     * @param time of the change, in epoch milliseconds
+     * @param message the line that was written to the internet log
+     * @param pingCount the number of times to play the sound
+     * @param changes the number of changes in the connection this alert stands for. More than 1 when alerts were folded together
+     */
+    public record Alert(String group, boolean connected, long time, String message, int pingCount, float masterGain, int changes) {
+
+        public Alert(String group, boolean connected, long time, String message, int pingCount, float masterGain) {
+            this(group, connected, time, message, pingCount, masterGain, 1);
+        }
+
+        /**
+         * @return this newer alert, standing for the changes of the older one too
+         */
+        Alert foldIn(Alert older) {
+            return new Alert(group, connected, time, message, pingCount, masterGain, changes + older.changes);
+        }
+    }
+
+    public interface Sink extends Closeable {
+        /**
+         * Called on the dispatcher's thread, one alert at a time
+         */
+        void deliver(Alert alert) throws Exception;
+
+        @Override
+        default void close() {}
+    }
+
+    private static class Bucket {
+        private double tokens;
+        private long lastRefill;
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<String,Alert> waiting = new LinkedHashMap<>(); // by group, oldest first
+    private final Map<String,Bucket> buckets = new LinkedHashMap<>();
+    private final List<Sink> retired = new ArrayList<>(); // replaced sinks the dispatcher's thread closes between alerts
+    private final Consumer<String> onError;
+    private final Thread thread;
+    private volatile List<Sink> sinks = List.of();
+    private volatile int rateLimit; // alerts per minute per group, 0 for no limit
+    private volatile boolean closed;
+
+    /**
+     * @param onError gets a message when a sink fails. Called on the dispatcher's thread
+     */
+    public AlertDispatcher(int rateLimit, Consumer<String> onError) {
+        this.rateLimit = rateLimit;
+        this.onError = onError;
+        thread = new Thread(this::deliverLoop, "alert-dispatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues the alert and returns right away
+     */
+    public void submit(Alert alert) {
+        lock.lock();
+        try {
+            // a null group is a valid key of a LinkedHashMap, and stands for the unnamed group
+            waiting.merge(alert.group(), alert, (older, newer) -> newer.foldIn(older));
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the sinks. The old sinks that aren't in the new list are closed by the dispatcher's thread
+     * once it is done with the alert it is delivering, so a reload doesn't close a sink in the middle of a delivery
+     */
+    public void setSinks(List<Sink> sinks) {
+        lock.lock();
+        try {
+            List<Sink> old = this.sinks;
+            this.sinks = List.copyOf(sinks);
+            for(Sink sink : old){
+                if(! sinks.contains(sink)) retired.add(sink);
+            }
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<Sink> getSinks() {
+        return sinks;
+    }
+
+    public void setRateLimit(int rateLimit) {
+        lock.lock();
+        try {
+            this.rateLimit = rateLimit;
+            buckets.clear();
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops delivering. Alerts that are still waiting are dropped
+     */
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+        for(Sink sink : sinks) sink.close();
+        lock.lock();
+        try {
+            for(Sink sink : retired) sink.close();
+            retired.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void deliverLoop() {
+        while(! closed){
+            closeRetired();
+            Alert alert;
+            try {
+                alert = take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if(alert == null) continue; // woken up to close sinks
+            for(Sink sink : sinks){
+                try {
+                    sink.deliver(alert);
+                } catch (InterruptedException e) {
+                    if(closed) return;
+                } catch (Exception e) {
+                    onError.accept("Could not deliver the alert with %s: %s".formatted(sink, e));
+                }
+            }
+        }
+    }
+
+    private void closeRetired() {
+        List<Sink> closing;
+        lock.lock();
+        try {
+            if(retired.isEmpty()) return;
+            closing = List.copyOf(retired);
+            retired.clear();
+        } finally {
+            lock.unlock();
+        }
+        for(Sink sink : closing) sink.close();
+    }
+
+    /**
+     * Waits for an alert of a group that has room in its rate limit
+     * @return null if there are replaced sinks to close first
+     */
+    private Alert take() throws InterruptedException {
+        lock.lock();
+        try {
+            while(true){
+                if(! retired.isEmpty()) return null;
+                long now = System.nanoTime();
+                long wait = Long.MAX_VALUE;
+                for(var entry : waiting.entrySet()){
+                    long groupWait = takeToken(entry.getKey(), now);
+                    if(groupWait == 0){
+                        waiting.remove(entry.getKey());
+                        return entry.getValue();
+                    }
+                    wait = Math.min(wait, groupWait);
+                }
+                if(wait == Long.MAX_VALUE) changed.await();
+                else changed.awaitNanos(wait);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 0 if the group may send an alert now (and uses up the token), or how long until it may
+     */
+    private long takeToken(String group, long now) {
+        int limit = rateLimit;
+        if(limit <= 0) return 0;
+        Bucket bucket = buckets.get(group);
+        if(bucket == null){
+            bucket = new Bucket();
+            bucket.tokens = limit;
+            bucket.lastRefill = now;
+            buckets.put(group, bucket);
+        }
+        double nanosPerToken = (double) ONE_MINUTE_NANOS / limit;
+        bucket.tokens = Math.min(limit, bucket.tokens + (now - bucket.lastRefill) / nanosPerToken);
+        bucket.lastRefill = now;
+        if(bucket.tokens >= 1){
+            bucket.tokens--;
+            return 0;
+        }
+        return Math.max((long) Math.ceil((1 - bucket.tokens) * nanosPerToken), 1);
+    }
+}
@@ -0,0 +1,294 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Clip;
+import javax.sound.sampled.FloatControl;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ways an {@link AlertDispatcher} can deliver an alert
+ */
+public class AlertSinks {
+
+    private AlertSinks() {}
+
+    /**
+     * Plays connect_ping.wav or disconnect_ping.wav.
+     * <p>
+     * Both sounds are decoded once into PCM by the first alert that plays a sound, and each gets its own {@link Clip}
+     * the first time it plays, which then stays open. So the next alerts only rewind and start a clip,
+     * and a program that never plays a sound never loads the sound system.
+     * If the machine has no audio device, the sink says so once and stays quiet from then on.
+     */
+    public static class Audio implements AlertDispatcher.Sink {
+
+        private record Sound(AudioFormat format, byte[] pcm) {}
+
+        private Sound connect;
+        private Sound disconnect;
+        private final Map<Sound,Clip> clips = new HashMap<>();
+        private boolean unavailable;
+
+        @Override
+        public synchronized void deliver(AlertDispatcher.Alert alert) throws IOException, LineUnavailableException {
+            if(alert.pingCount() <= 0 || unavailable) return;
+            if(connect == null){
+                try {
+                    connect = decode("connect_ping.wav");
+                    disconnect = decode("disconnect_ping.wav");
+                } catch (IOException e) {
+                    unavailable = true;
+                    throw new IOException("Could not load the sounds, the sounds are turned off until the program restarts: "+e.getMessage(), e);
+                }
+            }
+            Clip clip;
+            try {
+                clip = getClip(alert.connected() ? connect : disconnect);
+            } catch (LineUnavailableException | IllegalArgumentException | SecurityException e) {
+                // there is no point in trying again on every alert of a machine without sound
+                unavailable = true;
+                throw new LineUnavailableException("No audio device, the sounds are turned off until the program restarts: "+e.getMessage());
+            }
+            // only one sound at a time, like a single clip
+            for(Clip other : clips.values()) other.stop();
+            if(clip.isControlSupported(FloatControl.Type.MASTER_GAIN)){
+                FloatControl control = (FloatControl) clip.getControl(FloatControl.Type.MASTER_GAIN);
+                control.setValue(Math.max(control.getMinimum(), Math.min(control.getMaximum(), alert.masterGain())));
+            }
+            clip.setFramePosition(0);
+            clip.loop(alert.pingCount() - 1);
+        }
+
+        @Override
+        public synchronized void close() {
+            for(Clip clip : clips.values()) clip.close();
+            clips.clear();
+        }
+
+        @Override
+        public String toString() {
+            return "sound";
+        }
+
+        private Clip getClip(Sound sound) throws LineUnavailableException {
+            Clip clip = clips.get(sound);
+            if(clip == null){
+                clip = AudioSystem.getClip();
+                clip.open(sound.format, sound.pcm, 0, sound.pcm.length);
+                clips.put(sound, clip);
+            }
+            return clip;
+        }
+
+        static Sound decode(String fileName) throws IOException {
+            InputStream in = Main.class.getResourceAsStream(fileName);
+            if(in == null) throw new IOException("Missing resource "+fileName);
+            try (AudioInputStream audio = AudioSystem.getAudioInputStream(new BufferedInputStream(in))) {
+                return new Sound(audio.getFormat(), audio.readAllBytes());
+            } catch (UnsupportedAudioFileException e) {
+                throw new IOException(fileName, e);
+            }
+        }
+    }
+
+    /**
+     * Runs a command for every alert. The details of the alert are in the environment variables
+     * INTERNET_TESTER_EVENT (connected or disconnected), INTERNET_TESTER_GROUP, INTERNET_TESTER_TIME,
+     * INTERNET_TESTER_MESSAGE and INTERNET_TESTER_CHANGES. A command that runs for too long is killed
+     * <p>
+     * The command line is run by the platform shell, {@code cmd /c} on Windows and {@code sh -c} elsewhere,
+     * so it's quoted like in a terminal: a path with spaces goes in double quotes, and the details can be used
+     * as %INTERNET_TESTER_EVENT% or $INTERNET_TESTER_EVENT.
+     */
+    public static class Command implements AlertDispatcher.Sink {
+
+        private static final long TIMEOUT = 10;
+        private static final boolean WINDOWS = System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+
+        private final String command;
+
+        public Command(String command) {
+            this.command = command;
+        }
+
+        @Override
+        public void deliver(AlertDispatcher.Alert alert) throws IOException, InterruptedException {
+            ProcessBuilder builder = new ProcessBuilder(WINDOWS ? List.of("cmd", "/c", command) : List.of("sh", "-c", command))
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD);
+            Map<String,String> environment = builder.environment();
+            environment.put("INTERNET_TESTER_EVENT", event(alert));
+            environment.put("INTERNET_TESTER_GROUP", alert.group() == null ? "" : alert.group());
+            environment.put("INTERNET_TESTER_TIME", Instant.ofEpochMilli(alert.time()).toString());
+            environment.put("INTERNET_TESTER_MESSAGE", alert.message().strip());
+            environment.put("INTERNET_TESTER_CHANGES", String.valueOf(alert.changes()));
+            Process process = builder.start();
+            try {
+                if(! process.waitFor(TIMEOUT, TimeUnit.SECONDS)){
+                    throw new IOException("timed out after %d seconds".formatted(TIMEOUT));
+                }
+            } finally {
+                // the shell doesn't take its children down with it
+                process.descendants().forEach(ProcessHandle::destroyForcibly);
+                process.destroyForcibly();
+            }
+            if(process.exitValue() != 0) throw new IOException("exit code "+process.exitValue());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Command other && other.command.equals(command);
+        }
+
+        @Override
+        public int hashCode() {
+            return command.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "command '%s'".formatted(command);
+        }
+    }
+
+    /**
+     * Appends a line for every alert to a file
+     */
+    public static class File implements AlertDispatcher.Sink {
+
+        private final Path path;
+
+        public File(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public void deliver(AlertDispatcher.Alert alert) throws IOException {
+            String line = alert.message().strip();
+            if(alert.group() != null) line = "%s [%s]".formatted(line, alert.group());
+            if(alert.changes() > 1) line += " (%d changes since the last alert)".formatted(alert.changes());
+            Files.writeString(path, line + System.lineSeparator(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof File other && other.path.equals(path);
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "file '%s'".formatted(path);
+        }
+    }
+
+    /**
+     * POSTs every alert as JSON to a URL, like a local webhook relay:<br/>
+     * {@code {"event":"disconnected","group":"office","time":"2024-01-01T10:00:00Z","message":"...","changes":1}}
+     */
+    public static class Http implements AlertDispatcher.Sink {
+
+        private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+        private final URI uri;
+        private final HttpClient client = HttpClient.newBuilder().connectTimeout(TIMEOUT).build();
+
+        public Http(URI uri) {
+            this.uri = uri;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the value isn't an http or https URL
+         */
+        public static URI parseUri(String value) {
+            URI uri = URI.create(value);
+            if(! "http".equals(uri.getScheme()) && ! "https".equals(uri.getScheme()) || uri.getHost() == null){
+                throw new IllegalArgumentException("alert_url must be 'off' or an http(s) URL: "+value);
+            }
+            return uri;
+        }
+
+        @Override
+        public void deliver(AlertDispatcher.Alert alert) throws IOException, InterruptedException {
+            String json = "{\"event\":\"%s\",\"group\":%s,\"time\":\"%s\",\"message\":\"%s\",\"changes\":%d}".formatted(
+                    event(alert),
+                    alert.group() == null ? "null" : "\"" + escapeJson(alert.group()) + "\"",
+                    Instant.ofEpochMilli(alert.time()),
+                    escapeJson(alert.message().strip()),
+                    alert.changes());
+            HttpRequest request = HttpRequest.newBuilder(uri)
+                    .timeout(TIMEOUT)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(json))
+                    .build();
+            int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+            if(status / 100 != 2) throw new IOException("HTTP "+status);
+        }
+
+        @Override
+        public void close() {
+            client.close();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Http other && other.uri.equals(uri);
+        }
+
+        @Override
+        public int hashCode() {
+            return uri.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "POST to '%s'".formatted(uri);
+        }
+    }
+
+    private static String event(AlertDispatcher.Alert alert) {
+        return alert.connected() ? "connected" : "disconnected";
+    }
+
+    private static String escapeJson(String text) {
+        StringBuilder builder = new StringBuilder(text.length());
+        for(int i = 0; i < text.length(); i++){
+            char c = text.charAt(i);
+            switch(c){
+                case '"' -> builder.append("\\\"");
+                case '\\' -> builder.append("\\\\");
+                case '\n' -> builder.append("\\n");
+                case '\r' -> builder.append("\\r");
+                case '\t' -> builder.append("\\t");
+                default -> {
+                    if(c < 0x20) builder.append("\\u%04x".formatted((int) c));
+                    else builder.append(c);
+                }
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,325 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Appends lines to log files from a single background thread.
+ * <p>
+ * Any number of files can be opened with {@link #open}, and they all share the queue and the thread,
+ * so monitoring more groups doesn't mean more writer threads.
+ * A file is opened on its first message and stays open until {@link Log#close} or the end of the writer.
+ * Messages are taken from the queue in batches, written together and flushed once the batch is big enough,
+ * once the flush interval has passed or once nothing else is waiting to be written.
+ * When the queue is full, the {@link OverflowPolicy} of the log decides whether the caller waits or the message is dropped.
+ * <p>
+ * A file that can't be opened or written, or a line whose supplier throws, only costs the lines of its own log:
+ * the {@link ErrorListener} is told once, the file is opened again for the next line, and the other files go on.
+ * Only a failure of the writer thread itself makes the calls throw.
+ */
+public class AsyncLogWriter implements Closeable {
+
+    public enum OverflowPolicy {
+        /** The caller waits until there is room in the queue */
+        BLOCK,
+        /** The message is dropped and counted. The count is written to the file later */
+        DROP
+    }
+
+    /**
+     * Told on the writer thread about a log whose file couldn't be written,
+     * once until a line gets to the file again
+     */
+    public interface ErrorListener {
+        void onError(Log log, Throwable cause);
+    }
+
+    /**
+     * One file written by this writer
+     */
+    public final class Log {
+        private final String path;
+        private final OverflowPolicy policy;
+        private final AtomicLong dropped = new AtomicLong();
+        private long reportedDrops; // only touched by the writer thread
+        private boolean failing; // reported and not written since, only touched by the writer thread
+
+        private Log(String path, OverflowPolicy policy) {
+            this.path = path;
+            this.policy = policy;
+        }
+
+        /**
+         * Queues a line to be written. A line break is added at the end
+         * @throws IOException if the writer is closed or its thread stopped
+         */
+        public void write(String message) throws IOException {
+            enqueue(new Entry(this, message, null));
+        }
+
+        /**
+         * Queues a line that is made by the writer thread, for lines that take a while to make.
+         * The supplier must only use values that don't change after the call
+         */
+        public void write(Supplier<String> message) throws IOException {
+            enqueue(new Entry(this, null, message));
+        }
+
+        private void enqueue(Entry entry) throws IOException {
+            checkState(this);
+
+            if(policy == OverflowPolicy.DROP){
+                if(! queue.offer(entry)) dropped.incrementAndGet();
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                // wake up once in a while in case the writer thread died while we were waiting
+                while(! queue.offer(entry, 100, TimeUnit.MILLISECONDS)){
+                    checkState(this);
+                }
+                SelfOverhead.record(SelfOverhead.Stage.LOG_ENQUEUE, System.nanoTime() - start);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing to "+path, e);
+            }
+        }
+
+        /**
+         * Closes the file once the lines queued so far are written. A later line opens it again
+         */
+        public void close() throws IOException {
+            checkState(this);
+            try {
+                while(! queue.offer(new Entry(this, null, null), 100, TimeUnit.MILLISECONDS)){
+                    checkState(this);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while closing "+path, e);
+            }
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getDroppedCount() {
+            return dropped.get();
+        }
+    }
+
+    // a message made by the writer thread comes in a supplier. An entry with neither closes the file of the log
+    private record Entry(Log log, String message, Supplier<String> supplier) {}
+
+    private static final int MAX_BATCH_SIZE = 512;
+    private static final int FLUSH_SIZE = 64 * 1024;
+
+    // tells the writer thread to finish
+    private static final Entry CLOSE = new Entry(null, null, null);
+
+    private final BlockingQueue<Entry> queue;
+    private final long flushIntervalNanos;
+    private final Thread thread;
+    private final ErrorListener errorListener;
+    private volatile Throwable failure; // stopped the writer thread
+    private volatile boolean closed;
+
+    /**
+     * @param flushInterval the longest time in milliseconds a written message can stay unflushed
+     *                      while more messages keep arriving
+     */
+    public AsyncLogWriter(int capacity, long flushInterval) {
+        this(capacity, flushInterval, (log, cause) -> System.err.println("Could not write to " + log.getPath() + ": " + cause));
+    }
+
+    /**
+     * @param errorListener told about the files that couldn't be written
+     */
+    public AsyncLogWriter(int capacity, long flushInterval, ErrorListener errorListener) {
+        this.errorListener = errorListener;
+        queue = new ArrayBlockingQueue<>(capacity);
+        flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+        thread = new Thread(this::writerLoop, "log-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public Log open(String path, OverflowPolicy policy) {
+        return new Log(path, policy);
+    }
+
+    /**
+     * Writes everything that was queued so far, then closes the files
+     */
+    @Override
+    public void close() {
+        if(closed) return;
+        closed = true;
+        try {
+            while(thread.isAlive() && ! queue.offer(CLOSE, 100, TimeUnit.MILLISECONDS)) {}
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkState(Log log) throws IOException {
+        if(failure != null){
+            throw new IOException("Failed to write to "+log.path, failure);
+        }
+        if(closed){
+            throw new IOException("Log writer for "+log.path+" is closed");
+        }
+        if(! thread.isAlive()){
+            throw new IOException("The log writer stopped, "+log.path+" can't be written");
+        }
+    }
+
+    private void writerLoop() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        Map<Log,BufferedWriter> writers = new HashMap<>();
+        Set<Log> unflushed = new LinkedHashSet<>();
+        try {
+            long unflushedSince = -1;
+            int unflushedChars = 0;
+            boolean closing = false;
+            while(! closing){
+                // wait for the next message, but not longer than the pending flush allows
+                Entry first;
+                if(unflushedSince == -1){
+                    first = queue.take();
+                } else {
+                    long wait = flushIntervalNanos - (System.nanoTime() - unflushedSince);
+                    first = queue.poll(Math.max(wait, 0), TimeUnit.NANOSECONDS);
+                }
+
+                PipelineEvents.LogWrite event = PipelineEvents.isRecorderInitialized() ? new PipelineEvents.LogWrite() : null;
+                if(event != null) event.begin();
+                long start = System.nanoTime();
+                int batchChars = 0;
+                int messages = 0;
+                boolean flushed = false;
+                if(first != null){
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                    for(Entry entry : batch){
+                        if(entry == CLOSE){
+                            closing = true;
+                            break;
+                        }
+                        Log log = entry.log();
+                        try {
+                            String message = entry.message() != null ? entry.message()
+                                    : entry.supplier() != null ? entry.supplier().get() : null;
+                            if(message == null){
+                                BufferedWriter closed = writers.remove(log);
+                                if(closed != null){
+                                    unflushed.remove(log);
+                                    closed.close();
+                                }
+                                continue;
+                            }
+                            BufferedWriter writer = writers.get(log);
+                            if(writer == null){
+                                writer = new BufferedWriter(new FileWriter(log.path, true), FLUSH_SIZE);
+                                writers.put(log, writer);
+                            }
+                            writer.write(message);
+                            writer.write('\n');
+                            unflushedChars += message.length() + 1;
+                            batchChars += message.length() + 1;
+
+                            long drops = log.dropped.get();
+                            if(drops != log.reportedDrops){
+                                writer.write("[%s messages were dropped because the log couldn't keep up]\n".formatted(drops - log.reportedDrops));
+                                log.reportedDrops = drops;
+                            }
+                            unflushed.add(log);
+                        } catch (IOException e) {
+                            fail(log, e, writers, unflushed);
+                        } catch (RuntimeException e) {
+                            report(log, e); // only the line is lost, the file is fine
+                        }
+                    }
+                    messages = batch.size();
+                    batch.clear();
+                    if(unflushedSince == -1) unflushedSince = System.nanoTime();
+                }
+
+                boolean due = unflushedSince != -1
+                        && (queue.isEmpty()
+                        || unflushedChars >= FLUSH_SIZE
+                        || System.nanoTime() - unflushedSince >= flushIntervalNanos);
+                if(due || closing){
+                    for(Log log : List.copyOf(unflushed)){
+                        try {
+                            writers.get(log).flush();
+                            log.failing = false;
+                        } catch (IOException e) {
+                            fail(log, e, writers, unflushed);
+                        }
+                    }
+                    unflushed.clear();
+                    unflushedSince = -1;
+                    unflushedChars = 0;
+                    flushed = true;
+                }
+
+                if(messages > 0 || flushed){
+                    SelfOverhead.record(SelfOverhead.Stage.LOG_WRITE, System.nanoTime() - start);
+                    if(event != null && event.shouldCommit()){
+                        event.messages = messages;
+                        event.flushed = flushed;
+                        event.bytes = batchChars;
+                        event.commit();
+                    }
+                }
+            }
+        } catch (InterruptedException ignored) {
+        } catch (Throwable e) {
+            // the callers see it on their next call, instead of waiting for room in a queue nobody empties
+            failure = e;
+        } finally {
+            for(Map.Entry<Log,BufferedWriter> writer : writers.entrySet()){
+                try {
+                    writer.getValue().close();
+                } catch (IOException e) {
+                    report(writer.getKey(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the file of the log, the next line of the log opens it again
+     */
+    private void fail(Log log, Throwable cause, Map<Log,BufferedWriter> writers, Set<Log> unflushed) {
+        report(log, cause);
+        unflushed.remove(log);
+        BufferedWriter writer = writers.remove(log);
+        if(writer == null) return;
+        try {
+            writer.close();
+        } catch (IOException ignored) {} // reported already
+    }
+
+    private void report(Log log, Throwable cause) {
+        if(log.failing) return;
+        log.failing = true;
+        try {
+            errorListener.onError(log, cause);
+        } catch (RuntimeException ignored) {} // a broken listener doesn't stop the logs
+    }
+}
@@ -0,0 +1,184 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of the settings in config.txt.
+ * <p>
+ * When the file changes a whole new snapshot replaces the old one, so a thread that reads
+ * the current snapshot once sees a consistent set of values without any locking.
+ * <p>
+ * Every group of addresses has its own snapshot: the file's settings, with the ones in {@link #GROUP_SETTINGS}
+ * replaced by lines that start with the group's name, like {@code office.disconnect_quorum: 1}.
+ */
+public record Config(
+        int timeout,
+        int disconnectPingCount,
+        int connectPingCount,
+        float masterGain,
+        int disconnectQuorum,
+        boolean enableDebugLog,
+        boolean enableSampleStore,
+        int incidentWindow,
+        int longResponseThreshold,
+        int statsLogInterval,
+        String metricsEndpoint,
+        String alertCommand,
+        String alertFile,
+        String alertUrl,
+        int alertRateLimit,
+        StatusDisplay.Mode statusDisplay,
+        boolean adaptiveProbing,
+        int stableProbeInterval,
+        ProbeMode probeMode,
+        PingOutputParser.Dialect pingDialect,
+        boolean useVirtualThreads) {
+
+    /** Settings that only take effect when the program restarts */
+    public static final Set<String> RESTART_REQUIRED = Set.of("probe_mode", "ping_dialect", "use_virtual_threads");
+
+    /** Settings whose values keep their case, like paths and commands. The others are read in lower case */
+    public static final Set<String> CASE_SENSITIVE = Set.of("alert_command", "alert_file", "alert_url");
+
+    /** Settings a group can override. The rest belong to the probes and the logs all the groups share */
+    public static final Set<String> GROUP_SETTINGS = Set.of("disconnect_ping_count", "connect_ping_count", "master_gain",
+            "disconnect_quorum", "enable_debug_log", "incident_window", "long_response_threshold");
+
+    /**
+     * @param group the name of the group whose settings override the file's, or null for the file's settings
+     */
+    public static Config parse(Map<String,String> values, String group) {
+        if(group == null) return parse(values);
+        String prefix = group.toLowerCase() + ".";
+        Map<String,String> merged = new HashMap<>(values);
+        for(var entry : values.entrySet()){
+            if(! entry.getKey().startsWith(prefix)) continue;
+            String key = entry.getKey().substring(prefix.length());
+            if(! GROUP_SETTINGS.contains(key)){
+                throw new IllegalArgumentException(key+" can't be set for a single group: "+entry.getKey());
+            }
+            merged.put(key, entry.getValue());
+        }
+        return parse(merged);
+    }
+
+    public static Config parse(Map<String,String> values) {
+        return new Config(
+                Integer.parseInt(values.getOrDefault("timeout", Main.DEFAULT_TIMEOUT)),
+                Integer.parseInt(values.getOrDefault("disconnect_ping_count", Main.DEFAULT_DISCONNECT_PING_COUNT)),
+                Integer.parseInt(values.getOrDefault("connect_ping_count", Main.DEFAULT_CONNECT_PING_COUNT)),
+                Float.parseFloat(values.getOrDefault("master_gain", Main.DEFAULT_MASTER_GAIN)),
+                parseQuorum(values.getOrDefault("disconnect_quorum", Main.DEFAULT_DISCONNECT_QUORUM)),
+                Boolean.parseBoolean(values.getOrDefault("enable_debug_log", Main.DEFAULT_ENABLE_DEBUG_LOG)),
+                Boolean.parseBoolean(values.getOrDefault("enable_sample_store", Main.DEFAULT_ENABLE_SAMPLE_STORE)),
+                parseIncidentWindow(values.getOrDefault("incident_window", Main.DEFAULT_INCIDENT_WINDOW)),
+                Integer.parseInt(values.getOrDefault("long_response_threshold", Main.DEFAULT_LONG_RESPONSE_THRESHOLD)),
+                Integer.parseInt(values.getOrDefault("stats_log_interval", Main.DEFAULT_STATS_LOG_INTERVAL)),
+                parseMetricsEndpoint(values.getOrDefault("metrics_endpoint", Main.DEFAULT_METRICS_ENDPOINT)),
+                values.getOrDefault("alert_command", Main.DEFAULT_ALERT_COMMAND),
+                values.getOrDefault("alert_file", Main.DEFAULT_ALERT_FILE),
+                parseAlertUrl(values.getOrDefault("alert_url", Main.DEFAULT_ALERT_URL)),
+                parseRateLimit(values.getOrDefault("alert_rate_limit", Main.DEFAULT_ALERT_RATE_LIMIT)),
+                StatusDisplay.Mode.parse(values.getOrDefault("status_display", Main.DEFAULT_STATUS_DISPLAY)),
+                Boolean.parseBoolean(values.getOrDefault("adaptive_probing", Main.DEFAULT_ADAPTIVE_PROBING)),
+                Integer.parseInt(values.getOrDefault("stable_probe_interval", Main.DEFAULT_STABLE_PROBE_INTERVAL)),
+                ProbeMode.parse(values.getOrDefault("probe_mode", Main.DEFAULT_PROBE_MODE)),
+                PingOutputParser.Dialect.parse(values.getOrDefault("ping_dialect", Main.DEFAULT_PING_DIALECT)),
+                Boolean.parseBoolean(values.getOrDefault("use_virtual_threads", Main.DEFAULT_USE_VIRTUAL_THREADS)));
+    }
+
+    /**
+     * @return the keys of the settings that are different in the other snapshot
+     */
+    public List<String> diff(Config other) {
+        Map<String,Object> mine = toMap();
+        Map<String,Object> theirs = other.toMap();
+        List<String> changed = new ArrayList<>();
+        for(String key : mine.keySet()){
+            if(! Objects.equals(mine.get(key), theirs.get(key))) changed.add(key);
+        }
+        return changed;
+    }
+
+    /**
+     * @return this config, with the settings that require a restart taken from the running config
+     */
+    public Config withRestartSettingsOf(Config running) {
+        return new Config(timeout, disconnectPingCount, connectPingCount, masterGain, disconnectQuorum, enableDebugLog, enableSampleStore,
+                incidentWindow, longResponseThreshold, statsLogInterval, metricsEndpoint, alertCommand, alertFile, alertUrl, alertRateLimit, statusDisplay, adaptiveProbing, stableProbeInterval,
+                running.probeMode, running.pingDialect, running.useVirtualThreads);
+    }
+
+    public Object get(String key) {
+        return toMap().get(key);
+    }
+
+    /**
+     * @return the number of addresses, or 0 for all of them
+     */
+    private static int parseQuorum(String value) {
+        if(value.equals("all")) return 0;
+        int quorum = Integer.parseInt(value);
+        if(quorum < 1) throw new IllegalArgumentException("disconnect_quorum must be 'all' or at least 1: "+value);
+        return quorum;
+    }
+
+    private static String parseMetricsEndpoint(String value) {
+        MetricsServer.parseAddress(value); // throws if it isn't valid
+        return value;
+    }
+
+    /**
+     * @return false for "off"
+     */
+    public static boolean isOn(String value) {
+        return ! value.equalsIgnoreCase("off");
+    }
+
+    private static String parseAlertUrl(String value) {
+        if(isOn(value)) AlertSinks.Http.parseUri(value); // throws if it isn't valid
+        return value;
+    }
+
+    private static int parseRateLimit(String value) {
+        int limit = Integer.parseInt(value);
+        if(limit < 0) throw new IllegalArgumentException("alert_rate_limit can't be negative: "+value);
+        return limit;
+    }
+
+    private static int parseIncidentWindow(String value) {
+        int window = Integer.parseInt(value);
+        if(window < 0) throw new IllegalArgumentException("incident_window can't be negative: "+value);
+        return window;
+    }
+
+    private Map<String,Object> toMap() {
+        Map<String,Object> map = new LinkedHashMap<>();
+        map.put("timeout", timeout);
+        map.put("disconnect_ping_count", disconnectPingCount);
+        map.put("connect_ping_count", connectPingCount);
+        map.put("master_gain", masterGain);
+        map.put("disconnect_quorum", disconnectQuorum);
+        map.put("enable_debug_log", enableDebugLog);
+        map.put("enable_sample_store", enableSampleStore);
+        map.put("incident_window", incidentWindow);
+        map.put("long_response_threshold", longResponseThreshold);
+        map.put("stats_log_interval", statsLogInterval);
+        map.put("metrics_endpoint", metricsEndpoint);
+        map.put("alert_command", alertCommand);
+        map.put("alert_file", alertFile);
+        map.put("alert_url", alertUrl);
+        map.put("alert_rate_limit", alertRateLimit);
+        map.put("status_display", statusDisplay);
+        map.put("adaptive_probing", adaptiveProbing);
+        map.put("stable_probe_interval", stableProbeInterval);
+        map.put("probe_mode", probeMode);
+        map.put("ping_dialect", pingDialect);
+        map.put("use_virtual_threads", useVirtualThreads);
+        return map;
+    }
+}
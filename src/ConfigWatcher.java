@@ -0,0 +1,72 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls back as soon as a file is changed, created or deleted.
+ * <p>
+ * Editors usually save a file in a few steps (truncate, write, rename),
+ * so the callback only runs once the file has been quiet for {@link #DEBOUNCE_TIME} milliseconds.
+ */
+public class ConfigWatcher implements Closeable {
+
+    private static final long DEBOUNCE_TIME = 20;
+
+    private final Path file;
+    private final WatchService watchService;
+    private final Runnable onChange;
+    private final Thread thread;
+
+    public ConfigWatcher(Path file, Runnable onChange) throws IOException {
+        this.file = file.toAbsolutePath();
+        this.onChange = onChange;
+        watchService = this.file.getFileSystem().newWatchService();
+        this.file.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        thread = new Thread(this::watchLoop, "config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        try {
+            thread.join();
+        } catch (InterruptedException ignored) {}
+    }
+
+    private void watchLoop() {
+        try {
+            while(true){
+                if(! isRelevant(watchService.take())) continue;
+
+                // wait for the writer to finish
+                WatchKey key;
+                while((key = watchService.poll(DEBOUNCE_TIME, TimeUnit.MILLISECONDS)) != null){
+                    isRelevant(key);
+                }
+                onChange.run();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException ignored) {}
+    }
+
+    private boolean isRelevant(WatchKey key) {
+        boolean relevant = false;
+        for(WatchEvent<?> event : key.pollEvents()){
+            if(event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())){
+                relevant = true;
+            }
+        }
+        key.reset();
+        return relevant;
+    }
+}
@@ -0,0 +1,194 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The connection state of a group of targets.
+ * <p>
+ * The group is {@link State#DOWN} when at least {@code quorum} of its targets are down,
+ * {@link State#DEGRADED} when some are down, and {@link State#UP} when none are.
+ * <p>
+ * Every target has its own slot with the time it started failing, or {@link #UP} - a target changes between up and down
+ * with one CAS on its slot, and only the thread that made the change updates the group.
+ * The group lives in a small immutable {@link Snapshot} - how many targets are down, the state and the outages -
+ * and every change swaps in a new snapshot with one CAS, so readers always see a consistent view of the group
+ * and no thread ever waits for another. A change costs the same in a group of ten thousand targets as in a group of two.
+ * <p>
+ * The group went down when the quorum was reached, that is when the k-th of its down targets started failing
+ * (for the default quorum of all targets, when the last one did). A target that has been failing for hours
+ * on its own doesn't pull the time of an outage back.
+ */
+public class ConnectivityState {
+
+    public enum State { UP, DEGRADED, DOWN }
+
+    public static final class Snapshot {
+        private final int downCount;
+        private final int quorum;
+        private final State state;
+        private final long downSince; // start of the current or last outage, epoch millis
+        private final long upSince; // end of the last outage, epoch millis
+        private final long outages;
+        private final long downtime; // total length of the outages that ended, millis
+
+        private Snapshot(int downCount, int quorum, State state, long downSince, long upSince, long outages, long downtime) {
+            this.downCount = downCount;
+            this.quorum = quorum;
+            this.state = state;
+            this.downSince = downSince;
+            this.upSince = upSince;
+            this.outages = outages;
+            this.downtime = downtime;
+        }
+
+        public int getDownCount() {
+            return downCount;
+        }
+
+        public int getQuorum() {
+            return quorum;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * @return when the current outage started, or the last one if the group isn't down. In epoch millis
+         */
+        public long getDownSince() {
+            return downSince;
+        }
+
+        /**
+         * @return when the last outage ended, in epoch millis
+         */
+        public long getUpSince() {
+            return upSince;
+        }
+
+        /**
+         * @return the number of times the group went down
+         */
+        public long getOutages() {
+            return outages;
+        }
+
+        /**
+         * @return the total time the group was down, including the current outage, in millis
+         */
+        public long getDowntimeMillis(long now) {
+            return state == State.DOWN ? downtime + Math.max(now - downSince, 0) : downtime;
+        }
+    }
+
+    private static final long UP = Long.MIN_VALUE; // the slot of a target that isn't down
+
+    private final int targets;
+    private final AtomicLongArray failureStarts; // epoch millis for the targets that are down
+    private final AtomicReference<Snapshot> snapshot;
+
+    /**
+     * @param quorum the number of targets that have to be down for the group to be down, 0 means all of them
+     */
+    public ConnectivityState(int targets, int quorum) {
+        this.targets = targets;
+        failureStarts = new AtomicLongArray(targets);
+        for(int i = 0; i < targets; i++) failureStarts.set(i, UP);
+        snapshot = new AtomicReference<>(new Snapshot(0, resolveQuorum(quorum), State.UP, 0, 0, 0, 0));
+    }
+
+    public Snapshot get() {
+        return snapshot.get();
+    }
+
+    /**
+     * @return true from the moment the target is marked down. The group's snapshot follows right after
+     */
+    public boolean isDown(int index) {
+        return failureStarts.get(index) != UP;
+    }
+
+    public State getState() {
+        return snapshot.get().state;
+    }
+
+    /**
+     * @param failureStart when the target started failing, in epoch millis
+     * @return the snapshot after the change
+     */
+    public Snapshot markDown(int index, long failureStart) {
+        if(! failureStarts.compareAndSet(index, UP, failureStart)) return snapshot.get(); // down already
+        while(true){
+            Snapshot current = snapshot.get();
+            Snapshot next = evaluate(current, current.downCount + 1, current.quorum, failureStart);
+            if(snapshot.compareAndSet(current, next)) return next;
+        }
+    }
+
+    /**
+     * @param now the time the target responded again, in epoch millis
+     * @return the snapshot after the change
+     */
+    public Snapshot markUp(int index, long now) {
+        while(true){
+            long failureStart = failureStarts.get(index);
+            if(failureStart == UP) return snapshot.get();
+            if(failureStarts.compareAndSet(index, failureStart, UP)) break;
+        }
+        while(true){
+            Snapshot current = snapshot.get();
+            Snapshot next = evaluate(current, current.downCount - 1, current.quorum, now);
+            if(snapshot.compareAndSet(current, next)) return next;
+        }
+    }
+
+    /**
+     * @param quorum the number of targets that have to be down for the group to be down, 0 means all of them
+     */
+    public Snapshot setQuorum(int quorum, long now) {
+        int resolved = resolveQuorum(quorum);
+        while(true){
+            Snapshot current = snapshot.get();
+            if(current.quorum == resolved) return current;
+            Snapshot next = evaluate(current, current.downCount, resolved, now);
+            if(snapshot.compareAndSet(current, next)) return next;
+        }
+    }
+
+    private int resolveQuorum(int quorum) {
+        return quorum <= 0 ? targets : Math.min(quorum, targets);
+    }
+
+    private Snapshot evaluate(Snapshot current, int downCount, int quorum, long now) {
+        State state = downCount == 0 ? State.UP : downCount >= quorum ? State.DOWN : State.DEGRADED;
+        long downSince = current.downSince;
+        long upSince = current.upSince;
+        long outages = current.outages;
+        long downtime = current.downtime;
+        if(state == State.DOWN && current.state != State.DOWN){
+            downSince = quorumReachedAt(quorum, now);
+            outages++;
+        } else if(state != State.DOWN && current.state == State.DOWN){
+            upSince = now;
+            downtime += Math.max(upSince - downSince, 0);
+        }
+        return new Snapshot(downCount, quorum, state, downSince, upSince, outages, downtime);
+    }
+
+    /**
+     * Only called when the group goes down, so the scan doesn't add up over the targets of an outage
+     * @return the time the k-th of the down targets started failing
+     */
+    private long quorumReachedAt(int quorum, long now) {
+        long[] starts = new long[targets];
+        int count = 0;
+        for(int i = 0; i < targets; i++){
+            long start = failureStarts.get(i);
+            if(start != UP) starts[count++] = start;
+        }
+        if(count == 0) return now; // every target came back while the snapshot was made
+        Arrays.sort(starts, 0, count);
+        return starts[Math.min(quorum, count) - 1];
+    }
+}
@@ -0,0 +1,156 @@
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded lock-free ring of events from many producer threads to a single consumer thread.
+ * <p>
+ * Every slot has a sequence number that tells whose turn it is (the bounded MPMC queue of Dmitry Vyukov,
+ * with a single consumer): a producer claims a slot with one CAS on the tail, fills it, and publishes it
+ * by advancing the slot's sequence, and the consumer takes slots in order without any atomic read-modify-write.
+ * <p>
+ * The consumer parks while the ring is empty and the producers only unpark it when it is actually parked,
+ * so an idle ring costs nothing and a published event is handled within microseconds.
+ */
+public class EventRing {
+
+    public enum Type {
+        /** A probe finished, the payload is the {@link ProbeResult} */
+        PROBE_RESULT,
+        /** The address stopped responding */
+        TARGET_DOWN,
+        /** The address responds again */
+        TARGET_UP,
+        /** A message for the console, the payload is the message */
+        LOG_LINE,
+        /** A line for the internet log of the address's group, the payload is the line */
+        INTERNET_LOG,
+        /** The config file was read again, the quorum of a group may have changed */
+        CONFIG_RELOADED,
+        /** An event loop of the selector prober stopped with an exception */
+        PROBER_STOPPED
+    }
+
+    /**
+     * @param index the index of the address, or -1 if the event isn't about a single address
+     */
+    public record Event(Type type, int index, LocalDateTime time, Object payload) {}
+
+    public interface Handler {
+        void onEvent(Event event) throws Exception;
+    }
+
+    private final int mask;
+    private final AtomicReferenceArray<Event> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // only touched by the consumer
+    private volatile Thread consumer;
+    private volatile boolean consumerParked;
+
+    /**
+     * @param capacity rounded up to a power of 2
+     */
+    public EventRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        slots = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for(int i = 0; i < size; i++) sequences.set(i, i);
+    }
+
+    /**
+     * Adds an event, waiting for room if the ring is full
+     * @throws IllegalStateException if the ring is full and the caller is the consumer, which would wait for itself
+     */
+    public void publish(Event event) {
+        while(! tryPublish(event)){
+            if(isConsumer()) throw new IllegalStateException("The event ring is full and only its consumer could empty it");
+            // full - the consumer is behind by a whole ring
+            Thread.yield();
+        }
+    }
+
+    public void publish(Type type, int index, LocalDateTime time, Object payload) {
+        publish(new Event(type, index, time, payload));
+    }
+
+    /**
+     * Adds an event if there is room
+     * @return false if the ring is full
+     */
+    public boolean tryPublish(Event event) {
+        long position;
+        while(true){
+            position = tail.get();
+            long sequence = sequences.get((int) position & mask);
+            if(sequence == position){
+                if(tail.compareAndSet(position, position + 1)) break;
+            } else if(sequence < position){
+                return false;
+            }
+            // otherwise another producer claimed this position first, try the next one
+        }
+        int slot = (int) position & mask;
+        slots.lazySet(slot, event);
+        sequences.set(slot, position + 1);
+
+        if(consumerParked){
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * @return true on the thread that drains the ring. It must not wait for room in it
+     */
+    public boolean isConsumer() {
+        return Thread.currentThread() == consumer;
+    }
+
+    /**
+     * Waits until there is at least one event or the time runs out, then hands every available event to the handler.
+     * Must always be called from the same thread
+     * @return the number of events handled
+     */
+    public int drain(Handler handler, long timeoutNanos) throws Exception {
+        consumer = Thread.currentThread();
+        long deadline = System.nanoTime() + timeoutNanos;
+        while(isEmpty()){
+            long wait = deadline - System.nanoTime();
+            if(wait <= 0) return 0;
+            consumerParked = true;
+            // a producer that published before it saw the flag is caught by this check
+            if(isEmpty()) LockSupport.parkNanos(this, wait);
+            consumerParked = false;
+        }
+
+        int count = 0;
+        Event event;
+        while((event = poll()) != null){
+            handler.onEvent(event);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the next event, or null if there are none. Consumer thread only
+     */
+    public Event poll() {
+        int slot = (int) head & mask;
+        if(sequences.get(slot) != head + 1) return null;
+        Event event = slots.get(slot);
+        slots.lazySet(slot, null);
+        // hand the slot back to the producers for the next round
+        sequences.set(slot, head + mask + 1);
+        head++;
+        return event;
+    }
+
+    public boolean isEmpty() {
+        return sequences.get((int) head & mask) != head + 1;
+    }
+}
@@ -0,0 +1,38 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Probes the target with {@link InetAddress#isReachable(int)}.
+ * <p>
+ * Note: without the privileges to send raw ICMP packets the JVM falls back
+ * to a TCP connection attempt on port 7 (echo), which is still a valid reachability check.
+ */
+public class IcmpProbeEngine implements ProbeEngine {
+    private final String ip;
+    private InetAddress address;
+
+    public IcmpProbeEngine(String ip) {
+        this.ip = ip;
+    }
+
+    @Override
+    public ProbeResult probe(int timeout) {
+        try {
+            if(address == null){
+                address = InetAddress.getByName(ip);
+            }
+            long start = System.nanoTime();
+            boolean reachable = address.isReachable(timeout);
+            long rtt = System.nanoTime() - start;
+            if(reachable){
+                return ProbeResult.success(rtt, "Reply from %s: time=%sms".formatted(ip, rtt / 1_000_000));
+            }
+            return ProbeResult.failure(ProbeResult.Status.TIMEOUT, "Request timed out.");
+        } catch (UnknownHostException e) {
+            return ProbeResult.failure(ProbeResult.Status.ERROR, "Could not find host "+ip);
+        } catch (IOException e) {
+            return ProbeResult.failure(ProbeResult.Status.UNREACHABLE, "Destination host unreachable: "+e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,253 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the last minutes of probe results of a group in memory, and writes them to a file only around an incident.
+ * <p>
+ * Every address has a ring of the results of the last {@code incident_window} minutes (time, status, response time
+ * and the raw output), so recording a result is a few array stores and nothing is written to disk while the connection
+ * is fine. The ring starts with room for the window at the normal probe interval, and results older than the window
+ * make room for new ones. When the results come faster, like the bursts of adaptive probing around a failure,
+ * the ring grows up to the window at {@link AdaptiveSchedule#BURST_INTERVAL}, so the file still has the whole window
+ * before the incident. Only an address probed faster than that for the whole window keeps less than the window.
+ * When the connection is lost or found, or a response is slow, the rings of the group are written to a new file
+ * in the 'incidents' folder in time order, and the results that follow are added to it while the connection is down
+ * and for {@link #TAIL} after the last incident. Incidents that come while the file is open are added to it,
+ * and a file doesn't repeat the results that an earlier file has, so frequent incidents don't write more than the debug log.
+ * <p>
+ * Only used by the main thread.
+ */
+public class IncidentRecorder {
+
+    public static final long TAIL = TimeUnit.SECONDS.toMillis(60);
+    private static final int LINES_PER_WRITE = 1000;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+    private static final DateTimeFormatter FILE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH-mm-ss").withZone(ZoneId.systemDefault());
+    private static final ProbeResult.Status[] STATUSES = ProbeResult.Status.values();
+
+    /**
+     * The results of one address in the last window. When it is full of results from the window, it grows
+     * up to its largest capacity, then the oldest result is overwritten by the newest
+     */
+    private static final class Ring {
+        private final long windowMillis;
+        private final int maxCapacity;
+        private long[] times; // epoch milliseconds
+        private long[] rttNanos;
+        private byte[] statuses;
+        private String[] outputs;
+        private int next;
+        private int size;
+
+        private Ring(int capacity, int maxCapacity, long windowMillis) {
+            this.windowMillis = windowMillis;
+            this.maxCapacity = Math.max(capacity, maxCapacity);
+            times = new long[capacity];
+            rttNanos = new long[capacity];
+            statuses = new byte[capacity];
+            outputs = new String[capacity];
+        }
+
+        private void add(long time, ProbeResult result) {
+            // results that left the window make room first
+            while(size > 0 && times[slot(0)] < time - windowMillis){
+                outputs[slot(0)] = null;
+                size--;
+            }
+            if(size == times.length && size < maxCapacity) grow();
+            times[next] = time;
+            rttNanos[next] = result.getRttNanos();
+            statuses[next] = (byte) result.getStatus().ordinal();
+            outputs[next] = result.getOutput();
+            next = next + 1 == times.length ? 0 : next + 1;
+            if(size < times.length) size++;
+        }
+
+        private void grow() {
+            int capacity = (int) Math.min(maxCapacity, times.length * 2L);
+            long[] newTimes = new long[capacity];
+            long[] newRtts = new long[capacity];
+            byte[] newStatuses = new byte[capacity];
+            String[] newOutputs = new String[capacity];
+            for(int i = 0; i < size; i++){
+                int slot = slot(i);
+                newTimes[i] = times[slot];
+                newRtts[i] = rttNanos[slot];
+                newStatuses[i] = statuses[slot];
+                newOutputs[i] = outputs[slot];
+            }
+            times = newTimes;
+            rttNanos = newRtts;
+            statuses = newStatuses;
+            outputs = newOutputs;
+            next = size;
+        }
+
+        /**
+         * @param i 0 for the oldest result
+         */
+        private int slot(int i) {
+            int slot = next - size + i;
+            return slot < 0 ? slot + times.length : slot;
+        }
+    }
+
+    private final MonitorGroup group;
+    private final long probeInterval;
+    private final AsyncLogWriter writer;
+    private final Path folder;
+    private Ring[] rings; // null while the window is 0
+    private int window; // minutes
+
+    private AsyncLogWriter.Log file; // the incident being written, or null
+    private long until; // when the file is closed, unless the connection is down
+    private long writtenUntil = Long.MIN_VALUE; // the time of the last result written to a file
+    private String lastFile;
+    private boolean down;
+    private long incidents;
+
+    /**
+     * @param probeInterval the normal time between the results of an address in milliseconds, the first size of the rings
+     * @param folder where the incident files go, created with the first one
+     */
+    public IncidentRecorder(MonitorGroup group, long probeInterval, AsyncLogWriter writer, Path folder) {
+        this.group = group;
+        this.probeInterval = probeInterval;
+        this.writer = writer;
+        this.folder = folder;
+    }
+
+    /**
+     * Keeps a result of an address, and adds it to the incident being written
+     * @param target the address, numbered like in {@link MonitorGroup}
+     */
+    public void record(int target, long time, ProbeResult result) throws IOException {
+        int window = group.getConfig().incidentWindow();
+        if(window != this.window) resize(window);
+
+        if(rings != null) rings[target - group.getOffset()].add(time, result);
+        if(file == null) return;
+        if(! down && time > until){
+            file.write("[%s] Recording stopped %d seconds after the last incident".formatted(
+                    TIME_FORMAT.format(Instant.ofEpochMilli(time)), TimeUnit.MILLISECONDS.toSeconds(TAIL)));
+            file.close();
+            file = null;
+            return;
+        }
+        writtenUntil = time;
+        String address = group.getAddresses()[target - group.getOffset()];
+        file.write(() -> format(new StringBuilder(), time, address, result.getStatus(), result.getRttNanos(), result.getOutput()).toString());
+    }
+
+    /**
+     * Writes the results in memory to a new file, or adds the incident to the file being written
+     * @param message the line of the internet log that tells about the incident
+     * @param down true while the connection is lost: the results are written until it is found
+     */
+    public void onIncident(long time, String message, boolean down) throws IOException {
+        if(group.getConfig().incidentWindow() == 0) return;
+        this.down = down;
+        until = time + TAIL;
+        if(file != null){
+            file.write(message);
+            return;
+        }
+
+        Files.createDirectories(folder);
+        String name = FILE_FORMAT.format(Instant.ofEpochMilli(time)) + (group.getName() == null ? "" : " - " + MonitorGroup.toFileName(group.getName()));
+        file = writer.open(folder.resolve(name + ".txt").toString(), AsyncLogWriter.OverflowPolicy.BLOCK);
+        incidents++;
+        file.write(message);
+        writeRings();
+        lastFile = name;
+    }
+
+    /**
+     * @return the number of incident files written
+     */
+    public long getIncidents() {
+        return incidents;
+    }
+
+    private void resize(int window) {
+        this.window = window;
+        rings = null;
+        if(window == 0) return;
+        long windowMillis = TimeUnit.MINUTES.toMillis(window);
+        int capacity = (int) Math.max(1, windowMillis / probeInterval);
+        int maxCapacity = (int) Math.max(1, windowMillis / AdaptiveSchedule.BURST_INTERVAL);
+        rings = new Ring[group.size()];
+        for(int i = 0; i < rings.length; i++) rings[i] = new Ring(capacity, maxCapacity, windowMillis);
+    }
+
+    /**
+     * Writes the results of all the addresses, merged in time order.
+     * The main thread only copies them, the log writer thread makes the lines
+     */
+    private void writeRings() throws IOException {
+        if(rings == null) return;
+        if(writtenUntil == Long.MIN_VALUE){
+            file.write("Probe results of the last %d minutes, and the ones that follow:".formatted(window));
+        } else {
+            file.write("Probe results of the last %d minutes since the incident of %s, and the ones that follow:".formatted(window, lastFile));
+        }
+
+        int[] positions = new int[rings.length];
+        int count = 0;
+        // the addresses by the time of their oldest result not copied yet
+        PriorityQueue<Integer> queue = new PriorityQueue<>(Math.max(1, rings.length),
+                Comparator.comparingLong(i -> rings[i].times[rings[i].slot(positions[i])]));
+        for(int i = 0; i < rings.length; i++){
+            Ring ring = rings[i];
+            // skip what the last file has
+            while(positions[i] < ring.size && ring.times[ring.slot(positions[i])] <= writtenUntil) positions[i]++;
+            if(positions[i] < ring.size) queue.add(i);
+            count += ring.size - positions[i];
+        }
+        long[] times = new long[count];
+        long[] rttNanos = new long[count];
+        byte[] statuses = new byte[count];
+        String[] outputs = new String[count];
+        String[] addresses = new String[count];
+        for(int n = 0; n < count; n++){
+            int oldest = queue.poll();
+            Ring ring = rings[oldest];
+            int slot = ring.slot(positions[oldest]++);
+            if(positions[oldest] < ring.size) queue.add(oldest);
+            times[n] = ring.times[slot];
+            rttNanos[n] = ring.rttNanos[slot];
+            statuses[n] = ring.statuses[slot];
+            outputs[n] = ring.outputs[slot];
+            addresses[n] = group.getAddresses()[oldest];
+        }
+        if(count > 0) writtenUntil = times[count - 1];
+
+        // in parts, so the log writer doesn't make one huge line
+        for(int from = 0; from < count; from += LINES_PER_WRITE){
+            int start = from;
+            int end = Math.min(from + LINES_PER_WRITE, count);
+            file.write(() -> {
+                StringBuilder builder = new StringBuilder((end - start) * 100);
+                for(int n = start; n < end; n++){
+                    if(n > start) builder.append('\n');
+                    format(builder, times[n], addresses[n], STATUSES[statuses[n]], rttNanos[n], outputs[n]);
+                }
+                return builder.toString();
+            });
+        }
+    }
+
+    private static StringBuilder format(StringBuilder builder, long time, String address, ProbeResult.Status status, long rttNanos, String output) {
+        builder.append(TIME_FORMAT.format(Instant.ofEpochMilli(time))).append("  ").append(address).append("  ").append(status);
+        if(rttNanos >= 0) builder.append(' ').append(TimeUnit.NANOSECONDS.toMillis(rttNanos)).append(" ms");
+        if(output != null && ! output.isEmpty()) builder.append("  ").append(output.strip().replace('\n', ' '));
+        return builder;
+    }
+}
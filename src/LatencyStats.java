@@ -0,0 +1,305 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming latency statistics of a single target over sliding windows of 1 minute, 5 minutes and 1 hour.
+ * <p>
+ * Every window is a ring of time buckets. Each bucket keeps its own counters and a log-linear histogram
+ * of round trip times (8 sub-buckets per power of 2, so percentiles are accurate to about 6%),
+ * and the window keeps a running total of the histograms of its live buckets,
+ * so a percentile query only walks a single histogram.
+ * Everything is preallocated - recording a sample doesn't allocate.
+ * <p>
+ * Next to the windows, totals since the start are kept for the metrics endpoint: probe counts and a histogram
+ * with fixed bounds in the Prometheus style, see {@link #copyTotals}.
+ * <p>
+ * Samples are expected from a single thread per target, while other threads read the results.
+ * Both are synchronized on this object, which is practically never contended.
+ */
+public class LatencyStats {
+
+    public static final int ONE_MINUTE = 0;
+    public static final int FIVE_MINUTES = 1;
+    public static final int ONE_HOUR = 2;
+    private static final String[] WINDOW_NAMES = {"1m", "5m", "1h"};
+
+    // histogram of microseconds: values below 8 get their own bins, then 8 bins per power of 2, up to ~134 seconds
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 27;
+    private static final int BINS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    // upper bounds of the buckets of the totals histogram, in microseconds. Values above the last go to an overflow bucket
+    private static final long[] TOTAL_BUCKET_BOUNDS = {
+            1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000, 1_000_000, 2_500_000, 5_000_000};
+
+    /**
+     * The totals since the start. Meant to be allocated once and filled again on every read
+     */
+    public static class Totals {
+        public long received;
+        public long lost;
+        public long timedCount;
+        public long rttSumMicros;
+        public final long[] buckets = new long[TOTAL_BUCKET_BOUNDS.length + 1]; // not cumulative, the last is the overflow
+    }
+
+    private final Window[] windows;
+    private final Totals totals = new Totals();
+    private long lastRtt = -1;
+
+    public LatencyStats() {
+        windows = new Window[]{
+                new Window(TimeUnit.SECONDS.toNanos(5), 12),
+                new Window(TimeUnit.SECONDS.toNanos(30), 10),
+                new Window(TimeUnit.MINUTES.toNanos(5), 12)
+        };
+    }
+
+    /**
+     * @param rttNanos the round trip time, or -1 if the probe failed
+     */
+    public synchronized void record(boolean lost, long rttNanos) {
+        long now = System.nanoTime();
+        long rttMicros = rttNanos < 0 ? -1 : rttNanos / 1000;
+        long jitter = -1;
+        if(! lost && rttMicros >= 0){
+            if(lastRtt >= 0) jitter = Math.abs(rttMicros - lastRtt);
+            lastRtt = rttMicros;
+        }
+        for(Window window : windows){
+            window.record(now, lost, rttMicros, jitter);
+        }
+
+        if(lost){
+            totals.lost++;
+            return;
+        }
+        totals.received++;
+        if(rttMicros >= 0){
+            totals.timedCount++;
+            totals.rttSumMicros += rttMicros;
+            int bucket = 0;
+            while(bucket < TOTAL_BUCKET_BOUNDS.length && rttMicros > TOTAL_BUCKET_BOUNDS[bucket]) bucket++;
+            totals.buckets[bucket]++;
+        }
+    }
+
+    public synchronized void copyTotals(Totals into) {
+        into.received = totals.received;
+        into.lost = totals.lost;
+        into.timedCount = totals.timedCount;
+        into.rttSumMicros = totals.rttSumMicros;
+        System.arraycopy(totals.buckets, 0, into.buckets, 0, totals.buckets.length);
+    }
+
+    /**
+     * @return the upper bounds of the buckets in {@link Totals#buckets}, in microseconds
+     */
+    public static long[] getTotalBucketBounds() {
+        return TOTAL_BUCKET_BOUNDS.clone();
+    }
+
+    public synchronized boolean hasSamples(int window) {
+        Window w = windows[window];
+        w.advance(System.nanoTime());
+        return w.sum(w.received) + w.sum(w.lost) > 0;
+    }
+
+    /**
+     * @return the value of the percentile (0-100) in milliseconds, or -1 if there were no replies in the window
+     */
+    public synchronized double getPercentile(int window, double percentile) {
+        Window w = windows[window];
+        w.advance(System.nanoTime());
+        long total = 0;
+        for(long count : w.totals) total += count;
+        if(total == 0) return -1;
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for(int bin = 0; bin < BINS; bin++){
+            seen += w.totals[bin];
+            if(seen >= rank) return binMiddle(bin) / 1000.0;
+        }
+        return binMiddle(BINS - 1) / 1000.0;
+    }
+
+    /**
+     * @return the percentage of lost probes in the window, or -1 if there were no probes
+     */
+    public synchronized double getLossPercentage(int window) {
+        Window w = windows[window];
+        w.advance(System.nanoTime());
+        long lost = w.sum(w.lost);
+        long all = lost + w.sum(w.received);
+        return all == 0 ? -1 : lost * 100.0 / all;
+    }
+
+    /**
+     * @return one line with all the statistics of the window, like:<br/>
+     * {@code 1h: min/avg/p50/p95/p99/max = 12.1/14.0/13.8/18.2/25.0/31.2 ms, jitter 1.2 ms, loss 0.0% (3600 probes)}
+     */
+    public synchronized String summary(int window) {
+        Window w = windows[window];
+        w.advance(System.nanoTime());
+        long received = w.sum(w.received);
+        long lost = w.sum(w.lost);
+        long timed = w.sum(w.timedCount);
+        long jitterCount = w.sum(w.jitterCount);
+        if(received + lost == 0){
+            return "%s: no probes".formatted(WINDOW_NAMES[window]);
+        }
+        String loss = "loss %.1f%% (%d probes)".formatted(lost * 100.0 / (received + lost), received + lost);
+        if(timed == 0){
+            return "%s: %s".formatted(WINDOW_NAMES[window], loss);
+        }
+
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for(int i = 0; i < w.min.length; i++){
+            if(w.timedCount[i] == 0) continue;
+            min = Math.min(min, w.min[i]);
+            max = Math.max(max, w.max[i]);
+        }
+        double avg = w.sum(w.rttSum) / (double) timed / 1000.0;
+        double jitter = jitterCount == 0 ? 0 : w.sum(w.jitterSum) / (double) jitterCount / 1000.0;
+        return "%s: min/avg/p50/p95/p99/max = %.1f/%.1f/%.1f/%.1f/%.1f/%.1f ms, jitter %.1f ms, %s".formatted(
+                WINDOW_NAMES[window],
+                min / 1000.0, avg,
+                getPercentile(window, 50), getPercentile(window, 95), getPercentile(window, 99),
+                max / 1000.0, jitter, loss);
+    }
+
+    /**
+     * @return a short summary of the window for the status line, like {@code p50/p99 13.8/25.0 ms, loss 0.0%}
+     */
+    public synchronized String shortSummary(int window) {
+        double p50 = getPercentile(window, 50);
+        double loss = getLossPercentage(window);
+        if(p50 == -1){
+            return "loss %.1f%%".formatted(loss);
+        }
+        return "p50/p99 %.1f/%.1f ms, loss %.1f%%".formatted(p50, getPercentile(window, 99), loss);
+    }
+
+    /**
+     * @return the shortest window that covers the given time
+     */
+    public static int windowFor(long millis) {
+        if(millis <= TimeUnit.MINUTES.toMillis(1)) return ONE_MINUTE;
+        if(millis <= TimeUnit.MINUTES.toMillis(5)) return FIVE_MINUTES;
+        return ONE_HOUR;
+    }
+
+    static int binOf(long micros) {
+        long value = Math.min(micros, MAX_VALUE);
+        if(value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long binMiddle(int bin) {
+        if(bin < SUB_BUCKETS) return bin;
+        int exponent = bin / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = bin % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width / 2;
+    }
+
+    private static class Window {
+        private final long bucketNanos;
+        private final long[] received;
+        private final long[] lost;
+        private final long[] timedCount;
+        private final long[] rttSum;
+        private final long[] min;
+        private final long[] max;
+        private final long[] jitterSum;
+        private final long[] jitterCount;
+        private final int[][] histograms;
+        private final long[] totals;
+        private long currentEpoch = Long.MIN_VALUE;
+
+        private Window(long bucketNanos, int buckets) {
+            this.bucketNanos = bucketNanos;
+            received = new long[buckets];
+            lost = new long[buckets];
+            timedCount = new long[buckets];
+            rttSum = new long[buckets];
+            min = new long[buckets];
+            max = new long[buckets];
+            jitterSum = new long[buckets];
+            jitterCount = new long[buckets];
+            histograms = new int[buckets][BINS];
+            totals = new long[BINS];
+        }
+
+        private void record(long now, boolean isLost, long rttMicros, long jitter) {
+            int bucket = advance(now);
+            if(isLost){
+                lost[bucket]++;
+                return;
+            }
+            received[bucket]++;
+            if(rttMicros >= 0){
+                if(timedCount[bucket] == 0){
+                    min[bucket] = rttMicros;
+                    max[bucket] = rttMicros;
+                } else {
+                    min[bucket] = Math.min(min[bucket], rttMicros);
+                    max[bucket] = Math.max(max[bucket], rttMicros);
+                }
+                timedCount[bucket]++;
+                rttSum[bucket] += rttMicros;
+                int bin = binOf(rttMicros);
+                histograms[bucket][bin]++;
+                totals[bin]++;
+            }
+            if(jitter >= 0){
+                jitterSum[bucket] += jitter;
+                jitterCount[bucket]++;
+            }
+        }
+
+        /**
+         * Clears the buckets that fell out of the window
+         * @return the index of the current bucket
+         */
+        private int advance(long now) {
+            long epoch = Math.floorDiv(now, bucketNanos);
+            int buckets = received.length;
+            if(currentEpoch == Long.MIN_VALUE){
+                currentEpoch = epoch;
+            } else if(epoch != currentEpoch){
+                long toClear = Math.min(epoch - currentEpoch, buckets);
+                for(long i = 1; i <= toClear; i++){
+                    clear(Math.floorMod(currentEpoch + i, buckets));
+                }
+                currentEpoch = epoch;
+            }
+            return Math.floorMod(epoch, buckets);
+        }
+
+        private void clear(int bucket) {
+            received[bucket] = 0;
+            lost[bucket] = 0;
+            timedCount[bucket] = 0;
+            rttSum[bucket] = 0;
+            jitterSum[bucket] = 0;
+            jitterCount[bucket] = 0;
+            int[] histogram = histograms[bucket];
+            for(int bin = 0; bin < BINS; bin++){
+                totals[bin] -= histogram[bin];
+                histogram[bin] = 0;
+            }
+        }
+
+        private long sum(long[] values) {
+            long sum = 0;
+            for(long value : values) sum += value;
+            return sum;
+        }
+    }
+}
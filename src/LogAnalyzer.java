@@ -0,0 +1,580 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+
+/**
+ * Reports on the history in internet log files: availability, MTBF / MTTR, how long the outages lasted,
+ * when in the week they happen, and the slow responses.
+ * <p>
+ * Usage: {@code java -cp internet-tester.jar LogAnalyzer <internet log file or folder>...}<br/>
+ * A folder stands for all the internet_log files in it. Every file is reported as soon as it is read.
+ * <p>
+ * A file is memory mapped in chunks that are parsed in parallel on the common fork-join pool. A chunk starts
+ * at the first line that starts inside it, and parses every line that starts inside it, even past its end.
+ * Each chunk counts the slow responses, and keeps the lines that matter for outages in order
+ * (started logging, lost and found connection), which are few. The outages are then put together
+ * by walking those lines of all the chunks in order.
+ * <p>
+ * Times are taken as written in the logs, in local time, so outages across a daylight saving change are off by the change.
+ * The time the program wasn't running doesn't count: it ends at the last line before a "Started logging" line.
+ */
+public class LogAnalyzer {
+
+    private static final int CHUNK_SIZE = 32 * 1024 * 1024;
+    private static final int MAX_LINE_LENGTH = 64 * 1024; // lines past the end of a chunk are read up to this length
+    private static final long[] DURATION_BOUNDS = {10, 30, 60, 5 * 60, 15 * 60, 60 * 60, 6 * 60 * 60}; // in seconds
+    private static final String[] DURATION_NAMES = {"< 10 s", "10-30 s", "30-60 s", "1-5 min", "5-15 min", "15-60 min", "1-6 hours", "> 6 hours"};
+    private static final String[] DAYS = {"Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"};
+
+    private static final byte[] LOST = ascii("Lost connection");
+    private static final byte[] FOUND = ascii("Found connection after ");
+    private static final byte[] STARTED = ascii("Started logging connection to ");
+    private static final byte[] TOOK = ascii(" took ");
+    private static final byte[] RESPOND = ascii(" ms to respond");
+
+    /**
+     * A line that makes up the outages
+     * @param previous the time of the timestamped line before it, or Long.MIN_VALUE for the first line of the file
+     * @param duration of the outage a "Found connection" line tells, -1 for the other lines
+     */
+    private record Event(Type type, long time, long previous, long duration) {
+        enum Type { STARTED, LOST, FOUND }
+    }
+
+    /**
+     * What a chunk (and a merge of chunks) found. Times are seconds since 1970 in local time
+     */
+    static class Part {
+        final List<Event> events = new ArrayList<>();
+        final AddressCounts slowByAddress = new AddressCounts();
+        final long[] slowByHour = new long[24];
+        long lines;
+        long firstTime = Long.MIN_VALUE;
+        long lastTime = Long.MIN_VALUE;
+        // the date of the last timestamp, most lines have the same date as the line before
+        long lastDate;
+        short lastYear;
+        long lastDays = Long.MIN_VALUE;
+
+        Part merge(Part next) {
+            for(Event event : next.events){
+                // only the first lines of the next part can be missing the line before them, which is in this part
+                if(event.previous() == Long.MIN_VALUE) event = new Event(event.type(), event.time(), lastTime, event.duration());
+                events.add(event);
+            }
+            next.slowByAddress.toMap().forEach(slowByAddress::add);
+            for(int h = 0; h < 24; h++) slowByHour[h] += next.slowByHour[h];
+            lines += next.lines;
+            if(firstTime == Long.MIN_VALUE) firstTime = next.firstTime;
+            if(next.lastTime != Long.MIN_VALUE) lastTime = next.lastTime;
+            return this;
+        }
+    }
+
+    /**
+     * Counts by address, looked up by the bytes of the address so counting a line doesn't make a string
+     */
+    static class AddressCounts {
+        private byte[][] keys = new byte[16][];
+        private long[] counts = new long[16];
+        private int size;
+
+        void add(MappedByteBuffer buffer, int start, int end) {
+            int hash = 1;
+            for(int i = start; i < end; i++) hash = 31 * hash + buffer.get(i);
+            int slot = find(hash, buffer, start, end);
+            if(keys[slot] == null){
+                byte[] key = new byte[end - start];
+                buffer.get(start, key);
+                keys[slot] = key;
+                if(++size * 2 > keys.length) grow();
+                slot = find(hash, buffer, start, end);
+            }
+            counts[slot]++;
+        }
+
+        void add(String address, long count) {
+            byte[] key = address.getBytes(StandardCharsets.UTF_8);
+            int slot = find(Arrays.hashCode(key), key);
+            if(keys[slot] == null){
+                keys[slot] = key;
+                if(++size * 2 > keys.length) grow();
+                slot = find(Arrays.hashCode(key), key);
+            }
+            counts[slot] += count;
+        }
+
+        Map<String,Long> toMap() {
+            Map<String,Long> map = new HashMap<>();
+            for(int i = 0; i < keys.length; i++){
+                if(keys[i] != null) map.put(new String(keys[i], StandardCharsets.UTF_8), counts[i]);
+            }
+            return map;
+        }
+
+        private int find(int hash, MappedByteBuffer buffer, int start, int end) {
+            int mask = keys.length - 1;
+            for(int slot = hash & mask; ; slot = (slot + 1) & mask){
+                byte[] key = keys[slot];
+                if(key == null || key.length == end - start && equals(buffer, start, key)) return slot;
+            }
+        }
+
+        private static boolean equals(MappedByteBuffer buffer, int start, byte[] key) {
+            for(int i = 0; i < key.length; i++){
+                if(buffer.get(start + i) != key[i]) return false;
+            }
+            return true;
+        }
+
+        private int find(int hash, byte[] bytes) {
+            int mask = keys.length - 1;
+            for(int slot = hash & mask; ; slot = (slot + 1) & mask){
+                if(keys[slot] == null || Arrays.equals(keys[slot], bytes)) return slot;
+            }
+        }
+
+        private void grow() {
+            byte[][] oldKeys = keys;
+            long[] oldCounts = counts;
+            keys = new byte[oldKeys.length * 2][];
+            counts = new long[oldKeys.length * 2];
+            for(int i = 0; i < oldKeys.length; i++){
+                if(oldKeys[i] == null) continue;
+                int slot = find(Arrays.hashCode(oldKeys[i]), oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    @SuppressWarnings("serial") // tasks only live in the pool, they are never serialized
+    private static class ChunkTask extends RecursiveTask<Part> {
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        private final long fileSize;
+
+        ChunkTask(FileChannel channel, long start, long end, long fileSize) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.fileSize = fileSize;
+        }
+
+        @Override
+        protected Part compute() {
+            if(end - start > CHUNK_SIZE){
+                long middle = start + (end - start) / 2;
+                ChunkTask right = new ChunkTask(channel, middle, end, fileSize);
+                right.fork();
+                Part left = new ChunkTask(channel, start, middle, fileSize).compute();
+                return left.merge(right.join());
+            }
+            try {
+                // from the byte before the chunk, to tell if the chunk starts with a whole line
+                long mapStart = start == 0 ? 0 : start - 1;
+                long mapEnd = Math.min(end + MAX_LINE_LENGTH, fileSize);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+                return parse(buffer, start != 0, (int) (end - mapStart));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length == 0){
+            System.out.println("usage: LogAnalyzer <internet log file or folder>...");
+            return;
+        }
+        List<Path> files = new ArrayList<>();
+        for(String arg : args){
+            Path path = Path.of(arg);
+            if(Files.isDirectory(path)){
+                try (Stream<Path> list = Files.list(path)) {
+                    list.filter(p -> p.getFileName().toString().startsWith("internet_log")).sorted().forEach(files::add);
+                }
+            } else {
+                files.add(path);
+            }
+        }
+        for(Path file : files){
+            long begin = System.nanoTime();
+            Part part = analyze(file);
+            report(System.out, file, part, Files.size(file), System.nanoTime() - begin);
+        }
+    }
+
+    static Part analyze(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size == 0) return new Part();
+            return ForkJoinPool.commonPool().invoke(new ChunkTask(channel, 0, size, size));
+        }
+    }
+
+    //========================================================================== |
+    //=============================== PARSING ================================== |
+    //========================================================================== |
+
+    /**
+     * Parses the lines that start in the first {@code length} bytes of the buffer
+     * @param skipFirstLine true if the buffer starts with the last byte of the chunk before.
+     *                      The line that byte belongs to is read by that chunk
+     */
+    private static Part parse(MappedByteBuffer buffer, boolean skipFirstLine, int length) {
+        Part part = new Part();
+        int limit = buffer.limit();
+        int position = 0;
+        if(skipFirstLine){
+            while(position < limit && buffer.get(position) != '\n') position++;
+            position++;
+        }
+        long lastTime = Long.MIN_VALUE;
+        while(position < length && position < limit){
+            int lineEnd = position;
+            while(lineEnd < limit && buffer.get(lineEnd) != '\n') lineEnd++;
+            part.lines++;
+            lastTime = parseLine(buffer, position, lineEnd, part, lastTime);
+            position = lineEnd + 1;
+        }
+        part.lastTime = lastTime;
+        return part;
+    }
+
+    /**
+     * @return the time of the line, or lastTime if the line has none
+     */
+    private static long parseLine(MappedByteBuffer buffer, int start, int end, Part part, long lastTime) {
+        if(end > start && buffer.get(end - 1) == '\r') end--;
+        // [dd/MM/yyyy HH:mm:ss] message
+        if(end - start < 22 || buffer.get(start) != '[' || buffer.get(start + 20) != ']') return lastTime;
+        long time = parseTimestamp(buffer, start + 1, part);
+        if(time == Long.MIN_VALUE) return lastTime;
+        if(part.firstTime == Long.MIN_VALUE) part.firstTime = time;
+
+        int message = start + 22;
+        if(startsWith(buffer, message, end, LOST)){
+            part.events.add(new Event(Event.Type.LOST, time, lastTime, -1));
+        } else if(startsWith(buffer, message, end, FOUND)){
+            part.events.add(new Event(Event.Type.FOUND, time, lastTime, parseTimeDiff(buffer, message + FOUND.length, end)));
+        } else if(startsWith(buffer, message, end, STARTED)){
+            part.events.add(new Event(Event.Type.STARTED, time, lastTime, -1));
+        } else if(endsWith(buffer, message, end, RESPOND)){
+            // [time] address took N ms to respond
+            int took = indexOf(buffer, message, end, TOOK);
+            if(took != -1){
+                part.slowByAddress.add(buffer, message, took);
+                part.slowByHour[hourOf(time)]++;
+            }
+        }
+        return time;
+    }
+
+    /**
+     * Reads the format of {@link Main#getTimestamp}, like 07/03/2024 09:05:02
+     * @return seconds since 1970 as if the local time was UTC, or Long.MIN_VALUE if it isn't a timestamp
+     */
+    static long parseTimestamp(MappedByteBuffer buffer, int at, Part part) {
+        // "dd/MM/yy" and "yy", the date only needs reading when it changes
+        long date = buffer.getLong(at);
+        short year2 = buffer.getShort(at + 8);
+        long days;
+        if(date == part.lastDate && year2 == part.lastYear && part.lastDays != Long.MIN_VALUE){
+            days = part.lastDays;
+        } else {
+            int day = digits(buffer, at, 2);
+            int month = digits(buffer, at + 3, 2);
+            int year = digits(buffer, at + 6, 4);
+            if(day < 1 || month < 1 || month > 12 || year < 0) return Long.MIN_VALUE;
+            days = daysSinceEpoch(year, month, day);
+            part.lastDate = date;
+            part.lastYear = year2;
+            part.lastDays = days;
+        }
+        int hour = digits(buffer, at + 11, 2);
+        int minute = digits(buffer, at + 14, 2);
+        int second = digits(buffer, at + 17, 2);
+        if(hour < 0 || minute < 0 || second < 0) return Long.MIN_VALUE;
+        return days * 86_400 + hour * 3600L + minute * 60L + second;
+    }
+
+    /**
+     * Reads the format of {@code Main.getTimeDiff}, like "2 hours, 5 seconds". Nothing at all means less than a second
+     * @return the seconds, or -1 if it isn't in that format
+     */
+    static long parseTimeDiff(MappedByteBuffer buffer, int start, int end) {
+        long seconds = 0;
+        int position = start;
+        while(position < end){
+            long value = 0;
+            int digitsStart = position;
+            while(position < end && buffer.get(position) >= '0' && buffer.get(position) <= '9'){
+                value = value * 10 + (buffer.get(position) - '0');
+                position++;
+            }
+            if(position == digitsStart || position == end || buffer.get(position) != ' ') return -1;
+            position++;
+            byte unit = position < end ? buffer.get(position) : 0;
+            if(unit == 'h') seconds += value * 3600;
+            else if(unit == 'm') seconds += value * 60;
+            else if(unit == 's') seconds += value;
+            else return -1;
+            while(position < end && buffer.get(position) != ',') position++;
+            position += 2; // ", "
+        }
+        return seconds;
+    }
+
+    private static int digits(MappedByteBuffer buffer, int at, int count) {
+        int value = 0;
+        for(int i = at; i < at + count; i++){
+            int digit = buffer.get(i) - '0';
+            if(digit < 0 || digit > 9) return -1;
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Days from 1970-01-01 in the proleptic Gregorian calendar, the same as LocalDate.toEpochDay
+     */
+    private static long daysSinceEpoch(int year, int month, int day) {
+        // counts the years from March, so the leap day is the last day of the year
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097L + dayOfEra - 719_468;
+    }
+
+    private static int hourOf(long time) {
+        return Math.floorMod(time, 86_400) / 3600;
+    }
+
+    /**
+     * @return 0 for Monday
+     */
+    private static int dayOfWeekOf(long time) {
+        return Math.floorMod(Math.floorDiv(time, 86_400) + 3, 7); // 1970-01-01 was a Thursday
+    }
+
+    private static boolean startsWith(MappedByteBuffer buffer, int start, int end, byte[] prefix) {
+        if(end - start < prefix.length) return false;
+        for(int i = 0; i < prefix.length; i++){
+            if(buffer.get(start + i) != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean endsWith(MappedByteBuffer buffer, int start, int end, byte[] suffix) {
+        return end - start >= suffix.length && startsWith(buffer, end - suffix.length, end, suffix);
+    }
+
+    private static int indexOf(MappedByteBuffer buffer, int start, int end, byte[] text) {
+        for(int i = start; i + text.length <= end; i++){
+            if(startsWith(buffer, i, end, text)) return i;
+        }
+        return -1;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    //========================================================================== |
+    //=============================== REPORT =================================== |
+    //========================================================================== |
+
+    /**
+     * The outages put together from the events of all the chunks
+     */
+    static class History {
+        long monitoredSeconds;
+        int sessions;
+        int unfinished; // outages that were still going on when the program stopped
+        final List<long[]> outages = new ArrayList<>(); // {start, end}
+        final long[][] startsByDayAndHour = new long[7][24];
+        final long[] downtimeByHour = new long[24];
+
+        long downtimeSeconds() {
+            long total = 0;
+            for(long[] outage : outages) total += outage[1] - outage[0];
+            return total;
+        }
+    }
+
+    static History history(Part part) {
+        History history = new History();
+        long sessionStart = Long.MIN_VALUE;
+        long downSince = Long.MIN_VALUE;
+        for(Event event : part.events){
+            switch(event.type()){
+                case STARTED -> {
+                    if(sessionStart != Long.MIN_VALUE){
+                        // the program stopped at the last line before this one
+                        long stopped = event.previous() != Long.MIN_VALUE ? event.previous() : sessionStart;
+                        history.monitoredSeconds += Math.max(stopped - sessionStart, 0);
+                        if(downSince != Long.MIN_VALUE){
+                            addOutage(history, downSince, Math.max(stopped, downSince));
+                            history.unfinished++;
+                        }
+                    }
+                    downSince = Long.MIN_VALUE;
+                    sessionStart = event.time();
+                    history.sessions++;
+                }
+                case LOST -> {
+                    if(sessionStart == Long.MIN_VALUE){
+                        sessionStart = part.firstTime;
+                        history.sessions++;
+                    }
+                    if(downSince == Long.MIN_VALUE) downSince = event.time();
+                }
+                case FOUND -> {
+                    // without its "Lost connection" line, the start of the outage is known from its duration
+                    long start = downSince != Long.MIN_VALUE ? downSince : event.duration() >= 0 ? event.time() - event.duration() : Long.MIN_VALUE;
+                    if(start == Long.MIN_VALUE) continue;
+                    if(sessionStart == Long.MIN_VALUE){
+                        sessionStart = Math.min(part.firstTime, start);
+                        history.sessions++;
+                    }
+                    addOutage(history, start, Math.max(event.time(), start));
+                    downSince = Long.MIN_VALUE;
+                }
+            }
+        }
+        if(sessionStart != Long.MIN_VALUE){
+            history.monitoredSeconds += Math.max(part.lastTime - sessionStart, 0);
+            if(downSince != Long.MIN_VALUE){
+                addOutage(history, downSince, Math.max(part.lastTime, downSince));
+                history.unfinished++;
+            }
+        }
+        return history;
+    }
+
+    private static void addOutage(History history, long start, long end) {
+        history.outages.add(new long[]{start, end});
+        history.startsByDayAndHour[dayOfWeekOf(start)][hourOf(start)]++;
+        // split the downtime across the hours it covers
+        long time = start;
+        while(time < end){
+            long hourEnd = Math.floorDiv(time, 3600) * 3600 + 3600;
+            long until = Math.min(hourEnd, end);
+            history.downtimeByHour[hourOf(time)] += until - time;
+            time = until;
+        }
+    }
+
+    static void report(PrintStream out, Path file, Part part, long bytes, long elapsedNanos) {
+        History history = history(part);
+        double seconds = elapsedNanos / 1e9;
+        out.printf("%s%n  %,d lines, %.1f MB read in %.2f s (%.0f MB/s)%n", file.getFileName(), part.lines,
+                bytes / 1e6, seconds, bytes / 1e6 / Math.max(seconds, 1e-9));
+        if(part.firstTime == Long.MIN_VALUE){
+            out.printf("  No timestamped lines%n%n");
+            return;
+        }
+
+        long downtime = history.downtimeSeconds();
+        int outages = history.outages.size();
+        long monitored = Math.max(history.monitoredSeconds, downtime);
+        out.printf("  From           %s to %s%n", timestamp(part.firstTime), timestamp(part.lastTime));
+        out.printf("  Monitored      %s in %d sessions%n", duration(monitored), history.sessions);
+        out.printf("  Availability   %.4f %%%n", monitored == 0 ? 100.0 : 100.0 * (monitored - downtime) / monitored);
+        out.printf("  Outages        %d%s, %s in total%n", outages,
+                history.unfinished > 0 ? " (%d still going when the program stopped)".formatted(history.unfinished) : "", duration(downtime));
+        if(outages > 0){
+            out.printf("  MTBF           %s%n", duration((monitored - downtime) / outages));
+            out.printf("  MTTR           %s%n", duration(downtime / outages));
+
+            long[] durations = new long[outages];
+            long longestStart = 0;
+            long longest = -1;
+            for(int i = 0; i < outages; i++){
+                long[] outage = history.outages.get(i);
+                durations[i] = outage[1] - outage[0];
+                if(durations[i] > longest){
+                    longest = durations[i];
+                    longestStart = outage[0];
+                }
+            }
+            long[] buckets = new long[DURATION_BOUNDS.length + 1];
+            for(long d : durations){
+                int bucket = 0;
+                while(bucket < DURATION_BOUNDS.length && d >= DURATION_BOUNDS[bucket]) bucket++;
+                buckets[bucket]++;
+            }
+            Arrays.sort(durations);
+            out.printf("  Outage durations: median %s, p90 %s, longest %s (from %s)%n",
+                    duration(durations[outages / 2]), duration(durations[(int) (outages * 0.9)]),
+                    duration(durations[outages - 1]), timestamp(longestStart));
+            long most = Arrays.stream(buckets).max().getAsLong();
+            for(int b = 0; b < buckets.length; b++){
+                out.printf("    %-10s %8d  %s%n", DURATION_NAMES[b], buckets[b], "#".repeat((int) Math.ceil(40.0 * buckets[b] / most)));
+            }
+
+            out.printf("  Outages by the hour they started%n       ");
+            for(int h = 0; h < 24; h++) out.printf("%3d", h);
+            out.println();
+            for(int d = 0; d < 7; d++){
+                out.printf("    %s", DAYS[d]);
+                for(int h = 0; h < 24; h++){
+                    long count = history.startsByDayAndHour[d][h];
+                    out.print(count == 0 ? "  ." : count > 99 ? " 99" : "%3d".formatted(count));
+                }
+                out.println();
+            }
+            out.printf("  Downtime by hour of day%n");
+            long mostDowntime = Math.max(Arrays.stream(history.downtimeByHour).max().getAsLong(), 1);
+            for(int h = 0; h < 24; h++){
+                out.printf("    %02d:00 %14s  %s%n", h, duration(history.downtimeByHour[h]),
+                        "#".repeat((int) Math.ceil(40.0 * history.downtimeByHour[h] / mostDowntime)));
+            }
+        }
+
+        long slow = Arrays.stream(part.slowByHour).sum();
+        out.printf("  Slow responses %d%n", slow);
+        if(slow > 0){
+            part.slowByAddress.toMap().entrySet().stream()
+                    .sorted(Map.Entry.<String,Long>comparingByValue().reversed())
+                    .forEach(entry -> out.printf("    %-21s %d%n", entry.getKey(), entry.getValue()));
+            out.printf("    by hour of day:");
+            for(int h = 0; h < 24; h++) out.printf(" %02d:%d", h, part.slowByHour[h]);
+            out.println();
+        }
+        out.println();
+    }
+
+    private static String timestamp(long time) {
+        return Main.getTimestamp(LocalDateTime.ofEpochSecond(time, 0, ZoneOffset.UTC));
+    }
+
+    private static String duration(long seconds) {
+        if(seconds < 60) return seconds + " s";
+        long days = seconds / 86_400;
+        long hours = seconds % 86_400 / 3600;
+        long minutes = seconds % 3600 / 60;
+        if(days > 0) return "%d d %d h".formatted(days, hours);
+        if(hours > 0) return "%d h %d min".formatted(hours, minutes);
+        return "%d min %d s".formatted(minutes, seconds % 60);
+    }
+}
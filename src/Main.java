@@ -1,19 +1,27 @@
-
-import javax.sound.sampled.*;
 import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.*;
 import java.util.*;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
-@SuppressWarnings({"SynchronizeOnNonFinalField", "BooleanMethodIsAlwaysInverted", "BusyWait"})
 public class Main {
 
     // < CONSTANTS >
     private static final long SLEEP_TIME_BETWEEN_CONNECTION_CHECKS = 250;
     private static final long ONE_MINUTE = 1000 * 60;
     private static final long SLEEP_TIME_BETWEEN_ANIMATION_UPDATES = 250;
+    private static final long NIO_PROBE_INTERVAL = 1000; // same cadence as the OS ping
+    private static final long PROCESS_PROBE_INTERVAL = 1000; // the OS ping sends a request every second
+    private static final int PINGS_PER_PROCESS = 60;
+    private static final int LOG_QUEUE_CAPACITY = 30_000; // shared by all the log files
+    private static final long LOG_FLUSH_INTERVAL = 1000;
+    private static final int EVENT_RING_CAPACITY = 1 << 16;
+    private static final String HEADLESS_OPTION = "--headless";
+    private static final String HOME_VARIABLE = "INTERNET_TESTER_HOME"; // the folder of the logs and the config, instead of the jar's folder
     // < CONSTANTS />
 
     // < DEFAULTS >
@@ -21,11 +29,26 @@ public class Main {
     public static final String DEFAULT_DISCONNECT_PING_COUNT = "1";
     public static final String DEFAULT_CONNECT_PING_COUNT = "1";
     public static final String DEFAULT_MASTER_GAIN = "-24.0";
+    public static final String DEFAULT_ALERT_COMMAND = "off";
+    public static final String DEFAULT_ALERT_FILE = "off";
+    public static final String DEFAULT_ALERT_URL = "off";
+    public static final String DEFAULT_ALERT_RATE_LIMIT = "6";
     public static final String DEFAULT_ENABLE_DEBUG_LOG = "false";
     public static final String DEFAULT_LONG_RESPONSE_THRESHOLD = "1000";
+    public static final String DEFAULT_STATS_LOG_INTERVAL = "60";
+    public static final String DEFAULT_METRICS_ENDPOINT = "off";
+    public static final String DEFAULT_STATUS_DISPLAY = "auto";
+    public static final String DEFAULT_DISCONNECT_QUORUM = "all";
+    public static final String DEFAULT_ADAPTIVE_PROBING = "true";
+    public static final String DEFAULT_STABLE_PROBE_INTERVAL = "2000";
+    public static final String DEFAULT_PROBE_MODE = "process";
+    public static final String DEFAULT_USE_VIRTUAL_THREADS = "false";
+    public static final String DEFAULT_PING_DIALECT = "auto";
+    public static final String DEFAULT_ENABLE_SAMPLE_STORE = "false";
+    public static final String DEFAULT_INCIDENT_WINDOW = "10";
     public static final String DEFAULT_CONFIG_FILE = """
             # READ ME:
-            # Editing this config will take up to 60 seconds to take effect
+            # Changes to this config take effect as soon as the file is saved
             # There is no need to restart the program after changing these values
             
             # Deleting lines in this file will make the program use the default values for these settings
@@ -44,116 +67,231 @@ public class Main {
             # Volume of the pings (dB scale)
             master_gain: %s
             
+            # Other ways to be alerted when a connection is lost or found, 'off' to disable them:
+            #   alert_command - a command line to run with the shell (cmd /c on Windows, sh -c elsewhere), so quote paths
+            #                   with spaces, the details are in the INTERNET_TESTER_* environment variables
+            #   alert_file    - a file to append a line to
+            #   alert_url     - a URL to POST the details to as JSON, like http://127.0.0.1:8080/alerts
+            alert_command: %s
+            alert_file: %s
+            alert_url: %s
+            
+            # The most alerts (sounds included) per group in a minute, so a flapping connection doesn't flood you
+            # Changes beyond the limit are summed up in the next alert. Setting this value to 0 will disable the limit
+            alert_rate_limit: %s
+            
+            # How many of the addresses have to stop responding for the connection to count as lost:
+            #   all (default) or a number - with 3 addresses, 2 means one address going down on its own is ignored
+            disconnect_quorum: %s
+            
             # Enable debug logging or not
             # Warning: The debug log can get big after a long time
             enable_debug_log: %s
             
+            # Keep every probe result in a compact binary store (the 'samples' folder)
+            # Query it with: java -cp internet-tester.jar SampleQuery <samples folder> <address> "<from>" "<to>"
+            enable_sample_store: %s
+            
+            # How many minutes of probe results to keep in memory for every address. When the connection is lost or found
+            # or a response is slow, they are written to the 'incidents' folder with the results until a minute later
+            # Gives the details of every incident without the size of the debug log. Setting this value to 0 will disable it
+            incident_window: %s
+            
             # The threshold in milliseconds to alert of an unusually long response time
             # Setting this value to 0 will disable the alert
             long_response_threshold: %s
+            
+            # How often to write the latency statistics of every address to the internet log, in minutes
+            # Setting this value to 0 will disable it
+            stats_log_interval: %s
+            
+            # Serve the probe and outage metrics for Prometheus at http://<address>/metrics:
+            #   off (default), a port like 9464 (all network interfaces), or host:port like 127.0.0.1:9464
+            metrics_endpoint: %s
+            
+            # How the state of the addresses is shown on the console:
+            #   auto (default) - a status line for up to 3 addresses (or groups), a grid for more
+            #                    when the console understands ANSI escape codes (like Windows Terminal)
+            #   line           - a single status line
+            #   grid           - a cell per address with its state and median response time, only changed cells are redrawn.
+            #                    Uses the COLUMNS and LINES environment variables for the console size, if they are set
+            #   off            - only the messages, like when the program runs with --headless
+            status_display: %s
+            
+            # Probe a target rapidly with short timeouts as soon as it fails or slows down,
+            # and less often once it has been stable for a minute (icmp, tcp and nio probe modes)
+            adaptive_probing: %s
+            
+            # The longest time between probes of a stable target in milliseconds, used by adaptive probing
+            stable_probe_interval: %s
+            
+            # How the addresses are probed:
+            #   process - runs the OS ping command (default)
+            #   icmp    - sends ICMP echo requests from inside the program
+            #   tcp     - opens a TCP connection to the address (port 443, or use address:port)
+            #   nio     - like tcp, but all the addresses share a few threads (best for many addresses)
+            # Addresses given with a probe type are probed that way in every mode, on the threads of nio:
+            #   tcp://host:port, http://host/path (a HEAD request) and dns://server/name (a lookup of the name)
+            # Changing this value requires restarting the program
+            probe_mode: %s
+            
+            # The output format of the ping command, used by the 'process' probe mode:
+            #   auto, windows, linux or busybox
+            # Changing this value requires restarting the program
+            ping_dialect: %s
+            
+            # Run the address monitors on virtual threads instead of platform threads
+            # Recommended when monitoring thousands of addresses with the icmp or tcp probe modes. It saves nothing with
+            # the process mode: a thread waiting for the output of its ping process keeps an OS thread either way
+            # Changing this value requires restarting the program
+            use_virtual_threads: %s
             """.formatted(
             DEFAULT_TIMEOUT,
             DEFAULT_DISCONNECT_PING_COUNT,
             DEFAULT_CONNECT_PING_COUNT,
             DEFAULT_MASTER_GAIN,
+            DEFAULT_ALERT_COMMAND,
+            DEFAULT_ALERT_FILE,
+            DEFAULT_ALERT_URL,
+            DEFAULT_ALERT_RATE_LIMIT,
+            DEFAULT_DISCONNECT_QUORUM,
             DEFAULT_ENABLE_DEBUG_LOG,
-            DEFAULT_LONG_RESPONSE_THRESHOLD);
+            DEFAULT_ENABLE_SAMPLE_STORE,
+            DEFAULT_INCIDENT_WINDOW,
+            DEFAULT_LONG_RESPONSE_THRESHOLD,
+            DEFAULT_STATS_LOG_INTERVAL,
+            DEFAULT_METRICS_ENDPOINT,
+            DEFAULT_STATUS_DISPLAY,
+            DEFAULT_ADAPTIVE_PROBING,
+            DEFAULT_STABLE_PROBE_INTERVAL,
+            DEFAULT_PROBE_MODE,
+            DEFAULT_PING_DIALECT,
+            DEFAULT_USE_VIRTUAL_THREADS);
     // < DEFAULTS />
 
     // < GLOBAL VARIABLES >
-    private static Map<String, String> config;
-    private static Integer timeout;
-    private static Integer disconnect_ping_count;
-    private static int connect_ping_count;
-    private static float master_gain;
-    private static boolean enable_debug_log;
-    private static int long_response_threshold;
+    // the settings in use. Replaced as a whole when the config file changes,
+    // so read it once into a local variable to get a consistent set of values
+    private static volatile Config config;
+    private static Config fileConfig; // the last settings read from the file, including the ones waiting for a restart
+    private static ConfigWatcher configWatcher;
+    private static MetricsServer metricsServer;
+    private static AlertDispatcher alerts; // plays the sounds and delivers the other alerts on its own thread
+    private static AlertSinks.Audio audioAlerts; // made once, loads the sounds on the first alert
     // < GLOBAL VARIABLES />
 
     // < THREADS RELATED >
     private static Thread[] workerThreads;
     private static PingEndPoint[] pingEndPoints;
-    private static Exception[] workerThreadExceptions;
-    private static boolean[] addressStatus;
+    private static TargetSupervisor[] supervisors; // restarts an address that failed on its own
+    private static MonitorGroup[] groups;
+    private static MonitorGroup[] targetGroups; // the group of every address
+    private static LatencyStats[] latencyStats;
+    private static AdaptiveSchedule[] schedules;
+    private static EventRing events; // the worker threads report to the main thread through this
     private volatile static boolean running;
     // < THREADS RELATED />
 
+    // < NIO MODE >
+    private static SelectorProber selectorProber;
+    private static int[] consecutiveFailures;
+    private static long[] timesOfFailure;
+    private static String[] firstFailureOutputs;
+    // < NIO MODE />
+
     // < LOCKS >
-    private static Object timeOfDisconnectionLock;
-    private static Object debugLogLock;
-    private static Object errorLogLock;
-    private static Object internetLogLock;
-    private static Semaphore printQueueLock;
+    // the internet log lock can wait for room in the log queue, so it is not a monitor.
+    // a virtual thread blocked inside a synchronized block pins its carrier thread
+    private static final ReentrantLock internetLogLock = new ReentrantLock();
     // < LOCKS />
 
+    // < LOGS >
+    private static AsyncLogWriter logWriter; // writes the logs of every group
+    private static AsyncLogWriter.Log errorLog;
+    private static SampleStore sampleStore;
+    // < LOGS />
+
     // < GENERAL APPLICATION DATA >
     private static String[] addresses;
     private static char symbol = '|';
-    private static Clip clip;
-    private static AtomicInteger disconnectedCounter;
-    private static AtomicBoolean connected;
-    private static String lastMsg;
-    private static LocalDateTime timeOfDisconnection;
-    private static LocalDateTime mainThreadTimeOfDisconnection;
-    private static List<String> printQueue;
-    private static boolean firstConfigRead;
+    private static StatusDisplay statusDisplay; // only used by the main thread
+    private static boolean redrawStatusLine;
+    private static boolean headless; // no status on the console, no sounds and no waiting for enter. For running as a service
+    private static String folderPath;
+    private static volatile boolean shuttingDown;
     // < GENERAL APPLICATION DATA />
 
     @SuppressWarnings("InfiniteLoopStatement")
     public static void main(String[] args)  {
 
         // argument check
+        args = readOptions(args);
         if(args.length == 0) {
-            System.out.println("Error: no arguments received");
-            System.out.println("  see \"instructions.txt\"");
-            System.out.println("\n\npress enter to exit");
-            Scanner s = new Scanner(System.in);
-            s.nextLine();
+            exitWithError("Error: no arguments received");
+            return;
+        }
+        try {
+            MonitorGroup.parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            exitWithError("Error: "+e.getMessage());
             return;
         }
 
+        // log the end and flush the logs when the program is closed, by the console or by SIGTERM / SIGINT
+        Runtime.getRuntime().addShutdownHook(new Thread(Main::shutdown));
+        // the alerts outlive a restart, so a restart doesn't lose an alert that is waiting
+        startAlerts();
+
         while(true){
             try{
                 // ==== initialize basic fields =====
-                addresses = args;
+                initGroups(args);
+                openLogs();
                 workerThreads = new Thread[addresses.length];
-                addressStatus = new boolean[addresses.length];
                 pingEndPoints = new PingEndPoint[addresses.length];
-                workerThreadExceptions = new Exception[addresses.length];
-                Arrays.fill(addressStatus,true);
-                clip = AudioSystem.getClip();
-                disconnectedCounter = new AtomicInteger(0);
-                connected = new AtomicBoolean(true);
-                lastMsg = "";
-                timeOfDisconnectionLock = new Object();
-                debugLogLock = new Object();
-                errorLogLock = new Object();
-                internetLogLock = new Object();
-                printQueue = new LinkedList<>();
-                printQueueLock = new Semaphore(1,true);
-                firstConfigRead = true;
+                supervisors = new TargetSupervisor[addresses.length];
+                for(int i = 0; i < addresses.length; i++) supervisors[i] = new TargetSupervisor();
+                selectorProber = null;
+                latencyStats = new LatencyStats[addresses.length];
+                for(int i = 0; i < addresses.length; i++) latencyStats[i] = new LatencyStats();
+                statusDisplay = null;
+                events = new EventRing(EVENT_RING_CAPACITY);
+                config = null;
+                fileConfig = null;
                 // ==================================
 
-                readConfig();
+                reloadConfig();
                 initWorkerThreads();
 
                 // print start message
                 String timestamp = getTimestamp(LocalDateTime.now());
-                String message = "\n[%s] Started logging connection to %s with timeout of %s".formatted(timestamp, getAddressesStamp() ,timeout);
-                logInternet(message);
+                for(MonitorGroup group : groups){
+                    String message = "\n[%s] Started logging connection to %s with timeout of %s".formatted(timestamp, group.getAddressesStamp() ,config.timeout());
+                    logInternet(group, message);
+                }
 
                 // start
                 running = true;
-                for(Thread t : workerThreads) t.start();
+                if(selectorProber != null) selectorProber.start();
+                for(Thread t : workerThreads){
+                    if(t != null) t.start(); // null for the addresses of the selector prober
+                }
+                startConfigWatcher();
+                startMetricsServer();
                 mainLoop();
 
             } catch (Exception e){
+                // the logs are closed under the main loop when the program is closed
+                if(shuttingDown) return;
                 String timestamp = getTimestamp(LocalDateTime.now());
+                stopConfigWatcher();
+                stopMetricsServer();
                 stopWorkerThreads();
                 String errorMessage = "[%s]\n%s".formatted(timestamp,stackTraceToString(e));
                 try {
                     logError(errorMessage);
                 } catch (IOException ignored) {}
+                closeLogs();
                 System.out.println();
                 System.out.println("\n"+errorMessage);
                 System.out.println("Restarting...\n\n\n\n");
@@ -165,99 +303,159 @@ public class Main {
     //========================================================================== |
     //============================ MAIN LOOPS ================================== |
     //========================================================================== |
+    /**
+     * Sleeps until either an event comes from the probes or a timer is due,
+     * so a change in the connection is handled as soon as it is reported
+     */
     @SuppressWarnings("InfiniteLoopStatement")
-    private static void mainLoop() throws IOException {
-        long nextConnectionCheckTime = System.currentTimeMillis();
+    private static void mainLoop() throws Exception {
         long nextAnimationTime = System.currentTimeMillis();
         long nextReadConfigTime = System.currentTimeMillis() + ONE_MINUTE;
-        long nextWakeUp;
+        long nextStatsLogTime = System.currentTimeMillis() + config.statsLogInterval() * ONE_MINUTE;
         while(true){
 
-            // connection check
-            boolean statusChanged = false;
-            if(System.currentTimeMillis() >= nextConnectionCheckTime){
-                statusChanged = checkConnectionStatus();
-                nextConnectionCheckTime = System.currentTimeMillis() + SLEEP_TIME_BETWEEN_CONNECTION_CHECKS;
-            }
+            int statsLogInterval = config.statsLogInterval();
+            // without a status display there is nothing to animate, the loop sleeps until the next event or deadline
+            boolean animated = getStatusDisplay().getMode() != StatusDisplay.Mode.OFF;
+            long nextWakeUp = animated ? Math.min(nextAnimationTime, nextReadConfigTime) : nextReadConfigTime;
+            if(statsLogInterval > 0) nextWakeUp = Math.min(nextWakeUp, nextStatsLogTime);
+            long waitMillis = Math.max(nextWakeUp - System.currentTimeMillis(), 0);
+            events.drain(Main::onEvent, waitMillis * 1_000_000);
 
             // monitoring animation
-            if(System.currentTimeMillis() >= nextAnimationTime || statusChanged){
-                animateMonitoring();
+            if(animated && System.currentTimeMillis() >= nextAnimationTime){
+                redrawStatusLine = true;
                 nextAnimationTime = System.currentTimeMillis() + SLEEP_TIME_BETWEEN_ANIMATION_UPDATES;
             }
+            if(redrawStatusLine){
+                animateMonitoring();
+                redrawStatusLine = false;
+            }
 
-            // check for changes in the config file
+            // the config watcher applies changes right away,
+            // this is for file systems that don't report changes
             if(System.currentTimeMillis() >= nextReadConfigTime){
-                readConfig();
+                tryReloadConfig();
+                checkConnectionStatus(); // a new quorum can change the connection of a group without an address changing
                 nextReadConfigTime = System.currentTimeMillis() + ONE_MINUTE;
             }
 
-            checkForExceptionInWorkerThreads();
+            // latency statistics
+            if(statsLogInterval > 0 && System.currentTimeMillis() >= nextStatsLogTime){
+                logLatencyStats(statsLogInterval);
+                nextStatsLogTime = System.currentTimeMillis() + statsLogInterval * ONE_MINUTE;
+            }
+        }
+    }
 
-            nextWakeUp = Math.min(nextAnimationTime,nextConnectionCheckTime);
-            try{
-                Thread.sleep(Math.max(nextWakeUp - System.currentTimeMillis(),0));
-            } catch(InterruptedException ignored){}
+    private static void onEvent(EventRing.Event event) throws IOException {
+        switch(event.type()){
+            case PROBE_RESULT -> recordProbeResult(event.index(), event.time(), (ProbeResult) event.payload());
+            case TARGET_DOWN, TARGET_UP -> {
+                checkConnectionStatus(targetGroups[event.index()]);
+                redrawStatusLine = true;
+            }
+            case LOG_LINE -> {
+                getStatusDisplay().printMessage(event.payload());
+                redrawStatusLine = true;
+            }
+            case INTERNET_LOG -> logInternet(targetGroups[event.index()], (String) event.payload());
+            case CONFIG_RELOADED -> {
+                checkConnectionStatus();
+                redrawStatusLine = true;
+            }
+            case PROBER_STOPPED -> checkForExceptionInWorkerThreads();
         }
     }
 
     private static void workerThreadMainLoop(int threadIndex) {
         while(running){
             try{
-                LocalDateTime now = LocalDateTime.now();
-                if (!checkPing(threadIndex)){
+                // an address that was restarted in the middle of an outage goes on waiting for the connection
+                if(targetGroups[threadIndex].isDown(threadIndex)) waitForConnection(threadIndex);
 
-                    synchronized (timeOfDisconnectionLock){
-                        if(timeOfDisconnection == null || timeOfDisconnection.isAfter(now)){
-                            timeOfDisconnection = now;
-                        }
-                    }
+                LocalDateTime now = LocalDateTime.now();
+                long failureStart = System.currentTimeMillis();
+                if (running && !checkPing(threadIndex)){
 
                     if(! checkPing(threadIndex)){
-                        addressStatus[threadIndex] = false;
-                        addToDisconnectedCounter(1);
-
-                        // wait for connection to return
-                        while(running && !checkPing(threadIndex)){
-                            try{
-                                Thread.sleep(SLEEP_TIME_BETWEEN_CONNECTION_CHECKS);
-                            } catch (InterruptedException ignored) {}
-                        }
-
-                        addressStatus[threadIndex] = true;
-                        addToDisconnectedCounter(-1);
+                        schedules[threadIndex].onDisconnected(System.nanoTime());
+                        markDown(threadIndex, failureStart);
+                        events.publish(EventRing.Type.TARGET_DOWN, threadIndex, now, null);
+                        waitForConnection(threadIndex);
                     } else {
-                        logInternet("[%s] %s %s".formatted(getTimestamp(now),
+                        logInternet(targetGroups[threadIndex], "[%s] %s %s".formatted(getTimestamp(now),
                                 addresses[threadIndex],
                                 pingEndPoints[threadIndex].getPreviousOutput()));
                     }
-
-                    // reset the time of disconnection if only this thread got disconnected
-                    synchronized (timeOfDisconnectionLock){
-                        if(connected.get()){
-                            if(timeOfDisconnection == now) { // prevent unexpected interactions with other threads
-                                timeOfDisconnection = null;
-                            }
-                        }
-                    }
                 }
                 if(running){
                     try {
-                        Thread.sleep(SLEEP_TIME_BETWEEN_CONNECTION_CHECKS);
+                        Thread.sleep(schedules[threadIndex].getDelay());
                     } catch (InterruptedException ignored) {}
                 }
             } catch (Exception e){
-                LocalDateTime now = LocalDateTime.now();
-                try {
-                    logError("[%s]\n%s".formatted(getTimestamp(now),e.toString()));
-                } catch (IOException ignored) {}
-                // Tell the main thread of the exception
-                workerThreadExceptions[threadIndex] = e;
-                throw new RuntimeException(e);
+                restartTarget(threadIndex, e);
             }
         }
     }
 
+    private static void waitForConnection(int threadIndex) throws IOException {
+        while(running && !checkPing(threadIndex)){
+            try{
+                Thread.sleep(schedules[threadIndex].getDelay());
+            } catch (InterruptedException ignored) {}
+        }
+        // the program is stopping, which doesn't mean the connection is back
+        if(! running) return;
+
+        markUp(threadIndex, System.currentTimeMillis());
+        events.publish(EventRing.Type.TARGET_UP, threadIndex, LocalDateTime.now(), null);
+    }
+
+    /**
+     * Starts probing a single address over after it failed with an exception, see {@link TargetSupervisor}.
+     * Runs on the address's own thread, which waits out the back-off while the other addresses go on as usual.
+     * The address keeps its state in the group, so an outage in progress goes on after the restart
+     */
+    private static void restartTarget(int threadIndex, Exception e) {
+        long backoff = supervisors[threadIndex].onFailure(System.nanoTime());
+        onTargetFailure(threadIndex, e, backoff);
+        try {
+            pingEndPoints[threadIndex].stop();
+        } catch (RuntimeException ignored) {} // it wasn't running
+
+        long restartTime = System.nanoTime() + backoff;
+        while(running && System.nanoTime() < restartTime){
+            try {
+                Thread.sleep(Math.min(TimeUnit.NANOSECONDS.toMillis(restartTime - System.nanoTime()) + 1, SLEEP_TIME_BETWEEN_CONNECTION_CHECKS));
+            } catch (InterruptedException ignored) {}
+        }
+        pingEndPoints[threadIndex] = newPingEndPoint(addresses[threadIndex]);
+        supervisors[threadIndex].onRestarted(System.nanoTime());
+    }
+
+    /**
+     * Called on the thread that probes the address
+     */
+    private static void onTargetFailure(int index, Exception e, long backoff) {
+        LocalDateTime now = LocalDateTime.now();
+        String message = "Probing %s failed, starting it again in %d ms (%d restarts so far): %s".formatted(
+                addresses[index], TimeUnit.NANOSECONDS.toMillis(backoff), supervisors[index].getRestarts(), e);
+        print(targetGroups[index].label(message));
+        try {
+            logError("[%s] %s\n%s".formatted(getTimestamp(now), message, stackTraceToString(e)));
+        } catch (IOException ignored) {}
+
+        PipelineEvents.TargetRestart event = PipelineEvents.isRecorderInitialized() ? new PipelineEvents.TargetRestart() : null;
+        if(event != null && event.shouldCommit()){
+            event.address = addresses[index];
+            event.exception = e.toString();
+            event.backoff = backoff;
+            event.commit();
+        }
+    }
+
 
 
     //========================================================================== |
@@ -271,115 +469,208 @@ public class Main {
 
         LocalDateTime now = LocalDateTime.now();
 
-        // get output
-        String output = "";
-        do{
-            output = pingEndPoints[threadIndex].readOutputLine();
-        } while(output.isEmpty());
-
-        long delay = 0;
-        if(! notConnected(output)){
-            delay = extractDelay(output);
+        int timeout = schedules[threadIndex].beginProbe(System.nanoTime(), config.timeout());
+        PipelineEvents.Probe event = PipelineEvents.isRecorderInitialized() ? new PipelineEvents.Probe() : null;
+        if(event != null) event.begin();
+        long start = System.nanoTime();
+        ProbeResult result = pingEndPoints[threadIndex].probe(timeout);
+        long elapsed = System.nanoTime() - start;
+
+        // a ping process answers on its own cadence, so the wait for its next line isn't overhead
+        long overhead = -1;
+        if(config.probeMode() != ProbeMode.PROCESS && result.getRttNanos() >= 0){
+            overhead = Math.max(elapsed - result.getRttNanos(), 0);
+            SelfOverhead.record(SelfOverhead.Stage.PROBE, overhead);
         }
-        if(delay == -1) {
+        if(event != null && event.shouldCommit()){
+            event.address = addresses[threadIndex];
+            event.connected = result.isConnected();
+            event.rtt = result.getRttNanos();
+            event.overhead = overhead;
+            event.connect = result.getConnectNanos();
+            event.firstByte = result.getFirstByteNanos();
+            event.commit();
+        }
+
+        return handleProbeResult(threadIndex, now, result);
+    }
+
+    /**
+     * The part of a probe result the probing thread needs right away.
+     * The rest is recorded by the main thread, see {@link #recordProbeResult}
+     */
+    private static boolean handleProbeResult(int threadIndex, LocalDateTime now, ProbeResult result) {
+        schedules[threadIndex].onResult(System.nanoTime(), result.isConnected(), result.getRttNanos());
+        events.publish(EventRing.Type.PROBE_RESULT, threadIndex, now, result);
+        return result.isConnected();
+    }
+
+    private static void recordProbeResult(int threadIndex, LocalDateTime now, ProbeResult result) throws IOException {
+        MonitorGroup group = targetGroups[threadIndex];
+        Config config = group.getConfig();
+
+        latencyStats[threadIndex].record(! result.isConnected(), result.getRttNanos());
+        group.getIncidents().record(threadIndex, System.currentTimeMillis(), result);
+
+        long delay = result.getRttMillis();
+        if(result.isConnected() && delay == -1) {
             String message = "Error: could not extract delay from output";
             logError("[%s] %s".formatted(getTimestamp(now),message));
         }
         // alert if response time passed the threshold
-        if(long_response_threshold > 0
-                && connected.get()
-                && ! notConnected(output)
-                && delay >= long_response_threshold){
+        if(config.longResponseThreshold() > 0
+                && group.getConnectivity().getState() != ConnectivityState.State.DOWN
+                && result.isConnected()
+                && delay >= config.longResponseThreshold()){
             String timeStamp = getTimestamp(now);
             String message = "[%s] %s took %s ms to respond".formatted(timeStamp, addresses[threadIndex], delay);
-            logInternet(message);
+            logInternet(group, message);
+            group.getIncidents().onIncident(System.currentTimeMillis(), message, false);
         }
 
-        if (enable_debug_log){
-            String debugMsg = "[%s]\n%s\n".formatted(getTimestamp(now), output);
-            logDebug(debugMsg);
+        if (config.enableDebugLog()){
+            String debugMsg = "[%s]\n%s\n".formatted(getTimestamp(now), result.getOutput());
+            group.getDebugLog().write(debugMsg);
         }
 
-        return !notConnected(output);
+        if (Main.config.enableSampleStore() && sampleStore != null){
+            try {
+                sampleStore.append(addresses[threadIndex], result);
+            } catch (IOException | IllegalStateException e) {
+                disableSampleStore(now, e);
+            }
+        }
     }
 
-    private static boolean checkConnectionStatus() throws IOException {
+    /**
+     * A sample store that can't be written stops recording samples, the monitor itself goes on
+     */
+    private static void disableSampleStore(LocalDateTime now, Exception e) throws IOException {
+        String message = "Could not write to the sample store, samples are not recorded until the next start: " + e;
+        print(message);
+        logError("[%s] %s\n%s".formatted(getTimestamp(now), message, stackTraceToString(e)));
+        try {
+            sampleStore.close();
+        } catch (IOException ignored) {}
+        sampleStore = null;
+    }
 
-        // catch illegal value of counter and multi-threading issues
-        if(disconnectedCounter.get() < 0 || disconnectedCounter.get() > addresses.length){
-            throw new IllegalStateException("disconnected counter illegal count: "+disconnectedCounter.get());
+    /**
+     * The counterpart of {@link #workerThreadMainLoop(int)} for the addresses of the selector prober.<br/>
+     * Called from the selector threads with every probe result, and keeps the same rules:
+     * a single failure is only logged, and a second failure in a row
+     * marks the address as disconnected until it responds again.
+     */
+    private static void onProbeResult(int index, ProbeResult result) {
+        LocalDateTime now = LocalDateTime.now();
+        PipelineEvents.Probe event = PipelineEvents.isRecorderInitialized() ? new PipelineEvents.Probe() : null;
+        if(event != null && event.shouldCommit()){
+            event.address = addresses[index];
+            event.connected = result.isConnected();
+            event.rtt = result.getRttNanos();
+            event.overhead = -1;
+            event.connect = result.getConnectNanos();
+            event.firstByte = result.getFirstByteNanos();
+            event.commit();
         }
+        if(! handleProbeResult(index, now, result)){
+            consecutiveFailures[index]++;
+            if(consecutiveFailures[index] == 1){
+                timesOfFailure[index] = System.currentTimeMillis();
+                firstFailureOutputs[index] = result.getOutput();
+            } else if(consecutiveFailures[index] == 2){
+                schedules[index].onDisconnected(System.nanoTime());
+                markDown(index, timesOfFailure[index]);
+                events.publish(EventRing.Type.TARGET_DOWN, index, now, null);
+            }
+        } else if(consecutiveFailures[index] > 0){
+            if(consecutiveFailures[index] == 1){
+                // the log can make the caller wait, and this is the selector thread of many addresses
+                events.publish(EventRing.Type.INTERNET_LOG, index, now, "[%s] %s %s".formatted(
+                        getTimestamp(toLocalDateTime(timesOfFailure[index])),
+                        addresses[index],
+                        firstFailureOutputs[index]));
+            } else {
+                markUp(index, System.currentTimeMillis());
+                events.publish(EventRing.Type.TARGET_UP, index, now, null);
+            }
+            consecutiveFailures[index] = 0;
+        }
+    }
 
-        boolean stateChanged = false;
-
-        if (disconnectedCounter.get() == addresses.length) {
-            if (connected.get()) {
-
-                // edge case but prevents race conditions and null pointer exceptions
-                synchronized (timeOfDisconnectionLock){
-                    if(timeOfDisconnection == null){
-                        return stateChanged;
-                    } else {
-                        mainThreadTimeOfDisconnection = timeOfDisconnection;
-                    }
-                }
+    private static void markDown(int target, long failureStart) {
+        onTransition(target, targetGroups[target].markDown(target, failureStart), true);
+    }
 
-                connected.set(false);
+    private static void markUp(int target, long now) {
+        onTransition(target, targetGroups[target].markUp(target, now), false);
+    }
 
-                // log the disconnection
-                String timeStamp = getTimestamp(mainThreadTimeOfDisconnection);
-                String message = "[%s] Lost connection".formatted(timeStamp);
-                logInternet(message);
+    private static void onTransition(int target, ConnectivityState.Snapshot state, boolean addressDown) {
+        PipelineEvents.StateTransition event = PipelineEvents.isRecorderInitialized() ? new PipelineEvents.StateTransition() : null;
+        if(event != null && event.shouldCommit()){
+            event.group = targetGroups[target].getName();
+            event.address = addresses[target];
+            event.addressDown = addressDown;
+            event.groupState = state.getState().name();
+            event.downAddresses = state.getDownCount();
+            event.commit();
+        }
+    }
 
-                if (disconnect_ping_count > 0) playAudio("disconnect_ping.wav", disconnect_ping_count);
-                stateChanged = true; // signal that connection status changed
-            }
-        } else {
-            if(! connected.get()){
+    /**
+     * Logs the changes in the connection of every group since the last check
+     */
+    private static void checkConnectionStatus() throws IOException {
+        for(MonitorGroup group : groups){
+            checkConnectionStatus(group);
+        }
+    }
 
-                // get time of reconnection
-                LocalDateTime now = LocalDateTime.now();
-                String timestamp = getTimestamp(now);
-                String timeDiff = getTimeDiff(mainThreadTimeOfDisconnection,now);
+    private static void checkConnectionStatus(MonitorGroup group) throws IOException {
+        ConnectivityState.Snapshot state = group.getConnectivity().get();
+        ConnectivityState.Snapshot reported = group.getReportedState();
+        if(state == reported) return;
+        group.setReportedState(state);
+
+        boolean wasDown = reported.getState() == ConnectivityState.State.DOWN;
+        boolean isDown = state.getState() == ConnectivityState.State.DOWN;
+        if(state.getOutages() != reported.getOutages()){
+            // the connection went down since the last check, and maybe came back already
+            if(wasDown) logReconnection(group, reported.getDownSince(), state.getUpSince());
+            logDisconnection(group, state.getDownSince());
+            if(! isDown) logReconnection(group, state.getDownSince(), state.getUpSince());
+        } else if(wasDown && ! isDown){
+            logReconnection(group, state.getDownSince(), state.getUpSince());
+        }
+    }
 
-                // log the reconnection
-                String message = "[%s] Found connection after %s".formatted(timestamp,timeDiff);
-                logInternet(message);
+    private static void logDisconnection(MonitorGroup group, long downSince) throws IOException {
+        Config config = group.getConfig();
+        String timeStamp = getTimestamp(toLocalDateTime(downSince));
+        String message = "[%s] Lost connection".formatted(timeStamp);
+        logInternet(group, message);
+        group.getIncidents().onIncident(downSince, message, true);
 
-                if(connect_ping_count > 0) playAudio("connect_ping.wav",connect_ping_count);
-                connected.set(true);
-                synchronized (timeOfDisconnectionLock){
-                    timeOfDisconnection = null;
-                }
-                stateChanged = true; // signal that connection status changed
-            }
-        }
+        alerts.submit(new AlertDispatcher.Alert(group.getName(), false, downSince, message, config.disconnectPingCount(), config.masterGain()));
+    }
 
-        // this code fixes disconnection time skews from addresses that haven't responded in a while.
-        // if an address doesn't respond, it will mark the time of disconnection as the time
-        // that the address stopped responding, which could be a long time ago.
-        // if a long time passes but the other connections are fine
-        // it's safe to assume that it is a problem with the address and not with the connection.
-        // So we reset the time of disconnection.
-        if(addresses.length > 1){
-            synchronized (timeOfDisconnectionLock){
-                if(timeOfDisconnection != null){
-                    if(connected.get()) {
-                        LocalDateTime threshold = LocalDateTime.now().minusSeconds((long) Math.ceil(timeout / 1000.0) * 4 + 2);
-                        if(timeOfDisconnection.isBefore(threshold)){
-                            timeOfDisconnection = null;
-                        }
-                    }
-                }
-            }
-        }
+    private static void logReconnection(MonitorGroup group, long downSince, long upSince) throws IOException {
+        Config config = group.getConfig();
+        LocalDateTime timeOfReconnection = toLocalDateTime(upSince);
+        String timestamp = getTimestamp(timeOfReconnection);
+        String timeDiff = getTimeDiff(toLocalDateTime(downSince), timeOfReconnection);
 
+        String message = "[%s] Found connection after %s".formatted(timestamp,timeDiff);
+        logInternet(group, message);
+        group.getIncidents().onIncident(upSince, message, false);
 
-        return stateChanged;
+        alerts.submit(new AlertDispatcher.Alert(group.getName(), true, upSince, message, config.connectPingCount(), config.masterGain()));
     }
-    private static void readConfig() throws IOException {
 
-        config = new HashMap<>();
+    private static Map<String,String> readConfig() throws IOException {
+
+        Map<String,String> config = new HashMap<>();
 
         try (BufferedReader configFile = new BufferedReader(new FileReader(getFolderPath()+"config.txt"))) {
             String line;
@@ -387,7 +678,8 @@ public class Main {
                 if(line.contains(":") && line.charAt(0) != '#'){
                     //break the lines into key & value
                     String key = line.substring(0,line.indexOf(":")).strip().toLowerCase();
-                    String value = line.substring((line.indexOf(":")+1)).strip().toLowerCase();
+                    String value = line.substring((line.indexOf(":")+1)).strip();
+                    if(! Config.CASE_SENSITIVE.contains(key)) value = value.toLowerCase();
                     config.put(key,value);
                 }
             }
@@ -396,88 +688,356 @@ public class Main {
             try(BufferedWriter writer = getWriter("config.txt")){
                 writer.write(DEFAULT_CONFIG_FILE);
             };
-            readConfig();
+            return readConfig();
         }
-        initGlobalVariables();
+        return config;
     }
 
-    private static void animateMonitoring() {
-        checkPrintQueue();
-        StringBuilder msg = new StringBuilder("\rMonitoring [ " + symbol + " ]");
-        for (int i = 0; i< addresses.length;i++){
-            msg.append(" - ").append(addresses[i]).append(" [ %s ]".formatted(addressStatus[i] ? "OK" : "XX"));
+    private static synchronized void reloadConfig() throws IOException {
+        PipelineEvents.ConfigReload event = PipelineEvents.isRecorderInitialized() ? new PipelineEvents.ConfigReload() : null;
+        if(event != null) event.begin();
+        long start = System.nanoTime();
+        List<String> changed = applyConfigFile();
+        SelfOverhead.record(SelfOverhead.Stage.CONFIG_RELOAD, System.nanoTime() - start);
+        if(event != null && event.shouldCommit()){
+            event.changed = String.join(", ", changed);
+            event.commit();
         }
-        System.out.print(msg);
-        lastMsg = msg.toString();
-        symbol = getNextSymbol(symbol);
     }
 
-    private static void checkPrintQueue() {
-        if(! printQueue.isEmpty()){
+    /**
+     * Reads the config file and applies only the settings that changed since the last read.
+     * The new settings are published as a single snapshot, so no thread sees half of a change
+     * @return the settings that changed
+     */
+    private static List<String> applyConfigFile() throws IOException {
+        Map<String,String> values = readConfig();
+        Config newFileConfig = Config.parse(values);
+        // read every group's settings before applying anything, so a mistake keeps all the current settings
+        Config[] groupConfigs = new Config[groups.length];
+        for(int i = 0; i < groups.length; i++) groupConfigs[i] = Config.parse(values, groups[i].getName());
+
+        boolean firstRead = fileConfig == null;
+        List<String> changed = fileConfig == null ? new ArrayList<>() : fileConfig.diff(newFileConfig);
+        if(fileConfig == null || ! changed.isEmpty()){
+            config = fileConfig == null ? newFileConfig : newFileConfig.withRestartSettingsOf(config);
+        }
+        fileConfig = newFileConfig;
+        List<String> groupChanges = new ArrayList<>();
+        for(int i = 0; i < groups.length; i++){
+            Config old = groups[i].getConfig();
+            Config updated = groupConfigs[i].withRestartSettingsOf(config);
+            if(old != null){
+                for(String key : old.diff(updated)){
+                    if(! changed.contains(key)) groupChanges.add(groups[i].getName() + "." + key);
+                }
+            }
+            groups[i].applyConfig(updated);
+        }
+        if(firstRead || changed.stream().anyMatch(key -> key.startsWith("alert_"))){
+            updateAlerts();
+        }
+        if(changed.isEmpty()) return groupChanges;
+
+        String timestamp = getTimestamp(LocalDateTime.now());
+        for(String key : changed){
+            if(Config.RESTART_REQUIRED.contains(key)){
+                String message = "%s changed to %s, restart the program to apply it".formatted(key, newFileConfig.get(key));
+                logInternet("[%s] %s".formatted(timestamp,message));
+            }
+        }
+        if(changed.contains("adaptive_probing") || changed.contains("stable_probe_interval")){
+            updateSchedules();
+        }
+        if(changed.contains("metrics_endpoint") && running){
+            stopMetricsServer();
+            startMetricsServer();
+        }
+        if(changed.contains("timeout")){
+            updatePingEndPoints();
+            String message = "Timeout changed to "+config.timeout()+" milliseconds";
+            logInternet("[%s] %s".formatted(timestamp,message));
+        }
+        changed.addAll(groupChanges);
+        return changed;
+    }
+
+    /**
+     * Reloads the config, but keeps the current settings if the file has a mistake
+     */
+    private static void tryReloadConfig() {
+        try {
+            reloadConfig();
+        } catch (IOException | RuntimeException e) {
+            String message = "Error in config.txt, keeping the current settings: "+e;
+            print(message);
             try {
-                printQueueLock.acquire();
-            } catch (InterruptedException ignored) {}
-            StringBuilder toPrint = new StringBuilder();
-            while(! printQueue.isEmpty()){
-                toPrint.append(printQueue.getFirst()).append("\n");
-                printQueue.removeFirst();
+                logError("[%s] %s".formatted(getTimestamp(LocalDateTime.now()),message));
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private static void startConfigWatcher() {
+        try {
+            configWatcher = new ConfigWatcher(Path.of(getFolderPath()+"config.txt"), () -> {
+                tryReloadConfig();
+                events.publish(EventRing.Type.CONFIG_RELOADED, -1, LocalDateTime.now(), null);
+            });
+        } catch (IOException | RuntimeException e) {
+            // changes are still picked up by the periodic read
+            configWatcher = null;
+            try {
+                logError("[%s] Could not watch the config file: %s".formatted(getTimestamp(LocalDateTime.now()),e));
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private static void stopConfigWatcher() {
+        if(configWatcher != null){
+            try {
+                configWatcher.close();
+            } catch (IOException ignored) {}
+            configWatcher = null;
+        }
+    }
+
+    /**
+     * Starts serving the metrics if the config asks for it. A port that can't be used is logged, and the program keeps going
+     */
+    private static synchronized void startMetricsServer() {
+        InetSocketAddress address = MetricsServer.parseAddress(config.metricsEndpoint());
+        if(address == null) return;
+        try {
+            metricsServer = new MetricsServer(address, groups, latencyStats, supervisors);
+        } catch (IOException e) {
+            String message = "Could not serve the metrics on %s: %s".formatted(config.metricsEndpoint(), e);
+            print(message);
+            try {
+                logError("[%s] %s".formatted(getTimestamp(LocalDateTime.now()),message));
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private static synchronized void stopMetricsServer() {
+        if(metricsServer != null){
+            metricsServer.close();
+            metricsServer = null;
+        }
+    }
+
+    /**
+     * Starts the alert thread. The sinks are set by the config
+     */
+    private static void startAlerts() {
+        alerts = new AlertDispatcher(0, Main::onAlertError);
+    }
+
+    private static void updateAlerts() {
+        List<AlertDispatcher.Sink> sinks = new ArrayList<>();
+        if(! headless){
+            if(audioAlerts == null) audioAlerts = new AlertSinks.Audio();
+            sinks.add(audioAlerts);
+        }
+        if(Config.isOn(config.alertCommand())) sinks.add(new AlertSinks.Command(config.alertCommand()));
+        if(Config.isOn(config.alertFile())){
+            Path path = Path.of(config.alertFile());
+            sinks.add(new AlertSinks.File(path.isAbsolute() ? path : Path.of(getFolderPath() + config.alertFile())));
+        }
+        if(Config.isOn(config.alertUrl())) sinks.add(new AlertSinks.Http(AlertSinks.Http.parseUri(config.alertUrl())));
+        // the sinks that didn't change are equal to the old ones, so they are kept
+        List<AlertDispatcher.Sink> old = alerts.getSinks();
+        for(int i = 0; i < sinks.size(); i++){
+            int index = old.indexOf(sinks.get(i));
+            if(index != -1){
+                if(sinks.get(i) != old.get(index)) sinks.get(i).close();
+                sinks.set(i, old.get(index));
             }
-            printQueueLock.release();
-            clearLine();
-            System.out.print(toPrint);
         }
+        alerts.setSinks(sinks);
+        alerts.setRateLimit(config.alertRateLimit());
     }
 
-    private static void initGlobalVariables() throws IOException {
-        int newTimeout = Integer.parseInt(config.getOrDefault("timeout", DEFAULT_TIMEOUT));
-        if(!firstConfigRead && newTimeout != timeout){
-            updatePingEndPoints();
-            String message = "Timeout changed to "+newTimeout+" milliseconds";
-            logInternet("[%s] %s".formatted(getTimestamp(LocalDateTime.now()),message));
+    private static void onAlertError(String message) {
+        print(message);
+        try {
+            logError("[%s] %s".formatted(getTimestamp(LocalDateTime.now()),message));
+        } catch (IOException ignored) {}
+    }
+
+    static void animateMonitoring() {
+        getStatusDisplay().render(symbol);
+        symbol = getNextSymbol(symbol);
+    }
+
+    /**
+     * @return the display, made again when status_display changed
+     */
+    private static StatusDisplay getStatusDisplay() {
+        StatusDisplay.Mode mode = headless ? StatusDisplay.Mode.OFF : config.statusDisplay();
+        if(statusDisplay == null || statusDisplay.getMode() != mode){
+            if(statusDisplay != null) statusDisplay.clear();
+            statusDisplay = new StatusDisplay(System.out, mode, groups, targetGroups, addresses, latencyStats);
         }
-        timeout = newTimeout;
-        disconnect_ping_count = Integer.parseInt(config.getOrDefault("disconnect_ping_count", DEFAULT_DISCONNECT_PING_COUNT));
-        connect_ping_count = Integer.parseInt(config.getOrDefault("connect_ping_count", DEFAULT_CONNECT_PING_COUNT));
-        master_gain = Float.parseFloat(config.getOrDefault("master_gain", DEFAULT_MASTER_GAIN));
-        enable_debug_log = Boolean.parseBoolean(config.getOrDefault("enable_debug_log",DEFAULT_ENABLE_DEBUG_LOG));
-        long_response_threshold = Integer.parseInt(config.getOrDefault("long_response_threshold",DEFAULT_LONG_RESPONSE_THRESHOLD));
-        firstConfigRead = false;
+        return statusDisplay;
+    }
+
+    private static void logLatencyStats(int statsLogInterval) throws IOException {
+        String timestamp = getTimestamp(LocalDateTime.now());
+        int window = LatencyStats.windowFor(statsLogInterval * ONE_MINUTE);
+        for(int i = 0; i < addresses.length; i++){
+            StringBuilder line = new StringBuilder("[%s] %s %s".formatted(timestamp, addresses[i], latencyStats[i].summary(window)));
+            AdaptiveSchedule schedule = schedules[i];
+            line.append(", %d probes sent".formatted(schedule.getProbeCount()));
+            if(schedule.getDetectionCount() > 0){
+                line.append(", outage detection avg/max = %.0f/%.0f ms".formatted(
+                        schedule.getAverageDetectionMillis(), schedule.getMaxDetectionMillis()));
+            }
+            TargetSupervisor supervisor = supervisors[i];
+            if(supervisor.getRestarts() > 0){
+                line.append(", restarts: %d, not probed for %d ms (longest %d ms)".formatted(supervisor.getRestarts(),
+                        TimeUnit.NANOSECONDS.toMillis(supervisor.getRestartNanos()),
+                        TimeUnit.NANOSECONDS.toMillis(supervisor.getMaxRestartNanos())));
+            }
+            if(pingEndPoints[i] != null && pingEndPoints[i].getEngine() instanceof ProcessProbeEngine engine){
+                ProcessProbeEngine.Handovers h = engine.getHandovers();
+                if(h.count() > 0){
+                    line.append(", ping process handovers: %d, gap avg/max = %.0f/%.0f ms".formatted(
+                            h.count(), h.getAverageGapMillis(), h.maxGapNanos() / 1_000_000.0));
+                }
+            }
+            logInternet(targetGroups[i], line.toString());
+        }
+        // the time the program itself spent on the way, see SelfOverhead
+        logError("[%s] Self overhead: %s".formatted(timestamp, SelfOverhead.summaryAndReset()));
     }
 
-    @SuppressWarnings("unchecked")
     private static Pair<String,String>[] getPingParams(){
-        return (Pair<String,String>[]) new Pair[]{
-                Pair.of("-n","60"),
-                Pair.of("-w",String.valueOf(timeout))
-        };
+        Config config = Main.config;
+        return config.pingDialect().getParams(PINGS_PER_PROCESS, config.timeout());
     }
 
+    /**
+     * Gives the probes the current timeout. Only ping processes whose flags changed are restarted
+     */
     private static void updatePingEndPoints() {
+        int timeout = config.timeout();
+        if(selectorProber != null){
+            selectorProber.setTimeout(timeout);
+        }
+        Pair<String,String>[] params = getPingParams();
         for(var endpoint : pingEndPoints){
-            endpoint.setParams(getPingParams());
+            if(endpoint == null) continue;
+            endpoint.setParams(params);
+            endpoint.setTimeout(timeout);
+        }
+    }
+
+    /**
+     * The ping process has its own cadence, so adaptive probing is only for the probes made inside the program
+     */
+    private static boolean isAdaptive(Config config, int target) {
+        return config.adaptiveProbing() && (config.probeMode() != ProbeMode.PROCESS || isSelectorTarget(config, target));
+    }
+
+    /**
+     * @return true if the address is probed by the selector prober: all of them in NIO mode,
+     * and the ones with a probe type like dns:// or http:// in every mode
+     */
+    private static boolean isSelectorTarget(Config config, int target) {
+        return config.probeMode() == ProbeMode.NIO || ProbeTarget.hasScheme(addresses[target]);
+    }
+
+    private static void updateSchedules() {
+        Config config = Main.config;
+        for(int i = 0; i < schedules.length; i++){
+            schedules[i].setEnabled(isAdaptive(config, i));
+            schedules[i].setStableInterval(config.stableProbeInterval());
         }
     }
 
-    private static void initWorkerThreads() {
+    private static void initWorkerThreads() throws IOException {
+        Config config = Main.config;
+        long normalInterval = config.probeMode() == ProbeMode.NIO ? NIO_PROBE_INTERVAL : SLEEP_TIME_BETWEEN_CONNECTION_CHECKS;
+        long now = System.nanoTime();
+        schedules = new AdaptiveSchedule[addresses.length];
         for(int i = 0; i < addresses.length; i++){
-            PingEndPoint endPoint = new PingEndPoint(addresses[i], getPingParams());
+            long interval = isSelectorTarget(config, i) ? NIO_PROBE_INTERVAL : normalInterval;
+            schedules[i] = new AdaptiveSchedule(interval, config.stableProbeInterval(), isAdaptive(config, i), now);
+        }
+        String fileStamp = getFileStamp();
+        Path incidentFolder = Path.of(getFolderPath() + (fileStamp == null ? "incidents" : "incidents - " + fileStamp));
+        long resultInterval = config.probeMode() == ProbeMode.PROCESS ? PROCESS_PROBE_INTERVAL : normalInterval;
+        for(MonitorGroup group : groups){
+            group.setIncidents(new IncidentRecorder(group, resultInterval, logWriter, incidentFolder));
+        }
+
+        // the selector prober takes its addresses, the rest get a thread each
+        String[] selectorAddresses = new String[addresses.length];
+        boolean anySelectorTarget = false;
+        for(int i = 0; i < addresses.length; i++){
+            if(isSelectorTarget(config, i)){
+                selectorAddresses[i] = addresses[i];
+                anySelectorTarget = true;
+                continue;
+            }
             int threadIndex = i;
-            pingEndPoints[i] = endPoint;
-            workerThreads[i] = new Thread(() -> workerThreadMainLoop(threadIndex));
+            pingEndPoints[i] = newPingEndPoint(addresses[i]);
+            Runnable worker = () -> workerThreadMainLoop(threadIndex);
+            workerThreads[i] = config.useVirtualThreads() ? Thread.ofVirtual().unstarted(worker) : new Thread(worker);
         }
+        if(! anySelectorTarget) return;
+
+        consecutiveFailures = new int[addresses.length];
+        timesOfFailure = new long[addresses.length];
+        firstFailureOutputs = new String[addresses.length];
+        selectorProber = new SelectorProber(selectorAddresses,
+                SelectorProber.defaultLoopCount(addresses.length),
+                config.timeout(),
+                NIO_PROBE_INTERVAL,
+                new SelectorProber.Listener() {
+                    @Override
+                    public void onResult(int index, ProbeResult result) {
+                        onProbeResult(index, result);
+                    }
+
+                    @Override
+                    public void onFailure(int index, Exception e, long backoffNanos) {
+                        onTargetFailure(index, e, backoffNanos);
+                    }
+
+                    @Override
+                    public void onStopped(Exception e) {
+                        events.publish(EventRing.Type.PROBER_STOPPED, -1, LocalDateTime.now(), null);
+                    }
+                });
+        selectorProber.setSchedules(schedules);
+        selectorProber.setSupervisors(supervisors);
     }
 
+    private static PingEndPoint newPingEndPoint(String address) {
+        Config config = Main.config;
+        PingEndPoint endPoint = new PingEndPoint(address, config.probeMode(), config.pingDialect(), getPingParams());
+        endPoint.setTimeout(config.timeout());
+        return endPoint;
+    }
+
+    /**
+     * A worker thread restarts its own address, see {@link #restartTarget}, but a selector loop
+     * that stopped takes all of its addresses with it
+     */
     private static void checkForExceptionInWorkerThreads() {
-        for(int i = 0; i < addresses.length ; i++){
-            if(workerThreadExceptions[i] != null) {
-                throw new RuntimeException("Exception in worker threads");
-            }
+        if(selectorProber != null && selectorProber.getException() != null){
+            throw new RuntimeException("Exception in selector prober", selectorProber.getException());
         }
     }
 
     private static void stopWorkerThreads() {
         running = false;
+        if(selectorProber != null){
+            selectorProber.close();
+        }
         for(Thread t:workerThreads) {
+            if(t == null) continue; // the addresses of the selector prober have no worker thread
             try {
                 t.join();
             } catch (InterruptedException ignored) {}
@@ -489,34 +1049,75 @@ public class Main {
     //====================== LOGS RELATED FUNCTIONS ============================ |
     //========================================================================== |
 
+    private static void logInternet(MonitorGroup group, String message) throws IOException {
+        // this is locked so the console and the file get the messages in the same order
+        lockInternetLog();
+        try {
+            print(group.label(message));
+            group.getInternetLog().write(message);
+        } finally {
+            internetLogLock.unlock();
+        }
+    }
+
+    private static void lockInternetLog() {
+        long start = System.nanoTime();
+        internetLogLock.lock();
+        SelfOverhead.record(SelfOverhead.Stage.LOCK_WAIT, System.nanoTime() - start);
+    }
+
+    /**
+     * Logs a message about the whole program to the internet log of every group
+     */
     private static void logInternet(String message) throws IOException {
-        synchronized (internetLogLock){
+        lockInternetLog();
+        try {
             print(message);
-            try (BufferedWriter writer = getLogWriter("internet_log")) {
-                writer.write(message+"\n");
-            }
+            for(MonitorGroup group : groups) group.getInternetLog().write(message);
+        } finally {
+            internetLogLock.unlock();
         }
     }
-    private static void logDebug(String message) throws IOException {
-        // this is synchronized because multiple threads can write to the debug log
-        synchronized (debugLogLock){
-            try (BufferedWriter writer = getLogWriter("debug_log")) {
-                writer.write(message+"\n");
-            }
+
+    private static void logError(String message) throws IOException {
+        errorLog.write(message);
+    }
+
+    private static void openLogs() throws IOException {
+        Files.createDirectories(Path.of(getFolderPath()));
+        // a file that can't be written is tried again with its next line, so it's only shown on the console
+        logWriter = new AsyncLogWriter(LOG_QUEUE_CAPACITY, LOG_FLUSH_INTERVAL, (log, cause) -> print(
+                "[%s] Could not write to %s, trying again with the next line: %s".formatted(getTimestamp(LocalDateTime.now()), log.getPath(), cause)));
+        for(MonitorGroup group : groups){
+            // the debug log is the only one that can't keep up in extreme cases, and it's ok for it to lose messages
+            group.setLogs(logWriter.open(getLogPath("internet_log", group.getFileStamp()), AsyncLogWriter.OverflowPolicy.BLOCK),
+                    logWriter.open(getLogPath("debug_log", group.getFileStamp()), AsyncLogWriter.OverflowPolicy.DROP));
         }
+        errorLog = logWriter.open(getLogPath("error_log", getFileStamp()), AsyncLogWriter.OverflowPolicy.BLOCK);
+
+        // nothing is created on disk until the first sample, so it can be enabled without a restart
+        String fileStamp = getFileStamp();
+        sampleStore = new SampleStore(Path.of(getFolderPath() + (fileStamp == null ? "samples" : "samples - " + fileStamp)));
     }
 
-    private static void logError(String message) throws IOException {
-        // this is synchronized because multiple threads can write to the error log
-        synchronized (errorLogLock){
-            try (BufferedWriter writer = getLogWriter("error_log")) {
-                writer.write(message+"\n");
-            }
+    private static void closeLogs() {
+        if(logWriter != null) logWriter.close();
+        if(sampleStore != null){
+            try {
+                sampleStore.close();
+            } catch (IOException ignored) {}
         }
     }
-    private static BufferedWriter getLogWriter(String fileName) throws IOException {
-        String stamp = getAddressesStamp().replace("\"", "").replace(",", " - ");
-        return getWriter(fileName + " - " + stamp + ".txt");
+
+    private static String getLogPath(String fileName, String fileStamp) {
+        return getFolderPath() + fileName + (fileStamp == null ? "" : " - " + fileStamp) + ".txt";
+    }
+
+    /**
+     * @return the stamp of the files the groups share, or null when there are named groups
+     */
+    private static String getFileStamp() {
+        return groups.length == 1 && groups[0].getName() == null ? groups[0].getFileStamp() : null;
     }
 
     private static BufferedWriter getWriter(String fileName) throws IOException {
@@ -529,23 +1130,23 @@ public class Main {
     //========================================================================== |
     //======================== UTILITY FUNCTIONS =============================== |
     //========================================================================== |
-    private static void addToDisconnectedCounter(int num) {
-        int expectedValue;
-        int newValue;
-        do {
-            expectedValue = disconnectedCounter.get();
-            newValue = expectedValue+num;
-        } while(! disconnectedCounter.compareAndSet(expectedValue,newValue));
-    }
-
-    private static String getAddressesStamp() {
-        StringBuilder builder = new StringBuilder();
-        for (String address : addresses) {
-            builder.append("\"").append(address).append("\"").append(",");
+    /**
+     * Reads the groups from the arguments, and lays out the addresses of all the groups as one list of targets
+     */
+    private static void initGroups(String[] args) {
+        groups = MonitorGroup.parseArguments(args);
+        List<String> allAddresses = new ArrayList<>();
+        List<MonitorGroup> owners = new ArrayList<>();
+        for(MonitorGroup group : groups){
+            for(String address : group.getAddresses()){
+                allAddresses.add(address);
+                owners.add(group);
+            }
         }
-        builder.deleteCharAt(builder.length()-1);
-        return builder.toString();
+        addresses = allAddresses.toArray(new String[0]);
+        targetGroups = owners.toArray(new MonitorGroup[0]);
     }
+
     private static String getTimeDiff(LocalDateTime from,LocalDateTime to) {
         Duration diff = Duration.between(from, to);
         long hours = diff.toHours();
@@ -572,22 +1173,6 @@ public class Main {
         return output.toString();
     }
 
-    private static boolean notConnected(String s) {
-        s = s.toLowerCase();
-        String[] keyWords = {
-                "no resources",
-                "general failure",
-                "100% loss",
-                "could not find host",
-                "request timed out",
-                "destination host unreachable"
-        };
-
-        for(String keyword : keyWords){
-            if(s.contains(keyword)) return true;
-        }
-        return false;
-    }
     private static char getNextSymbol(char c){
         return switch(c){
             case '|' -> '/';
@@ -598,47 +1183,102 @@ public class Main {
         };
     }
 
-    @SuppressWarnings("SuspiciousRegexArgument")
-    private static void clearLine() {
-        System.out.print(lastMsg.replaceAll("."," "));
-        System.out.print('\r');
-    }
-
-    @SuppressWarnings("DataFlowIssue")
+    /**
+     * @return the folder of the logs and the config, ending with a separator. The folder of the jar
+     * (or of the classes folder), unless INTERNET_TESTER_HOME says otherwise
+     */
     private static String getFolderPath() {
-        String folderPath = Main.class.getResource("Main.class").getPath();
-        folderPath = folderPath.replace("%20"," "); //fix space character
-        folderPath = folderPath.substring(folderPath.indexOf("/")+1); // remove initial '/'
-        folderPath = folderPath.substring(0,folderPath.lastIndexOf("/")); // remove .class file from path
-        folderPath = folderPath.substring(0,folderPath.lastIndexOf("/")+1); // exit jar
-        folderPath = folderPath.replace("/","\\");
+        if(folderPath == null){
+            String home = System.getenv(HOME_VARIABLE);
+            Path folder;
+            if(home != null && ! home.isBlank()){
+                folder = Path.of(home).toAbsolutePath();
+            } else {
+                try {
+                    folder = Path.of(Main.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getParent();
+                } catch (URISyntaxException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            folderPath = folder.toString() + File.separator;
+        }
         return folderPath;
     }
 
-    private static String getTimestamp(LocalDateTime time) {
+    private static LocalDateTime toLocalDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    static String getTimestamp(LocalDateTime time) {
         return fixDualDigitNumber(time.getDayOfMonth()) + "/" + fixDualDigitNumber(time.getMonthValue()) + "/" + fixDualDigitNumber(time.getYear()) + " "
                 + fixDualDigitNumber(time.getHour()) + ":" + fixDualDigitNumber(time.getMinute()) + ":" + fixDualDigitNumber(time.getSecond());
     }
 
-    private static void playAudio(String fileName,int count){
-        if(clip.isOpen())
-            clip.close();
+    private static String fixDualDigitNumber(int num){
+        return num < 10 ? "0"+num : ""+num;
+    }
 
-        try {
-            InputStream in = Main.class.getResourceAsStream(fileName);
-            assert in != null;
-            BufferedInputStream buffIn = new BufferedInputStream(in);
-            clip.open(AudioSystem.getAudioInputStream(buffIn));
-            FloatControl control = (FloatControl) clip.getControl(FloatControl.Type.MASTER_GAIN);
-            control.setValue(master_gain);
-        } catch (LineUnavailableException | IOException | UnsupportedAudioFileException e) {
-            throw new RuntimeException(e);
+    /**
+     * Sets up just enough state for the status line and the console messages to work
+     * without starting any monitors. Used by the benchmarks
+     */
+    static void initDisplayState(String[] addresses) {
+        initGroups(addresses);
+        config = Config.parse(Map.of());
+        groups[0].applyConfig(config);
+        latencyStats = new LatencyStats[addresses.length];
+        for(int i = 0; i < addresses.length; i++) latencyStats[i] = new LatencyStats();
+        events = new EventRing(EVENT_RING_CAPACITY);
+        statusDisplay = null;
+    }
+
+    /**
+     * Takes the options out of the arguments
+     * @return the rest of the arguments, the addresses
+     */
+    private static String[] readOptions(String[] args) {
+        List<String> rest = new ArrayList<>();
+        for(String arg : args){
+            if(arg.equalsIgnoreCase(HEADLESS_OPTION)) headless = true;
+            else rest.add(arg);
         }
-        clip.loop(count-1);
+        return rest.toArray(new String[0]);
     }
 
-    private static String fixDualDigitNumber(int num){
-        return num < 10 ? "0"+num : ""+num;
+    /**
+     * Shows the error. A console user gets to read it before the window closes,
+     * a headless run exits right away with an error code for the supervisor
+     */
+    private static void exitWithError(String message) {
+        System.out.println(message);
+        System.out.println("  see \"instructions.txt\"");
+        if(headless) System.exit(2);
+        System.out.println("\n\npress enter to exit");
+        Scanner s = new Scanner(System.in);
+        s.nextLine();
+    }
+
+    /**
+     * Runs when the program is closed: logs that the monitoring stopped and writes out everything that is queued
+     */
+    private static void shutdown() {
+        shuttingDown = true;
+        if(running){
+            running = false;
+            String timestamp = getTimestamp(LocalDateTime.now());
+            if(! headless) System.out.println(); // below the status line
+            for(MonitorGroup group : groups){
+                String message = "[%s] Stopped logging connection to %s".formatted(timestamp, group.getAddressesStamp());
+                System.out.println(group.label(message));
+                try {
+                    group.getInternetLog().write(message);
+                } catch (IOException ignored) {}
+            }
+        }
+        stopConfigWatcher();
+        stopMetricsServer();
+        if(selectorProber != null) selectorProber.close();
+        closeLogs();
     }
 
     private static String stackTraceToString(Exception e) {
@@ -650,20 +1290,16 @@ public class Main {
         return output.toString();
     }
 
+    /**
+     * Shows a message on the console. The main thread shows it right away: it empties the event ring,
+     * so waiting for room in a full ring would never end
+     */
     private static void print(String message) {
-        try {
-            printQueueLock.acquire();
-        } catch (InterruptedException ignored) {}
-        printQueue.add(message);
-        printQueueLock.release();
-    }
-
-    private static int extractDelay(String output) {
-        for(String word : output.split(" ")){
-            if(word.contains("time=")){
-                return Integer.parseInt(word.substring(5,word.indexOf("ms")));
-            }
+        if(events.isConsumer()){
+            getStatusDisplay().printMessage(message);
+            redrawStatusLine = true;
+        } else {
+            events.publish(EventRing.Type.LOG_LINE, -1, null, message);
         }
-        return -1;
     }
 }
@@ -0,0 +1,289 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Serves the probe and outage metrics in the Prometheus text format at {@code /metrics}.
+ * <p>
+ * A scrape renders straight into a reused byte buffer: the names and label sets are encoded once up front,
+ * numbers are written digit by digit, and the statistics of each address are copied out under its lock into
+ * a reused holder. So scraping thousands of addresses every few seconds allocates next to nothing, and never
+ * holds the lock of an address for longer than a copy of a few counters.
+ * Requests are served one at a time on the server's own thread.
+ */
+public final class MetricsServer implements Closeable {
+
+    private static final String PREFIX = "internet_tester_";
+
+    private final HttpServer server;
+    private final MonitorGroup[] groups;
+    private final LatencyStats[] stats;
+    private final TargetSupervisor[] supervisors;
+
+    // encoded once
+    private final byte[][] addressLabels; // {group="...",address="..." without the closing brace
+    private final byte[][] groupLabels; // {group="..."} or nothing for an unnamed group
+    private final byte[][] bucketLabels; // ,le="..."}
+    private final byte[] successLabel = ascii(",result=\"success\"}");
+    private final byte[] failureLabel = ascii(",result=\"failure\"}");
+    private final byte[] closeLabels = ascii("}");
+    private final byte[] probesHeader = header("probes_total", "counter", "Probes sent to the address, by result");
+    private final byte[] probes = ascii(PREFIX + "probes_total");
+    private final byte[] rttHeader = header("rtt_seconds", "histogram", "Round trip time of the answered probes");
+    private final byte[] rttBucket = ascii(PREFIX + "rtt_seconds_bucket");
+    private final byte[] rttSum = ascii(PREFIX + "rtt_seconds_sum");
+    private final byte[] rttCount = ascii(PREFIX + "rtt_seconds_count");
+    private final byte[] addressUpHeader = header("address_up", "gauge", "1 if the address responds, 0 if it is down");
+    private final byte[] addressUp = ascii(PREFIX + "address_up");
+    private final byte[] connectedHeader = header("group_connected", "gauge", "1 unless enough addresses of the group are down to count as a lost connection");
+    private final byte[] connected = ascii(PREFIX + "group_connected");
+    private final byte[] downAddressesHeader = header("group_down_addresses", "gauge", "The number of addresses of the group that are down");
+    private final byte[] downAddresses = ascii(PREFIX + "group_down_addresses");
+    private final byte[] outagesHeader = header("outages_total", "counter", "The number of times the group lost connection");
+    private final byte[] outages = ascii(PREFIX + "outages_total");
+    private final byte[] downtimeHeader = header("downtime_seconds_total", "counter", "The total time the group had no connection");
+    private final byte[] downtime = ascii(PREFIX + "downtime_seconds_total");
+    private final byte[] restartsHeader = header("address_restarts_total", "counter", "The number of times probing the address failed with an error and was started again");
+    private final byte[] restarts = ascii(PREFIX + "address_restarts_total");
+    private final byte[] restartTimeHeader = header("address_restart_seconds_total", "counter", "The total time the address wasn't probed because it was being started again");
+    private final byte[] restartTime = ascii(PREFIX + "address_restart_seconds_total");
+
+    // reused by every scrape
+    private final LatencyStats.Totals[] totals;
+    private final ConnectivityState.Snapshot[] snapshots;
+    private byte[] buffer = new byte[64 * 1024];
+    private int length;
+
+    /**
+     * @param stats the statistics of every address, in the order of the addresses of the groups
+     * @param supervisors the restarts of every address, in the same order
+     */
+    public MetricsServer(InetSocketAddress address, MonitorGroup[] groups, LatencyStats[] stats, TargetSupervisor[] supervisors) throws IOException {
+        this.groups = groups;
+        this.stats = stats;
+        this.supervisors = supervisors;
+
+        addressLabels = new byte[stats.length][];
+        groupLabels = new byte[groups.length][];
+        for(int g = 0; g < groups.length; g++){
+            MonitorGroup group = groups[g];
+            String groupLabel = group.getName() == null ? "" : "group=\"%s\"".formatted(escape(group.getName()));
+            groupLabels[g] = utf8(groupLabel.isEmpty() ? "" : "{" + groupLabel + "}");
+            for(int i = 0; i < group.size(); i++){
+                String addressLabel = "address=\"%s\"".formatted(escape(group.getAddresses()[i]));
+                addressLabels[group.getOffset() + i] = utf8("{" + (groupLabel.isEmpty() ? "" : groupLabel + ",") + addressLabel);
+            }
+        }
+        long[] bounds = LatencyStats.getTotalBucketBounds();
+        bucketLabels = new byte[bounds.length + 1][];
+        for(int i = 0; i < bounds.length; i++){
+            bucketLabels[i] = ascii(",le=\"%s\"}".formatted(BigDecimal.valueOf(bounds[i], 6).stripTrailingZeros().toPlainString()));
+        }
+        bucketLabels[bounds.length] = ascii(",le=\"+Inf\"}");
+
+        totals = new LatencyStats.Totals[stats.length];
+        for(int i = 0; i < stats.length; i++) totals[i] = new LatencyStats.Totals();
+        snapshots = new ConnectivityState.Snapshot[groups.length];
+
+        server = HttpServer.create(address, 0);
+        server.createContext("/metrics", this::handle);
+        server.start();
+    }
+
+    /**
+     * @param value "off", a port, or host:port
+     * @return the address to listen on, or null for off
+     * @throws IllegalArgumentException if the value is none of these
+     */
+    public static InetSocketAddress parseAddress(String value) {
+        if(value.equals("off")) return null;
+        try {
+            int separator = value.lastIndexOf(':');
+            if(separator == -1) return new InetSocketAddress(Integer.parseInt(value));
+            return new InetSocketAddress(value.substring(0, separator), Integer.parseInt(value.substring(separator + 1)));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("metrics_endpoint must be 'off', a port or host:port: "+value, e);
+        }
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            if(! method.equals("GET") && ! method.equals("HEAD")){
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            synchronized (this) {
+                render();
+                if(method.equals("HEAD")){
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+                exchange.sendResponseHeaders(200, length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(buffer, 0, length);
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders all the metrics into the buffer
+     * @return the number of bytes rendered
+     */
+    synchronized int render() {
+        length = 0;
+        for(int i = 0; i < stats.length; i++) stats[i].copyTotals(totals[i]);
+        for(int g = 0; g < groups.length; g++) snapshots[g] = groups[g].getConnectivity().get();
+        long now = System.currentTimeMillis();
+
+        append(probesHeader);
+        for(int i = 0; i < stats.length; i++){
+            append(probes).append(addressLabels[i]).append(successLabel).append(' ').append(totals[i].received).append('\n');
+            append(probes).append(addressLabels[i]).append(failureLabel).append(' ').append(totals[i].lost).append('\n');
+        }
+
+        append(rttHeader);
+        for(int i = 0; i < stats.length; i++){
+            LatencyStats.Totals t = totals[i];
+            long cumulative = 0;
+            for(int b = 0; b < t.buckets.length; b++){
+                cumulative += t.buckets[b];
+                append(rttBucket).append(addressLabels[i]).append(bucketLabels[b]).append(' ').append(cumulative).append('\n');
+            }
+            append(rttSum).append(addressLabels[i]).append(closeLabels).append(' ').appendFixed(t.rttSumMicros, 6).append('\n');
+            append(rttCount).append(addressLabels[i]).append(closeLabels).append(' ').append(t.timedCount).append('\n');
+        }
+
+        append(addressUpHeader);
+        for(int g = 0; g < groups.length; g++){
+            for(int i = 0; i < groups[g].size(); i++){
+                int target = groups[g].getOffset() + i;
+                append(addressUp).append(addressLabels[target]).append(closeLabels).append(' ').append(groups[g].getConnectivity().isDown(i) ? 0 : 1).append('\n');
+            }
+        }
+
+        append(connectedHeader);
+        for(int g = 0; g < groups.length; g++){
+            boolean down = snapshots[g].getState() == ConnectivityState.State.DOWN;
+            append(connected).append(groupLabels[g]).append(' ').append(down ? 0 : 1).append('\n');
+        }
+        append(downAddressesHeader);
+        for(int g = 0; g < groups.length; g++){
+            append(downAddresses).append(groupLabels[g]).append(' ').append(snapshots[g].getDownCount()).append('\n');
+        }
+        append(outagesHeader);
+        for(int g = 0; g < groups.length; g++){
+            append(outages).append(groupLabels[g]).append(' ').append(snapshots[g].getOutages()).append('\n');
+        }
+        append(downtimeHeader);
+        for(int g = 0; g < groups.length; g++){
+            append(downtime).append(groupLabels[g]).append(' ').appendFixed(snapshots[g].getDowntimeMillis(now), 3).append('\n');
+        }
+
+        append(restartsHeader);
+        for(int i = 0; i < supervisors.length; i++){
+            append(restarts).append(addressLabels[i]).append(closeLabels).append(' ').append(supervisors[i].getRestarts()).append('\n');
+        }
+        append(restartTimeHeader);
+        for(int i = 0; i < supervisors.length; i++){
+            append(restartTime).append(addressLabels[i]).append(closeLabels).append(' ').appendFixed(supervisors[i].getRestartNanos(), 9).append('\n');
+        }
+
+        Arrays.fill(snapshots, null);
+        return length;
+    }
+
+    /**
+     * @return the last rendered metrics. For the benchmarks
+     */
+    synchronized String getRendered() {
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private MetricsServer append(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+        return this;
+    }
+
+    private MetricsServer append(char c) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) c;
+        return this;
+    }
+
+    private MetricsServer append(long value) {
+        ensureCapacity(20);
+        if(value < 0){
+            buffer[length++] = '-';
+            value = -value;
+        }
+        int start = length;
+        do {
+            buffer[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while(value > 0);
+        // the digits came out backwards
+        for(int i = start, j = length - 1; i < j; i++, j--){
+            byte digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+        return this;
+    }
+
+    /**
+     * Appends value / 10^decimals with all the decimals, like 12.345000
+     */
+    private MetricsServer appendFixed(long value, int decimals) {
+        long scale = 1;
+        for(int i = 0; i < decimals; i++) scale *= 10;
+        append(value / scale).append('.');
+        long fraction = Math.abs(value % scale);
+        for(long digit = scale / 10; digit > 0; digit /= 10){
+            append((char) ('0' + fraction / digit % 10));
+        }
+        return this;
+    }
+
+    private void ensureCapacity(int extra) {
+        if(length + extra > buffer.length){
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+
+    private static byte[] header(String name, String type, String help) {
+        return ascii("# HELP %s%s %s\n# TYPE %s%s %s\n".formatted(PREFIX, name, help, PREFIX, name, type));
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,214 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A group of addresses that is monitored as one connection, with its own state, settings and logs.
+ * <p>
+ * The addresses of all the groups are probed together and numbered in one sequence, the targets.
+ * A group owns the targets from {@code offset} to {@code offset + size - 1}, and its methods take target numbers.
+ */
+public class MonitorGroup {
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_-]+");
+    private static final Pattern INVALID_FILE_NAME_CHARS = Pattern.compile("[\\\\/:*?\"<>|\\p{Cntrl}]");
+
+    private final String name; // null for addresses that were given without a group
+    private final String[] addresses;
+    private final int offset;
+    private volatile Config config;
+    private ConnectivityState connectivity;
+    private ConnectivityState.Snapshot reportedState; // the last state the main thread logged
+    private AsyncLogWriter.Log internetLog;
+    private AsyncLogWriter.Log debugLog;
+    private IncidentRecorder incidents;
+
+    public MonitorGroup(String name, String[] addresses, int offset) {
+        this.name = name;
+        this.addresses = addresses;
+        this.offset = offset;
+    }
+
+    /**
+     * Reads the groups from the program arguments, either a plain list of addresses for a single group:<br/>
+     * {@code 8.8.8.8 1.1.1.1}<br/>
+     * or named groups:<br/>
+     * {@code internet=8.8.8.8,1.1.1.1 router=192.168.1.1}
+     * @throws IllegalArgumentException if the arguments mix the two or a group is malformed
+     */
+    public static MonitorGroup[] parseArguments(String[] args) {
+        boolean named = false;
+        for(String arg : args){
+            if(nameSeparator(arg) != -1) named = true;
+        }
+        if(! named){
+            checkAddresses(args);
+            return new MonitorGroup[]{new MonitorGroup(null, args, 0)};
+        }
+
+        List<MonitorGroup> groups = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        int offset = 0;
+        for(String arg : args){
+            int separator = nameSeparator(arg);
+            if(separator == -1){
+                throw new IllegalArgumentException("\"%s\" has no group, expected name=address,address...".formatted(arg));
+            }
+            String name = arg.substring(0, separator);
+            if(! NAME.matcher(name).matches()){
+                throw new IllegalArgumentException("Invalid group name \"%s\", use letters, digits, '-' and '_'".formatted(name));
+            }
+            if(! names.add(name.toLowerCase())){
+                throw new IllegalArgumentException("Group \"%s\" appears twice".formatted(name));
+            }
+            String[] addresses = arg.substring(separator + 1).split(",");
+            for(String address : addresses){
+                if(address.isBlank()) throw new IllegalArgumentException("Group \"%s\" has an empty address".formatted(name));
+            }
+            checkAddresses(addresses);
+            groups.add(new MonitorGroup(name, addresses, offset));
+            offset += addresses.length;
+        }
+        return groups.toArray(new MonitorGroup[0]);
+    }
+
+    /**
+     * @return the index of the '=' after the group's name, or -1 if the argument has no group.
+     * An '=' after a probe type, like in http://host/?a=b, is part of the address
+     */
+    private static int nameSeparator(String arg) {
+        int separator = arg.indexOf('=');
+        int scheme = arg.indexOf("://");
+        return scheme != -1 && scheme < separator ? -1 : separator;
+    }
+
+    /**
+     * @throws IllegalArgumentException if an address with a probe type is malformed, see {@link ProbeTarget}
+     */
+    private static void checkAddresses(String[] addresses) {
+        for(String address : addresses){
+            if(ProbeTarget.hasScheme(address)) ProbeTarget.parse(address);
+        }
+    }
+
+    /**
+     * Sets the group's settings. The first call creates the connection state
+     */
+    public void applyConfig(Config config) {
+        Config old = this.config;
+        this.config = config;
+        if(connectivity == null){
+            connectivity = new ConnectivityState(addresses.length, config.disconnectQuorum());
+            reportedState = connectivity.get();
+        } else if(old.disconnectQuorum() != config.disconnectQuorum()){
+            // the main thread logs the change in the connection, if there is one, on its next check
+            connectivity.setQuorum(config.disconnectQuorum(), System.currentTimeMillis());
+        }
+    }
+
+    public void setLogs(AsyncLogWriter.Log internetLog, AsyncLogWriter.Log debugLog) {
+        this.internetLog = internetLog;
+        this.debugLog = debugLog;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String[] getAddresses() {
+        return addresses;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int size() {
+        return addresses.length;
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    public ConnectivityState getConnectivity() {
+        return connectivity;
+    }
+
+    public ConnectivityState.Snapshot getReportedState() {
+        return reportedState;
+    }
+
+    public void setReportedState(ConnectivityState.Snapshot reportedState) {
+        this.reportedState = reportedState;
+    }
+
+    public AsyncLogWriter.Log getInternetLog() {
+        return internetLog;
+    }
+
+    public AsyncLogWriter.Log getDebugLog() {
+        return debugLog;
+    }
+
+    public IncidentRecorder getIncidents() {
+        return incidents;
+    }
+
+    public void setIncidents(IncidentRecorder incidents) {
+        this.incidents = incidents;
+    }
+
+    public ConnectivityState.Snapshot markDown(int target, long failureStart) {
+        return connectivity.markDown(target - offset, failureStart);
+    }
+
+    public ConnectivityState.Snapshot markUp(int target, long now) {
+        return connectivity.markUp(target - offset, now);
+    }
+
+    public boolean isDown(int target) {
+        return connectivity.isDown(target - offset);
+    }
+
+    /**
+     * @return the addresses in quotes, separated by commas
+     */
+    public String getAddressesStamp() {
+        StringBuilder builder = new StringBuilder();
+        for (String address : addresses) {
+            builder.append("\"").append(address).append("\"").append(",");
+        }
+        builder.deleteCharAt(builder.length()-1);
+        return builder.toString();
+    }
+
+    /**
+     * @return the part of the log file names that tells the groups apart
+     */
+    public String getFileStamp() {
+        if(name != null) return toFileName(name);
+        return toFileName(getAddressesStamp().replace("\"", "").replace(",", " - "));
+    }
+
+    /**
+     * @return the text without the characters that Windows doesn't allow in a file name, like the ':' of host:port
+     *         and the slashes of the addresses with a probe type. They become spaces
+     */
+    public static String toFileName(String text) {
+        return INVALID_FILE_NAME_CHARS.matcher(text).replaceAll(" ")
+                .replaceAll(" {2,}", " ")
+                .replaceAll("^ +|[. ]+$", ""); // Windows drops dots and spaces at the end of a name
+    }
+
+    /**
+     * Adds the group's name after the timestamp of a message, so the console tells the groups apart
+     */
+    public String label(String message) {
+        if(name == null) return message;
+        int end = message.indexOf("] ");
+        return end == -1 ? name + ": " + message : message.substring(0, end + 2) + name + ": " + message.substring(end + 2);
+    }
+}
@@ -1,64 +1,73 @@
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.*;
 
-public class PingEndPoint {
+public final class PingEndPoint {
     private final String ip;
-    private Process proc;
-    private BufferedReader stdInput;
+    private final ProbeEngine engine;
     private final List<String> outputHistory;
-    private final Map<String,String> params;
+    private volatile Map<String,String> params = Map.of();
+    private volatile int timeout = Integer.parseInt(Main.DEFAULT_TIMEOUT);
 
     @SafeVarargs
     public PingEndPoint(String ip, Pair<String,String> ... params){
+        this(ip, ProbeMode.PROCESS, params);
+    }
+
+    @SafeVarargs
+    public PingEndPoint(String ip, ProbeMode mode, Pair<String,String> ... params){
+        this(ip, mode, PingOutputParser.Dialect.detect(), params);
+    }
+
+    @SafeVarargs
+    public PingEndPoint(String ip, ProbeMode mode, PingOutputParser.Dialect dialect, Pair<String,String> ... params){
         this.ip = ip;
-        this.params = new HashMap<>();
         outputHistory = new ArrayList<>(10);
-        setParams(params);
+        this.params = toMap(params);
+        engine = mode.createEngine(ip, this::getParams, dialect);
     }
 
-    public void start(){
-        if(isRunning()){
-            throw new IllegalStateException("Process is already running");
-        }
+    /**
+     * For custom engines that don't come from a {@link ProbeMode}
+     */
+    @SafeVarargs
+    public PingEndPoint(String ip, ProbeEngine engine, Pair<String,String> ... params){
+        this.ip = ip;
+        outputHistory = new ArrayList<>(10);
+        this.params = toMap(params);
+        this.engine = engine;
+    }
 
-        try {
-            String[] command = paramsToCommand();
-            proc = new ProcessBuilder(command).start();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        stdInput = new BufferedReader(new InputStreamReader(proc.getInputStream()));
-        readOutputLine(); readOutputLine(); // skip the first 2 lines
+    public void start(){
+        engine.start();
     }
 
     public void stop(){
-        if(proc != null){
-            if(! proc.isAlive()){
-                throw new IllegalStateException("Process is not running");
-            }
-            proc.destroy();
-        }
+        engine.stop();
     }
 
     public boolean isRunning(){
-        return proc != null && proc.isAlive();
+        return engine.isRunning();
     }
 
     public String getIp() {
         return ip;
     }
 
-    public String readOutputLine() {
-        try {
-            String s = stdInput.readLine();
-            outputHistory.addFirst(s);
-            if(outputHistory.size() > 2) outputHistory.removeLast();
-            return s == null ? "" : s;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+    public ProbeEngine getEngine() {
+        return engine;
+    }
+
+    public ProbeResult probe() {
+        return probe(timeout);
+    }
+
+    /**
+     * @param timeout the timeout for this probe only, in milliseconds
+     */
+    public ProbeResult probe(int timeout) {
+        ProbeResult result = engine.probe(timeout);
+        outputHistory.addFirst(result.getOutput());
+        if(outputHistory.size() > 2) outputHistory.removeLast();
+        return result;
     }
 
     public String getPreviousOutput() {
@@ -66,20 +75,39 @@ public class PingEndPoint {
         return outputHistory.getLast();
     }
 
+    public Map<String,String> getParams() {
+        return params;
+    }
+
+    /**
+     * Replaces the ping flags. A running engine that was started with different flags is stopped,
+     * so it starts again with the new ones, and an engine whose flags didn't change is left alone
+     */
     @SafeVarargs
     public final void setParams(Pair<String, String>... params) {
-        this.params.clear();
-        Arrays.stream(params).forEach(p -> this.params.put(p.first, p.second));
+        Map<String,String> newParams = toMap(params);
+        if(newParams.equals(this.params)) return;
+        this.params = newParams;
+        if(engine.isRunning()){
+            try {
+                engine.stop();
+            } catch (IllegalStateException ignored) {} // it just finished, and starts again with the new flags anyway
+        }
     }
 
-    private String[] paramsToCommand() {
-        List<String> command = new ArrayList<>();
-        command.add("ping");
-        command.add(ip);
-        for (var param : params.entrySet()) {
-            command.add(param.getKey());
-            if(param.getValue() != null) command.add(param.getValue());
-        }
-        return command.toArray(new String[0]);
+    /**
+     * The timeout for engines that run inside the JVM.
+     * The process engine gets its timeout through the ping flags instead
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    @SafeVarargs
+    private static Map<String,String> toMap(Pair<String, String>... params) {
+        // keeps the order of the flags, and the map is never modified after it is published
+        Map<String,String> map = new LinkedHashMap<>();
+        for(Pair<String,String> p : params) map.put(p.first, p.second);
+        return Collections.unmodifiableMap(map);
     }
 }
@@ -0,0 +1,321 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Classifies a line of {@code ping} output and extracts its RTT, TTL and sequence number.
+ * <p>
+ * Each dialect is a table of keywords. The line is scanned once, and at every position
+ * only the keywords that start with the current character are compared, ignoring case.
+ * Nothing is allocated while parsing - the results are kept in this object until the next call
+ * to {@link #parse(CharSequence)}, so every thread should use its own parser.
+ */
+public class PingOutputParser {
+
+    public enum LineType {
+        /** An echo reply */
+        REPLY,
+        /** The echo request got no reply in time */
+        TIMEOUT,
+        /** A router reported that the target can't be reached */
+        UNREACHABLE,
+        /** The target's name couldn't be resolved */
+        UNKNOWN_HOST,
+        /** The local machine couldn't send the request */
+        FAILURE,
+        /** Headers, statistics and anything else that isn't about a single echo request */
+        OTHER
+    }
+
+    private enum Field {
+        NONE,
+        /** Marks the line as a reply, if nothing marks it as a failure */
+        REPLY_MARKER,
+        RTT,
+        /** Windows prints "time<1ms" for replies faster than a millisecond */
+        RTT_BELOW,
+        TTL,
+        SEQUENCE
+    }
+
+    private record Token(char[] text, LineType type, Field field) {}
+
+    public enum Dialect {
+        WINDOWS(
+                failure("request timed out", LineType.TIMEOUT),
+                failure("destination host unreachable", LineType.UNREACHABLE),
+                failure("destination net unreachable", LineType.UNREACHABLE),
+                failure("ttl expired in transit", LineType.UNREACHABLE),
+                failure("could not find host", LineType.UNKNOWN_HOST),
+                failure("general failure", LineType.FAILURE),
+                failure("transmit failed", LineType.FAILURE),
+                failure("no resources", LineType.FAILURE),
+                field("reply from", Field.REPLY_MARKER),
+                field("time=", Field.RTT),
+                field("time<", Field.RTT_BELOW),
+                field("ttl=", Field.TTL)
+        ),
+        LINUX_IPUTILS(
+                failure("no answer yet", LineType.TIMEOUT),
+                failure("destination host unreachable", LineType.UNREACHABLE),
+                failure("destination net unreachable", LineType.UNREACHABLE),
+                failure("time to live exceeded", LineType.UNREACHABLE),
+                failure("name or service not known", LineType.UNKNOWN_HOST),
+                failure("unknown host", LineType.UNKNOWN_HOST),
+                failure("temporary failure in name resolution", LineType.UNKNOWN_HOST),
+                failure("network is unreachable", LineType.FAILURE),
+                failure("sendmsg:", LineType.FAILURE),
+                field("bytes from", Field.REPLY_MARKER),
+                field("time=", Field.RTT),
+                field("ttl=", Field.TTL),
+                field("icmp_seq=", Field.SEQUENCE)
+        ),
+        /**
+         * Note: BusyBox doesn't print anything for requests that time out, only the statistics at the end
+         * tell about them. A process without any reply ends with "100% packet loss", which counts as a timeout,
+         * and {@link ProcessProbeEngine} counts a request without output in time as a timeout, see {@link #reportsTimeouts()}
+         */
+        BUSYBOX(
+                failure("100% packet loss", LineType.TIMEOUT),
+                failure("bad address", LineType.UNKNOWN_HOST),
+                failure("network is unreachable", LineType.FAILURE),
+                failure("sendto:", LineType.FAILURE),
+                field("bytes from", Field.REPLY_MARKER),
+                field("time=", Field.RTT),
+                field("ttl=", Field.TTL),
+                field("seq=", Field.SEQUENCE)
+        );
+
+        // tokens indexed by their first character
+        private final Token[][] tokensByFirstChar;
+
+        Dialect(Token... tokens) {
+            List<List<Token>> table = new ArrayList<>(128);
+            for(int i = 0; i < 128; i++) table.add(new ArrayList<>());
+            for(Token token : tokens){
+                table.get(token.text[0]).add(token);
+            }
+            tokensByFirstChar = new Token[128][];
+            for(int i = 0; i < 128; i++){
+                tokensByFirstChar[i] = table.get(i).toArray(new Token[0]);
+            }
+        }
+
+        /**
+         * @return false if the ping prints nothing for a request that gets no reply
+         */
+        public boolean reportsTimeouts() {
+            return this != BUSYBOX;
+        }
+
+        /**
+         * @return the ping flag that sets the number of echo requests
+         */
+        public String getCountFlag() {
+            return this == WINDOWS ? "-n" : "-c";
+        }
+
+        /**
+         * @param count the number of echo requests the process sends before it exits
+         * @param timeout the time to wait for each reply in milliseconds
+         */
+        @SuppressWarnings("unchecked")
+        public Pair<String,String>[] getParams(int count, int timeout) {
+            String seconds = String.valueOf(Math.max(1, (int) Math.ceil(timeout / 1000.0)));
+            return switch(this){
+                case WINDOWS -> (Pair<String,String>[]) new Pair<?,?>[]{
+                        Pair.of(getCountFlag(), String.valueOf(count)),
+                        Pair.of("-w", String.valueOf(timeout))
+                };
+                // -O reports requests that got no reply, otherwise timeouts go unnoticed
+                case LINUX_IPUTILS -> (Pair<String,String>[]) new Pair<?,?>[]{
+                        Pair.of(getCountFlag(), String.valueOf(count)),
+                        Pair.of("-W", seconds),
+                        Pair.of("-O", null)
+                };
+                case BUSYBOX -> (Pair<String,String>[]) new Pair<?,?>[]{
+                        Pair.of(getCountFlag(), String.valueOf(count)),
+                        Pair.of("-W", seconds)
+                };
+            };
+        }
+
+        public static Dialect parse(String value) {
+            return switch(value.strip().toLowerCase()){
+                case "auto" -> detect();
+                case "windows" -> WINDOWS;
+                case "linux", "iputils" -> LINUX_IPUTILS;
+                case "busybox" -> BUSYBOX;
+                default -> throw new IllegalArgumentException("Unknown ping dialect: "+value);
+            };
+        }
+
+        /**
+         * @return the dialect of the ping command on this machine
+         */
+        public static Dialect detect() {
+            if(System.getProperty("os.name").toLowerCase().contains("windows")){
+                return WINDOWS;
+            }
+            for(String location : new String[]{"/bin/ping", "/usr/bin/ping", "/sbin/ping"}){
+                try {
+                    Path path = Path.of(location);
+                    if(Files.isSymbolicLink(path) && Files.readSymbolicLink(path).toString().contains("busybox")){
+                        return BUSYBOX;
+                    }
+                } catch (Exception ignored) {}
+            }
+            return LINUX_IPUTILS;
+        }
+
+        private static Token failure(String text, LineType type) {
+            return new Token(text.toCharArray(), type, Field.NONE);
+        }
+
+        private static Token field(String text, Field field) {
+            return new Token(text.toCharArray(), null, field);
+        }
+    }
+
+    private final Dialect dialect;
+    private LineType type;
+    private long rttNanos;
+    private int ttl;
+    private int sequence;
+
+    // scratch space for number parsing
+    private int numberEnd;
+
+    public PingOutputParser(Dialect dialect) {
+        this.dialect = dialect;
+    }
+
+    public LineType parse(CharSequence line) {
+        LineType failure = null;
+        boolean replyMarker = false;
+        rttNanos = -1;
+        ttl = -1;
+        sequence = -1;
+
+        int length = line.length();
+        int i = 0;
+        while(i < length){
+            char c = toLower(line.charAt(i));
+            int next = i + 1;
+            if(c < 128){
+                for(Token token : dialect.tokensByFirstChar[c]){
+                    if(! matchesAt(line, i, token.text)) continue;
+                    int valueStart = i + token.text.length;
+                    switch(token.field){
+                        case NONE -> {
+                            if(failure == null) failure = token.type;
+                        }
+                        case REPLY_MARKER -> replyMarker = true;
+                        case RTT -> rttNanos = parseMillisAsNanos(line, valueStart);
+                        case RTT_BELOW -> {
+                            parseMillisAsNanos(line, valueStart);
+                            rttNanos = 0;
+                        }
+                        case TTL -> ttl = (int) parseInt(line, valueStart);
+                        case SEQUENCE -> sequence = (int) parseInt(line, valueStart);
+                    }
+                    next = token.field == Field.NONE || token.field == Field.REPLY_MARKER
+                            ? valueStart
+                            : Math.max(valueStart, numberEnd);
+                    break;
+                }
+            }
+            i = next;
+        }
+
+        if(failure != null){
+            type = failure;
+        } else if(replyMarker){
+            type = LineType.REPLY;
+        } else {
+            type = LineType.OTHER;
+        }
+        return type;
+    }
+
+    public LineType getType() {
+        return type;
+    }
+
+    /**
+     * @return the round trip time of the last reply in nanoseconds, or -1 if there was none
+     */
+    public long getRttNanos() {
+        return rttNanos;
+    }
+
+    /**
+     * @return the TTL of the last reply, or -1 if there was none
+     */
+    public int getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @return the sequence number of the last line, or -1 if the dialect doesn't print it
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    public Dialect getDialect() {
+        return dialect;
+    }
+
+    private static boolean matchesAt(CharSequence line, int start, char[] text) {
+        if(start + text.length > line.length()) return false;
+        for(int i = 1; i < text.length; i++){
+            if(toLower(line.charAt(start + i)) != text[i]) return false;
+        }
+        return true;
+    }
+
+    private static char toLower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * Only ASCII digits: localized ones (Arabic-Indic, fullwidth) are not worth a guess at their value
+     */
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private long parseInt(CharSequence line, int start) {
+        long value = 0;
+        int i = start;
+        while(i < line.length() && isDigit(line.charAt(i))){
+            value = value * 10 + (line.charAt(i) - '0');
+            i++;
+        }
+        numberEnd = i;
+        return i == start ? -1 : value;
+    }
+
+    /**
+     * Parses milliseconds with an optional fraction, like "14" or "14.123"
+     */
+    private long parseMillisAsNanos(CharSequence line, int start) {
+        long millis = parseInt(line, start);
+        if(millis == -1) return -1;
+        long nanos = millis * 1_000_000;
+        int i = numberEnd;
+        if(i < line.length() && line.charAt(i) == '.'){
+            long scale = 100_000;
+            i++;
+            while(i < line.length() && isDigit(line.charAt(i))){
+                nanos += (line.charAt(i) - '0') * scale;
+                scale /= 10;
+                i++;
+            }
+            numberEnd = i;
+        }
+        return nanos;
+    }
+}
@@ -0,0 +1,140 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events of the monitoring pipeline.
+ * <p>
+ * Record them with {@code java -XX:StartFlightRecording=filename=tester.jfr ...} and open the file in
+ * JDK Mission Control, or print them with {@code jfr print --categories "Internet Tester" tester.jfr}.
+ * When no recording is running, an event costs a check of a flag.
+ * <p>
+ * Until the recorder is started the events aren't created at all, see {@link #isRecorderInitialized}.
+ */
+public final class PipelineEvents {
+
+    private PipelineEvents() {}
+
+    /**
+     * @return true once the flight recorder was started, by -XX:StartFlightRecording or later by jcmd JFR.start.
+     * Loading the first event class sets up the recorder's metadata, which took a quarter of a second
+     * before the first probe, so the events are only created after this returns true
+     */
+    public static boolean isRecorderInitialized() {
+        return FlightRecorder.isInitialized();
+    }
+
+    @Name("internettester.Probe")
+    @Label("Probe")
+    @Category("Internet Tester")
+    @Description("A probe of an address. The duration is the whole probe, including the time spent by the program")
+    @StackTrace(false)
+    public static class Probe extends Event {
+        @Label("Address")
+        public String address;
+        @Label("Connected")
+        public boolean connected;
+        @Label("Round Trip Time")
+        @Timespan
+        public long rtt;
+        @Label("Overhead")
+        @Description("The part of the probe that was spent in the program rather than on the network, -1 if unknown")
+        @Timespan
+        public long overhead;
+        @Label("Connect")
+        @Description("The time to open the connection of an HTTP probe, -1 for the other probes")
+        @Timespan
+        public long connect;
+        @Label("First Byte")
+        @Description("The time to the first byte of the reply of an HTTP or DNS probe, -1 for the other probes")
+        @Timespan
+        public long firstByte;
+    }
+
+    @Name("internettester.ProcessSpawn")
+    @Label("Ping Process Spawn")
+    @Category("Internet Tester")
+    @StackTrace(false)
+    public static class ProcessSpawn extends Event {
+        @Label("Address")
+        public String address;
+        @Label("Command")
+        public String command;
+    }
+
+    /** Disabled by default, there is one for every line of ping output */
+    @Name("internettester.Parse")
+    @Label("Ping Output Parse")
+    @Category("Internet Tester")
+    @Enabled(false)
+    @StackTrace(false)
+    public static class Parse extends Event {
+        @Label("Address")
+        public String address;
+        @Label("Line Type")
+        public String lineType;
+    }
+
+    @Name("internettester.LogWrite")
+    @Label("Log Write")
+    @Category("Internet Tester")
+    @Description("A batch of log messages written, and flushed if it was due, by the log writer thread")
+    @StackTrace(false)
+    public static class LogWrite extends Event {
+        @Label("Messages")
+        public int messages;
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+        @Label("Flushed")
+        public boolean flushed;
+    }
+
+    @Name("internettester.StateTransition")
+    @Label("State Transition")
+    @Category("Internet Tester")
+    @StackTrace(false)
+    public static class StateTransition extends Event {
+        @Label("Group")
+        public String group;
+        @Label("Address")
+        public String address;
+        @Label("Address Down")
+        public boolean addressDown;
+        @Label("Group State")
+        public String groupState;
+        @Label("Down Addresses")
+        public int downAddresses;
+    }
+
+    @Name("internettester.TargetRestart")
+    @Label("Target Restart")
+    @Category("Internet Tester")
+    @Description("The probing of an address failed with an exception, and only that address is probed again after the back-off")
+    @StackTrace(false)
+    public static class TargetRestart extends Event {
+        @Label("Address")
+        public String address;
+        @Label("Exception")
+        public String exception;
+        @Label("Back-off")
+        @Timespan
+        public long backoff;
+    }
+
+    @Name("internettester.ConfigReload")
+    @Label("Config Reload")
+    @Category("Internet Tester")
+    @StackTrace(false)
+    public static class ConfigReload extends Event {
+        @Label("Changed Settings")
+        public String changed;
+    }
+}
@@ -0,0 +1,18 @@
+/**
+ * The part of a {@link PingEndPoint} that actually checks if the target responds.
+ * <p>
+ * Engines that run inside the JVM don't need to be started or stopped,
+ * so they can rely on the default implementations.
+ */
+public interface ProbeEngine {
+
+    ProbeResult probe(int timeout);
+
+    default void start() {}
+
+    default void stop() {}
+
+    default boolean isRunning() {
+        return true;
+    }
+}
@@ -0,0 +1,40 @@
+import java.util.Map;
+import java.util.function.Supplier;
+
+public enum ProbeMode {
+
+    /** Forks the OS {@code ping} and parses its output */
+    PROCESS,
+
+    /** ICMP echo through {@link java.net.InetAddress#isReachable(int)} */
+    ICMP,
+
+    /** Opens a TCP connection to the target */
+    TCP,
+
+    /** Non-blocking TCP connects for all the targets, driven by {@link SelectorProber} */
+    NIO;
+
+    public static ProbeMode parse(String value) {
+        return switch(value.strip().toLowerCase()){
+            case "process", "ping" -> PROCESS;
+            case "icmp" -> ICMP;
+            case "tcp" -> TCP;
+            case "nio" -> NIO;
+            default -> throw new IllegalArgumentException("Unknown probe mode: "+value);
+        };
+    }
+
+    /**
+     * @param params the current ping flags, only used by {@link #PROCESS}
+     * @param dialect the output format of the ping command, only used by {@link #PROCESS}
+     */
+    public ProbeEngine createEngine(String ip, Supplier<Map<String,String>> params, PingOutputParser.Dialect dialect) {
+        return switch(this){
+            case PROCESS -> new ProcessProbeEngine(ip, params, dialect);
+            case ICMP -> new IcmpProbeEngine(ip);
+            case TCP -> new TcpProbeEngine(ip);
+            case NIO -> throw new IllegalStateException("NIO probes are driven by a SelectorProber, not by an engine per address");
+        };
+    }
+}
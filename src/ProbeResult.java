@@ -0,0 +1,95 @@
+import java.util.concurrent.TimeUnit;
+
+public class ProbeResult {
+
+    public enum Status {
+        SUCCESS,
+        TIMEOUT,
+        UNREACHABLE,
+        ERROR
+    }
+
+    private final Status status;
+    private final long rttNanos;
+    private final long connectNanos;
+    private final long firstByteNanos;
+    private final String output;
+
+    private ProbeResult(Status status, long rttNanos, long connectNanos, long firstByteNanos, String output) {
+        this.status = status;
+        this.rttNanos = rttNanos;
+        this.connectNanos = connectNanos;
+        this.firstByteNanos = firstByteNanos;
+        this.output = output;
+    }
+
+    /**
+     * @param rttNanos the round trip time in nanoseconds, or -1 if it is unknown
+     */
+    public static ProbeResult success(long rttNanos, String output) {
+        return new ProbeResult(Status.SUCCESS, rttNanos, -1, -1, output);
+    }
+
+    /**
+     * For the probes that go through phases, like an HTTP request. The phases are nanoseconds from the start of the probe,
+     * or -1 for the ones the probe doesn't have
+     * @param connectNanos the time to open the connection
+     * @param firstByteNanos the time to the first byte of the reply
+     */
+    public static ProbeResult success(long rttNanos, long connectNanos, long firstByteNanos, String output) {
+        return new ProbeResult(Status.SUCCESS, rttNanos, connectNanos, firstByteNanos, output);
+    }
+
+    public static ProbeResult failure(Status status, String output) {
+        return failure(status, -1, -1, output);
+    }
+
+    /**
+     * A failure after some of the phases, like an HTTP server that accepted the connection but answered with an error
+     */
+    public static ProbeResult failure(Status status, long connectNanos, long firstByteNanos, String output) {
+        if(status == Status.SUCCESS){
+            throw new IllegalArgumentException("A failure can't have a success status");
+        }
+        return new ProbeResult(status, -1, connectNanos, firstByteNanos, output);
+    }
+
+    public boolean isConnected() {
+        return status == Status.SUCCESS;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public long getRttNanos() {
+        return rttNanos;
+    }
+
+    public long getRttMillis() {
+        return rttNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(rttNanos);
+    }
+
+    /**
+     * @return the time to open the connection in nanoseconds, or -1 if the probe doesn't have it
+     */
+    public long getConnectNanos() {
+        return connectNanos;
+    }
+
+    /**
+     * @return the time to the first byte of the reply in nanoseconds, or -1 if the probe doesn't have it
+     */
+    public long getFirstByteNanos() {
+        return firstByteNanos;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    @Override
+    public String toString() {
+        return output;
+    }
+}
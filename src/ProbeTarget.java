@@ -0,0 +1,98 @@
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * What a {@link SelectorProber} probes at an address, read from the address itself:
+ * <ul>
+ *     <li>{@code tcp://host:port} - a TCP connection, the same as a plain {@code host:port} (port 443 by default)</li>
+ *     <li>{@code http://host:port/path} - an HTTP HEAD request, any status below 500 counts as a response</li>
+ *     <li>{@code dns://server:port/name} - a DNS query for the A record of the name, answered or not found both count</li>
+ * </ul>
+ * HTTPS isn't supported, {@code tcp://host:443} checks that the port answers.
+ */
+public record ProbeTarget(Type type, InetSocketAddress server, String path, byte[] request) {
+
+    public enum Type { TCP, HTTP, DNS }
+
+    public static final int HTTP_PORT = 80;
+    public static final int DNS_PORT = 53;
+    private static final String SEPARATOR = "://";
+
+    /**
+     * @return true for an address with a probe type in front, like {@code dns://1.1.1.1/example.com}
+     */
+    public static boolean hasScheme(String address) {
+        return address.contains(SEPARATOR);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the address has a probe type that is unknown or malformed
+     */
+    public static ProbeTarget parse(String address) {
+        if(! hasScheme(address)) return new ProbeTarget(Type.TCP, TcpProbeEngine.toSocketAddress(address), null, null);
+
+        String scheme = address.substring(0, address.indexOf(SEPARATOR)).toLowerCase();
+        URI uri;
+        try {
+            uri = new URI(address);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid address \"%s\": %s".formatted(address, e.getReason()));
+        }
+        if(uri.getHost() == null) throw new IllegalArgumentException("No host in \"%s\"".formatted(address));
+
+        return switch(scheme){
+            case "tcp" -> new ProbeTarget(Type.TCP, server(uri, TcpProbeEngine.DEFAULT_PORT), null, null);
+            case "http" -> {
+                String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+                if(uri.getRawQuery() != null) path += "?" + uri.getRawQuery();
+                String host = uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+                yield new ProbeTarget(Type.HTTP, server(uri, HTTP_PORT), path, httpRequest(host, path));
+            }
+            case "dns" -> {
+                String name = uri.getPath() == null ? "" : uri.getPath().replaceAll("^/+|/+$", "");
+                if(name.isEmpty()) throw new IllegalArgumentException("No name to look up in \"%s\", like dns://1.1.1.1/example.com".formatted(address));
+                yield new ProbeTarget(Type.DNS, server(uri, DNS_PORT), name, dnsQuery(name));
+            }
+            case "https" -> throw new IllegalArgumentException("https isn't supported: \"%s\", use http:// or tcp://host:443".formatted(address));
+            default -> throw new IllegalArgumentException("Unknown probe type \"%s\" in \"%s\", use tcp, http or dns".formatted(scheme, address));
+        };
+    }
+
+    private static InetSocketAddress server(URI uri, int defaultPort) {
+        String host = uri.getHost();
+        // the brackets of an IPv6 address are part of the URI, not of the host
+        if(host.startsWith("[")) host = host.substring(1, host.length() - 1);
+        return InetSocketAddress.createUnresolved(host, uri.getPort() == -1 ? defaultPort : uri.getPort());
+    }
+
+    private static byte[] httpRequest(String host, String path) {
+        return ("HEAD " + path + " HTTP/1.1\r\n"
+                + "Host: " + host + "\r\n"
+                + "User-Agent: internet-tester\r\n"
+                + "Accept: */*\r\n"
+                + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * A query for the A record of the name, with recursion. The id, the first 2 bytes, is set for every probe
+     */
+    private static byte[] dnsQuery(String name) {
+        ByteBuffer query = ByteBuffer.allocate(12 + name.length() + 2 + 4);
+        query.putShort((short) 0); // id
+        query.putShort((short) 0x0100); // a standard query, recursion desired
+        query.putShort((short) 1); // one question
+        query.putShort((short) 0).putShort((short) 0).putShort((short) 0);
+        for(String label : name.split("\\.")){
+            byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+            if(bytes.length == 0 || bytes.length > 63) throw new IllegalArgumentException("Invalid name to look up: "+name);
+            query.put((byte) bytes.length).put(bytes);
+        }
+        query.put((byte) 0);
+        query.putShort((short) 1); // A
+        query.putShort((short) 1); // IN
+        return query.array();
+    }
+}
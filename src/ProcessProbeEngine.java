@@ -0,0 +1,294 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * The original probing method - forks the OS {@code ping} and parses its output line by line.
+ * <p>
+ * A ping process only sends a fixed number of echo requests, so the engine keeps rotating processes.
+ * When the current process has a single echo request left, a successor is started next to it,
+ * and by the time the current one exits the successor is already pinging - the target is never left unmonitored
+ * while a new process forks and prints its header.
+ * If a process exits early, on an error like an unknown host, the next one is started on the spot like before.
+ * BusyBox ping doesn't exit early when requests get no reply, it prints nothing for them: the engine counts
+ * them as timeouts itself, so the requests left are still known, see {@link #probe(int)}.
+ */
+public class ProcessProbeEngine implements ProbeEngine {
+
+    /**
+     * Handovers between consecutive ping processes.
+     * The gap of a handover is the time between the last result of a process and the first result of the next one
+     */
+    public record Handovers(long count, long overlapped, long lastGapNanos, long maxGapNanos, long totalGapNanos) {
+        public double getAverageGapMillis() {
+            return count == 0 ? 0 : totalGapNanos / (double) count / 1_000_000;
+        }
+    }
+
+    private static final int SUCCESSOR_LEAD = 1; // echo requests left in the current process when the successor starts
+    private static final long REQUEST_INTERVAL = 1000; // the default interval of ping
+    private static final long OUTPUT_POLL_INTERVAL = 10;
+
+    private final String ip;
+    private final String executable;
+    private final Supplier<Map<String,String>> params;
+    private final PingOutputParser parser;
+    private volatile Process proc; // stopped from other threads when the flags change
+    private volatile Process successor;
+    private volatile boolean stopped; // destroying the process closes its output under the reader
+    private BufferedReader stdInput;
+    private int requestsLeft;
+
+    // handover metrics
+    private boolean handoverPending;
+    private boolean handoverOverlapped;
+    private long lastResultTime;
+    private long handoverCount;
+    private long overlappedCount;
+    private long lastGap;
+    private long maxGap;
+    private long totalGap;
+
+    /**
+     * @param params the ping flags. They are fetched every time a process starts,
+     *               so new flags from the owner apply on the next start
+     */
+    public ProcessProbeEngine(String ip, Supplier<Map<String,String>> params, PingOutputParser.Dialect dialect) {
+        this(ip, "ping", params, dialect);
+    }
+
+    /**
+     * @param executable the ping command to run, for ping executables that aren't on the path as "ping"
+     */
+    public ProcessProbeEngine(String ip, String executable, Supplier<Map<String,String>> params, PingOutputParser.Dialect dialect) {
+        this.ip = ip;
+        this.executable = executable;
+        this.params = params;
+        parser = new PingOutputParser(dialect);
+    }
+
+    @Override
+    public void start(){
+        if(isRunning()){
+            throw new IllegalStateException("Process is already running");
+        }
+        proc = spawn();
+        stopped = false;
+        stdInput = new BufferedReader(new InputStreamReader(proc.getInputStream()));
+        requestsLeft = getRequestCount();
+    }
+
+    @Override
+    public void stop(){
+        if(proc == null) return;
+        if(! isRunning()){
+            throw new IllegalStateException("Process is not running");
+        }
+        stopped = true;
+        Process next = successor;
+        if(next != null) next.destroy();
+        if(proc != null) proc.destroy();
+    }
+
+    /**
+     * A process that ran out of echo requests still counts as running while its successor is alive,
+     * the handover is done on the next probe
+     */
+    @Override
+    public boolean isRunning(){
+        Process current = proc;
+        Process next = successor;
+        return (current != null && current.isAlive()) || (next != null && next.isAlive());
+    }
+
+    /**
+     * The timeout is passed to the process through the ping flags. It is only used here for a ping that prints
+     * nothing for a request without a reply: no output for the interval and the timeout counts as a timeout.
+     * <p>
+     * Lines that aren't about a single echo request (headers, statistics) are skipped,
+     * and the output continues from the next process when the current one runs out of echo requests.
+     */
+    @Override
+    public ProbeResult probe(int timeout) {
+        long deadline = parser.getDialect().reportsTimeouts() ? 0 : System.nanoTime() + (REQUEST_INTERVAL + timeout) * 1_000_000;
+        while(true){
+            if(deadline != 0 && ! waitForOutput(deadline)){
+                // the request went out, so it counts like a result
+                onResult();
+                return ProbeResult.failure(ProbeResult.Status.TIMEOUT, "No reply from %s in %d ms".formatted(ip, REQUEST_INTERVAL + timeout));
+            }
+            String output = readOutputLine();
+            if(output == null){
+                handOver();
+                continue;
+            }
+            if(parse(output) == PingOutputParser.LineType.OTHER) continue;
+
+            // lines the successor printed while the previous process finished are returned one by one like any other,
+            // they are already waiting, so the results catch up with real time within a few probes
+            ProbeResult result = toResult(parser, output);
+            onResult();
+            return result;
+        }
+    }
+
+    static ProbeResult toResult(PingOutputParser parser, String output) {
+        return switch(parser.getType()){
+            case REPLY -> ProbeResult.success(parser.getRttNanos(), output);
+            case TIMEOUT -> ProbeResult.failure(ProbeResult.Status.TIMEOUT, output);
+            case UNREACHABLE -> ProbeResult.failure(ProbeResult.Status.UNREACHABLE, output);
+            case UNKNOWN_HOST, FAILURE, OTHER -> ProbeResult.failure(ProbeResult.Status.ERROR, output);
+        };
+    }
+
+    /**
+     * @return the next line of output, or null if the process finished
+     */
+    public String readOutputLine() {
+        try {
+            return stdInput.readLine();
+        } catch (IOException e) {
+            if(stopped) return null;
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return false if the process printed nothing until the deadline (System.nanoTime()), true if there is a line
+     *         to read or the process ended
+     */
+    private boolean waitForOutput(long deadline) {
+        try {
+            while(! stdInput.ready()){
+                Process current = proc;
+                if(current == null || ! current.isAlive() || stopped) return true;
+                if(System.nanoTime() >= deadline) return false;
+                Thread.sleep(OUTPUT_POLL_INTERVAL);
+            }
+            return true;
+        } catch (IOException e) {
+            return true; // the next read reports it
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        }
+    }
+
+    public synchronized Handovers getHandovers() {
+        return new Handovers(handoverCount, overlappedCount, lastGap, maxGap, totalGap);
+    }
+
+    private void onResult() {
+        long now = System.nanoTime();
+        if(handoverPending){
+            handoverPending = false;
+            if(lastResultTime != 0) recordHandover(now - lastResultTime, handoverOverlapped);
+        }
+        lastResultTime = now;
+
+        requestsLeft--;
+        if(requestsLeft == SUCCESSOR_LEAD && successor == null && ! stopped){
+            successor = spawn();
+            // stop() could have missed the successor while it was starting
+            if(stopped) successor.destroy();
+        }
+    }
+
+    private synchronized void recordHandover(long gap, boolean overlapped) {
+        handoverCount++;
+        if(overlapped) overlappedCount++;
+        lastGap = gap;
+        maxGap = Math.max(maxGap, gap);
+        totalGap += gap;
+    }
+
+    /**
+     * Continues from the successor if there is one, otherwise starts a new process
+     */
+    private void handOver() {
+        try {
+            proc.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+
+        Process next = successor;
+        successor = null;
+        handoverPending = true;
+        if(next != null && ! stopped){
+            handoverOverlapped = true;
+            proc = next;
+            stdInput = new BufferedReader(new InputStreamReader(next.getInputStream()));
+            requestsLeft = getRequestCount();
+            return;
+        }
+
+        // stopped because the flags changed, so the successor has the old flags
+        if(next != null) next.destroy();
+        handoverOverlapped = false;
+        start();
+    }
+
+    /**
+     * @return the number of echo requests a process sends, or -1 if it keeps pinging until it is stopped
+     */
+    private int getRequestCount() {
+        String count = params.get().get(parser.getDialect().getCountFlag());
+        if(count == null) return -1;
+        try {
+            return Integer.parseInt(count);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private PingOutputParser.LineType parse(String output) {
+        PipelineEvents.Parse event = PipelineEvents.isRecorderInitialized() ? new PipelineEvents.Parse() : null;
+        if(event != null) event.begin();
+        long start = System.nanoTime();
+        PingOutputParser.LineType type = parser.parse(output);
+        SelfOverhead.record(SelfOverhead.Stage.PARSE, System.nanoTime() - start);
+        if(event != null && event.shouldCommit()){
+            event.address = ip;
+            event.lineType = type.name();
+            event.commit();
+        }
+        return type;
+    }
+
+    private Process spawn() {
+        PipelineEvents.ProcessSpawn event = PipelineEvents.isRecorderInitialized() ? new PipelineEvents.ProcessSpawn() : null;
+        if(event != null) event.begin();
+        long start = System.nanoTime();
+        String[] command = paramsToCommand();
+        try {
+            // some systems print errors like an unknown host to stderr
+            return new ProcessBuilder(command).redirectErrorStream(true).start();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            SelfOverhead.record(SelfOverhead.Stage.PROCESS_SPAWN, System.nanoTime() - start);
+            if(event != null && event.shouldCommit()){
+                event.address = ip;
+                event.command = String.join(" ", command);
+                event.commit();
+            }
+        }
+    }
+
+    private String[] paramsToCommand() {
+        List<String> command = new ArrayList<>();
+        command.add(executable);
+        command.add(ip);
+        for (var param : params.get().entrySet()) {
+            command.add(param.getKey());
+            if(param.getValue() != null) command.add(param.getValue());
+        }
+        return command.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,49 @@
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Prints the samples of a single target from a sample store.
+ * <p>
+ * Usage: {@code java -cp internet-tester.jar SampleQuery <samples folder> <address> "<from>" "<to>"}<br/>
+ * The times are in the same format as the logs, for example "07/03/2024 09:00:00"
+ */
+public class SampleQuery {
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss");
+
+    public static void main(String[] args) throws Exception {
+        if(args.length != 4){
+            System.out.println("usage: SampleQuery <samples folder> <address> \"<from>\" \"<to>\"");
+            System.out.println("  times are in the format \"dd/MM/yyyy HH:mm:ss\"");
+            return;
+        }
+
+        Path folder = Path.of(args[0]);
+        long from = toEpochMillis(args[2]);
+        long to = toEpochMillis(args[3]) + 999; // include the whole last second
+
+        long start = System.nanoTime();
+        var samples = SampleStore.query(folder, args[1], from, to);
+        long queryMicros = (System.nanoTime() - start) / 1000;
+
+        StringBuilder output = new StringBuilder();
+        for(var sample : samples){
+            LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(sample.time()), ZoneId.systemDefault());
+            output.append('[').append(Main.getTimestamp(time)).append("] ")
+                    .append(sample.status());
+            if(sample.rttMicros() >= 0){
+                output.append(' ').append(sample.rttMicros() / 1000.0).append(" ms");
+            }
+            output.append('\n');
+        }
+        System.out.print(output);
+        System.out.printf("%d samples in %.3f ms%n", samples.size(), queryMicros / 1000.0);
+    }
+
+    private static long toEpochMillis(String time) {
+        return LocalDateTime.parse(time, TIME_FORMAT).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,258 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * An append-only store of every probe sample, in fixed-width binary records.
+ * <p>
+ * The samples are kept in memory-mapped segment files named after the time of their first sample,
+ * which makes the list of segment names the time index: a range query only opens the segments that overlap it,
+ * and finds its first record in each one with a binary search, since records are appended in time order.
+ * <p>
+ * Segment layout:
+ * <pre>
+ * header (32 bytes): magic (int), version (int), base time in epoch millis (long), record count (int), capacity (int)
+ * records (12 bytes each): time since base in millis (int), rtt in microseconds or -1 (int),
+ *                          target id (unsigned short), status (byte), reserved (byte)
+ * </pre>
+ * Target names are kept in "targets.txt", where the line number is the target id.
+ */
+public class SampleStore implements Closeable {
+
+    public record Sample(long time, String target, ProbeResult.Status status, long rttMicros) {}
+
+    public interface SampleConsumer {
+        void accept(long time, int targetId, ProbeResult.Status status, long rttMicros);
+    }
+
+    private static final int MAGIC = 0x50494E47; // "PING"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 12;
+    private static final int COUNT_OFFSET = 16;
+    private static final int CAPACITY_OFFSET = 20;
+    private static final int DEFAULT_SEGMENT_CAPACITY = 1 << 20;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".bin";
+    private static final String TARGETS_FILE = "targets.txt";
+    private static final ProbeResult.Status[] STATUSES = ProbeResult.Status.values();
+
+    private final Path folder;
+    private final int segmentCapacity;
+    private final List<String> targetNames;
+    private final Map<String,Integer> targetIds;
+
+    // the store's clock - wall clock time that never goes backwards while the store is open
+    private final long wallClockAnchor;
+    private final long nanoTimeAnchor;
+    private long lastTime;
+
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long segmentBase;
+    private int segmentCount;
+    private boolean closed;
+
+    public SampleStore(Path folder) throws IOException {
+        this(folder, DEFAULT_SEGMENT_CAPACITY);
+    }
+
+    public SampleStore(Path folder, int segmentCapacity) throws IOException {
+        this.folder = folder;
+        this.segmentCapacity = segmentCapacity;
+        targetNames = readTargets(folder);
+        targetIds = new HashMap<>();
+        for(int i = 0; i < targetNames.size(); i++){
+            targetIds.put(targetNames.get(i), i);
+        }
+        wallClockAnchor = System.currentTimeMillis();
+        nanoTimeAnchor = System.nanoTime();
+    }
+
+    /**
+     * @return the id to append samples of this target with. New targets are added to the store
+     */
+    public synchronized int getTargetId(String target) throws IOException {
+        Integer id = targetIds.get(target);
+        if(id != null) return id;
+        if(targetNames.size() > 0xFFFF){
+            throw new IllegalStateException("Too many targets in the sample store");
+        }
+        id = targetNames.size();
+        targetNames.add(target);
+        targetIds.put(target, id);
+        Files.createDirectories(folder);
+        Files.writeString(folder.resolve(TARGETS_FILE), target + "\n", StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        return id;
+    }
+
+    public synchronized void append(String target, ProbeResult result) throws IOException {
+        checkOpen();
+        append(getTargetId(target), result);
+    }
+
+    /**
+     * @throws IOException also once the store is closed, rather than opening a segment again
+     */
+    public synchronized void append(int targetId, ProbeResult result) throws IOException {
+        checkOpen();
+        long time = Math.max(lastTime, wallClockAnchor + (System.nanoTime() - nanoTimeAnchor) / 1_000_000);
+        lastTime = time;
+
+        if(segment == null || segmentCount == segmentCapacity || time - segmentBase > Integer.MAX_VALUE){
+            openSegment(time);
+            // the segment we continued could end after our clock, if the wall clock moved back since it was written
+            time = Math.max(time, lastTime);
+            lastTime = time;
+        }
+
+        long rtt = result.getRttNanos();
+        int position = HEADER_SIZE + segmentCount * RECORD_SIZE;
+        segment.putInt(position, (int) (time - segmentBase));
+        segment.putInt(position + 4, rtt < 0 ? -1 : (int) Math.min(Integer.MAX_VALUE, rtt / 1000));
+        segment.putChar(position + 8, (char) targetId);
+        segment.put(position + 10, (byte) result.getStatus().ordinal());
+        segmentCount++;
+        segment.putInt(COUNT_OFFSET, segmentCount);
+    }
+
+    private void checkOpen() throws IOException {
+        if(closed) throw new IOException("The sample store in " + folder + " is closed");
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        closeSegment();
+    }
+
+    private void closeSegment() throws IOException {
+        if(channel != null){
+            segment.force();
+            channel.close();
+            channel = null;
+            segment = null;
+        }
+    }
+
+    /**
+     * @return all the samples of the target between the two times (epoch millis, inclusive)
+     */
+    public static List<Sample> query(Path folder, String target, long from, long to) throws IOException {
+        List<String> targets = readTargets(folder);
+        int targetId = targets.indexOf(target);
+        List<Sample> samples = new ArrayList<>();
+        if(targetId == -1) return samples;
+        forEach(folder, from, to, (time, id, status, rtt) -> {
+            if(id == targetId) samples.add(new Sample(time, target, status, rtt));
+        });
+        return samples;
+    }
+
+    /**
+     * Passes every sample between the two times (epoch millis, inclusive) to the consumer, in time order
+     */
+    public static void forEach(Path folder, long from, long to, SampleConsumer consumer) throws IOException {
+        List<Long> bases = listSegments(folder);
+        for(int i = 0; i < bases.size(); i++){
+            long base = bases.get(i);
+            boolean startsAfterRange = base > to;
+            boolean endsBeforeRange = i + 1 < bases.size() && bases.get(i + 1) < from;
+            if(startsAfterRange || endsBeforeRange) continue;
+
+            try (FileChannel segmentChannel = FileChannel.open(segmentPath(folder, base), StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = segmentChannel.map(FileChannel.MapMode.READ_ONLY, 0, segmentChannel.size());
+                if(buffer.getInt(0) != MAGIC) throw new IOException("Not a sample segment: "+segmentPath(folder, base));
+                int count = buffer.getInt(COUNT_OFFSET);
+
+                // binary search for the first record in range
+                int low = 0;
+                int high = count;
+                while(low < high){
+                    int middle = (low + high) >>> 1;
+                    if(base + buffer.getInt(HEADER_SIZE + middle * RECORD_SIZE) < from) low = middle + 1;
+                    else high = middle;
+                }
+
+                for(int record = low; record < count; record++){
+                    int position = HEADER_SIZE + record * RECORD_SIZE;
+                    long time = base + buffer.getInt(position);
+                    if(time > to) break;
+                    consumer.accept(time,
+                            buffer.getChar(position + 8),
+                            STATUSES[buffer.get(position + 10)],
+                            buffer.getInt(position + 4));
+                }
+            }
+        }
+    }
+
+    public static List<String> readTargets(Path folder) throws IOException {
+        Path targetsFile = folder.resolve(TARGETS_FILE);
+        if(! Files.exists(targetsFile)) return new ArrayList<>();
+        return new ArrayList<>(Files.readAllLines(targetsFile));
+    }
+
+    private void openSegment(long time) throws IOException {
+        closeSegment();
+
+        // continue the latest segment if it has room, otherwise start a new one
+        List<Long> bases = listSegments(folder);
+        if(! bases.isEmpty()){
+            long base = bases.getLast();
+            FileChannel latest = FileChannel.open(segmentPath(folder, base), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = latest.map(FileChannel.MapMode.READ_WRITE, 0, latest.size());
+            int count = buffer.getInt(COUNT_OFFSET);
+            if(count < buffer.getInt(CAPACITY_OFFSET) && time >= base && time - base <= Integer.MAX_VALUE){
+                lastTime = Math.max(lastTime, base + buffer.getInt(HEADER_SIZE + Math.max(count - 1, 0) * RECORD_SIZE));
+                channel = latest;
+                segment = buffer;
+                segmentBase = base;
+                segmentCount = count;
+                return;
+            }
+            latest.close();
+            // the base names the file, so a segment that filled up within a millisecond is followed one millisecond later
+            if(time <= base){
+                time = base + 1;
+                lastTime = Math.max(lastTime, time);
+            }
+        }
+
+        Files.createDirectories(folder);
+        channel = FileChannel.open(segmentPath(folder, time), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) segmentCapacity * RECORD_SIZE);
+        segment.putInt(0, MAGIC);
+        segment.putInt(4, VERSION);
+        segment.putLong(8, time);
+        segment.putInt(COUNT_OFFSET, 0);
+        segment.putInt(CAPACITY_OFFSET, segmentCapacity);
+        segmentBase = time;
+        segmentCount = 0;
+    }
+
+    private static List<Long> listSegments(Path folder) throws IOException {
+        List<Long> bases = new ArrayList<>();
+        if(! Files.isDirectory(folder)) return bases;
+        try (Stream<Path> files = Files.list(folder)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .forEach(name -> bases.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()))));
+        }
+        bases.sort(null);
+        return bases;
+    }
+
+    private static Path segmentPath(Path folder, long base) {
+        return folder.resolve(SEGMENT_PREFIX + base + SEGMENT_SUFFIX);
+    }
+}
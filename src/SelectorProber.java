@@ -0,0 +1,585 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Probes many targets with non-blocking I/O, driven by a few event loop threads.
+ * <p>
+ * A target is a TCP connect, an HTTP HEAD request or a DNS query over UDP, see {@link ProbeTarget}.
+ * The HTTP and DNS probes report the time to connect and to the first byte of the reply besides the round trip time.
+ * <p>
+ * Every target is probed once per interval, or as its {@link AdaptiveSchedule} decides. A probe that doesn't complete before
+ * its deadline is reported as a timeout. Targets are spread evenly between the event loops,
+ * and each target is only ever handled by its own loop, so results for the same target
+ * are always reported from the same thread and in order.
+ * <p>
+ * Each loop keeps the next probe or the deadline of the probe in flight of its targets in its own {@link TimerWheel},
+ * so rescheduling a target costs the same with a hundred thousand targets as with ten, and allocates nothing.
+ * <p>
+ * An exception while handling a target, the listener's included, only restarts that target after the back-off
+ * of its {@link TargetSupervisor}. The loop and the other targets go on.
+ * <p>
+ * Host names are looked up on a few resolver threads, never on a loop: a slow DNS server only delays the targets
+ * that wait for it. A lookup that takes longer than the timeout is reported like a timeout of the probe.
+ */
+public class SelectorProber implements Closeable {
+
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int MAX_STATUS_LINE = 512;
+    private static final int MAX_DATAGRAM = 1500; // the queries ask for no more than 512 bytes
+    private static final int RESOLVER_THREADS = 2;
+
+    public interface Listener {
+        void onResult(int index, ProbeResult result);
+
+        /**
+         * Handling the target failed with an exception, it is probed again in {@code backoffNanos}
+         */
+        default void onFailure(int index, Exception e, long backoffNanos) {}
+
+        /**
+         * An event loop stopped with an exception, see {@link #getException()}
+         */
+        default void onStopped(Exception e) {}
+    }
+
+    private final EventLoop[] loops;
+    private final Listener listener;
+    private final ExecutorService resolver = Executors.newFixedThreadPool(RESOLVER_THREADS,
+            Thread.ofPlatform().name("selector-prober-resolver-", 0).daemon().factory());
+    private volatile long timeoutNanos;
+    private volatile long intervalNanos;
+    private volatile boolean running;
+    private volatile Exception exception;
+    private volatile AdaptiveSchedule[] schedules;
+    private volatile TargetSupervisor[] supervisors;
+
+    /**
+     * @param addresses the targets, see {@link ProbeTarget}. A null address is left to someone else, its index is skipped
+     * @throws IllegalArgumentException if an address is malformed
+     */
+    public SelectorProber(String[] addresses, int loopCount, int timeout, long interval, Listener listener) throws IOException {
+        this.listener = listener;
+        timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+        intervalNanos = TimeUnit.MILLISECONDS.toNanos(interval);
+        supervisors = new TargetSupervisor[addresses.length];
+        for(int i = 0; i < addresses.length; i++) supervisors[i] = new TargetSupervisor();
+        loops = new EventLoop[Math.max(1, Math.min(loopCount, addresses.length))];
+        for(int i = 0; i < loops.length; i++){
+            loops[i] = new EventLoop(i);
+        }
+        long now = System.nanoTime();
+        for(int i = 0; i < addresses.length; i++){
+            if(addresses[i] == null) continue;
+            Target target = new Target(i, addresses[i]);
+            // spread the first probes over the interval so they don't all go out at once
+            long firstProbe = now + intervalNanos * i / addresses.length;
+            loops[i % loops.length].schedule(target, firstProbe);
+        }
+    }
+
+    /**
+     * @return the number of event loop threads to use for this many targets
+     */
+    public static int defaultLoopCount(int targets) {
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), targets / 2500 + 1));
+    }
+
+    public void start() {
+        running = true;
+        for(EventLoop loop : loops) loop.thread.start();
+    }
+
+    /**
+     * Lets every target decide its own interval and timeout. Set before {@link #start()}
+     * @param schedules a schedule for every address, in the same order
+     */
+    public void setSchedules(AdaptiveSchedule[] schedules) {
+        this.schedules = schedules;
+    }
+
+    /**
+     * Keeps the restart counts of every target somewhere the caller can read them. Set before {@link #start()}
+     * @param supervisors a supervisor for every address, in the same order
+     */
+    public void setSupervisors(TargetSupervisor[] supervisors) {
+        this.supervisors = supervisors;
+    }
+
+    public void setTimeout(int timeout) {
+        timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    /**
+     * @return the exception that stopped one of the event loops, or null if they are all fine
+     */
+    public Exception getException() {
+        return exception;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        for(EventLoop loop : loops){
+            loop.selector.wakeup();
+        }
+        for(EventLoop loop : loops){
+            try {
+                loop.thread.join();
+            } catch (InterruptedException ignored) {}
+        }
+        resolver.shutdownNow();
+    }
+
+    /**
+     * The timer of a target is either its next probe, or the deadline of the probe in flight when it has a channel
+     */
+    private static class Target extends TimerWheel.Timer {
+        private final int index;
+        private final String ip;
+        private final ProbeTarget probe;
+        private final ByteBuffer request; // the HTTP request or the DNS query, sent again by every probe
+        private InetSocketAddress address;
+        private boolean resolving; // a lookup is running on a resolver thread
+        private boolean waitingForAddress; // the probe in progress waits for the lookup
+        private SelectableChannel channel;
+        private SelectionKey key;
+        private long probeStart;
+        private long connectNanos; // -1 until the phase is done
+        private long firstByteNanos;
+        private ByteBuffer statusLine; // the start of the HTTP reply
+        private boolean restarting; // the next timer ends the back-off after a failure
+
+        private Target(int index, String ip) {
+            this.index = index;
+            this.ip = ip;
+            probe = ProbeTarget.parse(ip);
+            request = probe.request() == null ? null : ByteBuffer.wrap(probe.request());
+            if(probe.type() == ProbeTarget.Type.HTTP) statusLine = ByteBuffer.allocate(MAX_STATUS_LINE);
+        }
+    }
+
+    /**
+     * The end of a lookup, handed from a resolver thread to the loop of the target
+     * @param address null if the lookup failed
+     */
+    private record Lookup(Target target, InetSocketAddress address, RuntimeException failure, String error) {}
+
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final TimerWheel wheel;
+        private final Thread thread;
+        private final ByteBuffer datagram = ByteBuffer.allocate(MAX_DATAGRAM); // the DNS replies of all the targets
+        private final Queue<Lookup> lookups = new ConcurrentLinkedQueue<>();
+
+        private EventLoop(int id) throws IOException {
+            selector = Selector.open();
+            wheel = new TimerWheel(TICK, System.nanoTime());
+            thread = new Thread(this, "selector-prober-" + id);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while(running){
+                    long now = System.nanoTime();
+                    wheel.advance(now, timer -> handle((Target) timer, null));
+
+                    long wait = wheel.nanosUntilNext(System.nanoTime());
+                    if(wait == 0){
+                        selector.selectNow();
+                    } else {
+                        // rounded up, waking up early would only spin until the tick
+                        selector.select(wait == -1 ? 0 : (wait + 999_999) / 1_000_000);
+                    }
+
+                    for(SelectionKey key : selector.selectedKeys()){
+                        handle((Target) key.attachment(), key);
+                    }
+                    selector.selectedKeys().clear();
+
+                    Lookup lookup;
+                    while((lookup = lookups.poll()) != null){
+                        onLookup(lookup);
+                    }
+                }
+            } catch (Exception e) {
+                exception = e;
+                listener.onStopped(e);
+            } finally {
+                for(SelectionKey key : selector.keys()){
+                    closeQuietly(key.channel());
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {}
+            }
+        }
+
+        private void schedule(Target target, long time) {
+            wheel.schedule(target, time);
+        }
+
+        /**
+         * Handles a due timer of the target, or its channel being ready. An exception restarts the target alone
+         * @param key null for the timer
+         */
+        private void handle(Target target, SelectionKey key) {
+            try {
+                if(key == null) onTimer(target);
+                else if(! key.isValid()) return; // the probe is already over
+                else if(key.isConnectable()) onConnectable(target);
+                else if(key.isWritable()) onWritable(target);
+                else if(key.isReadable()) onReadable(target);
+            } catch (RuntimeException e) {
+                restart(target, e);
+            }
+        }
+
+        private void restart(Target target, RuntimeException e) {
+            closeQuietly(target.channel); // which also takes it out of the selector
+            target.channel = null;
+            target.key = null;
+            target.address = null; // resolved again
+            target.waitingForAddress = false;
+            long now = System.nanoTime();
+            long backoff = supervisors[target.index].onFailure(now);
+            target.restarting = true;
+            schedule(target, now + backoff);
+            try {
+                listener.onFailure(target.index, e, backoff);
+            } catch (RuntimeException ignored) {} // the target restarts anyway
+        }
+
+        private void onTimer(Target target) {
+            if(target.restarting){
+                target.restarting = false;
+                supervisors[target.index].onRestarted(System.nanoTime());
+            }
+            if(target.channel != null){
+                closeQuietly(target.channel);
+                String phases = phases(target);
+                complete(target, ProbeResult.failure(ProbeResult.Status.TIMEOUT, target.connectNanos, target.firstByteNanos,
+                        phases.isEmpty() ? "Request timed out." : "Request timed out" + phases));
+            } else if(target.waitingForAddress){
+                // the lookup goes on, the next probe waits for it again
+                target.waitingForAddress = false;
+                complete(target, ProbeResult.failure(ProbeResult.Status.TIMEOUT, "Looking up "+target.probe.server().getHostString()+" timed out"));
+            } else {
+                sendProbe(target);
+            }
+        }
+
+        private void sendProbe(Target target) {
+            InetSocketAddress unresolved = target.probe.server();
+            if(target.address == null){
+                if(! isLiteral(unresolved.getHostString())){
+                    lookUp(target);
+                    return;
+                }
+                try {
+                    target.address = TcpProbeEngine.resolve(unresolved); // no lookup for an IP address
+                } catch (UnknownHostException e) {
+                    complete(target, ProbeResult.failure(ProbeResult.Status.ERROR, "Could not find host "+unresolved.getHostString()));
+                    return;
+                }
+            }
+
+            target.probeStart = System.nanoTime();
+            target.connectNanos = -1;
+            target.firstByteNanos = -1;
+            long timeout = timeoutNanos;
+            if(schedules != null){
+                int configured = (int) TimeUnit.NANOSECONDS.toMillis(timeoutNanos);
+                timeout = TimeUnit.MILLISECONDS.toNanos(schedules[target.index].beginProbe(target.probeStart, configured));
+            }
+            try {
+                // the deadline first: a probe that is over right away schedules the next one in its place
+                schedule(target, target.probeStart + timeout);
+                if(target.probe.type() == ProbeTarget.Type.DNS){
+                    sendQuery(target);
+                } else {
+                    SocketChannel channel = SocketChannel.open();
+                    target.channel = channel;
+                    channel.configureBlocking(false);
+                    target.key = channel.register(selector, SelectionKey.OP_CONNECT, target);
+                    if(channel.connect(target.address)) onConnectable(target);
+                }
+            } catch (IOException e) {
+                closeQuietly(target.channel);
+                complete(target, failure(e));
+            }
+        }
+
+        /**
+         * Looks up the host of the target on a resolver thread, and waits for it until the timeout
+         */
+        private void lookUp(Target target) {
+            target.waitingForAddress = true;
+            schedule(target, System.nanoTime() + timeoutNanos);
+            if(target.resolving) return; // still looking it up for an earlier probe
+            target.resolving = true;
+            InetSocketAddress unresolved = target.probe.server();
+            resolver.execute(() -> {
+                Lookup lookup;
+                try {
+                    lookup = new Lookup(target, TcpProbeEngine.resolve(unresolved), null, null);
+                } catch (UnknownHostException e) {
+                    lookup = new Lookup(target, null, null, "Could not find host "+unresolved.getHostString());
+                } catch (RuntimeException e) {
+                    lookup = new Lookup(target, null, e, null);
+                }
+                lookups.add(lookup);
+                selector.wakeup();
+            });
+        }
+
+        /**
+         * Goes on with the probe that waits for the lookup, if it didn't time out
+         */
+        private void onLookup(Lookup lookup) {
+            Target target = lookup.target;
+            target.resolving = false;
+            if(lookup.address != null) target.address = lookup.address;
+            if(! target.waitingForAddress) return; // the next probe uses the address, or looks it up again
+            target.waitingForAddress = false;
+            if(lookup.failure != null) restart(target, lookup.failure);
+            else if(lookup.address == null) complete(target, ProbeResult.failure(ProbeResult.Status.ERROR, lookup.error));
+            else handle(target, null); // the probe goes out, which moves the timer to its deadline
+        }
+
+        /**
+         * Sends the DNS query on a new UDP socket, so every query comes from a new port
+         */
+        private void sendQuery(Target target) throws IOException {
+            DatagramChannel channel = DatagramChannel.open();
+            target.channel = channel;
+            channel.configureBlocking(false);
+            // connected, so only the server's replies come in, and an ICMP port unreachable is reported
+            channel.connect(target.address);
+            ByteBuffer query = target.request.clear();
+            query.putShort(0, (short) ThreadLocalRandom.current().nextInt());
+            channel.write(query);
+            target.key = channel.register(selector, SelectionKey.OP_READ, target);
+        }
+
+        private void onConnectable(Target target) {
+            SocketChannel channel = (SocketChannel) target.channel;
+            try {
+                channel.finishConnect();
+            } catch (ConnectException e) {
+                // a refused connection is an answer of the host, but not of the web server
+                boolean answered = TcpProbeEngine.isRefused(e) && target.probe.type() == ProbeTarget.Type.TCP;
+                closeQuietly(channel);
+                complete(target, answered ? success(target) : failure(e));
+                return;
+            } catch (IOException e) {
+                closeQuietly(channel);
+                complete(target, failure(e));
+                return;
+            }
+            if(target.probe.type() == ProbeTarget.Type.TCP){
+                closeQuietly(channel);
+                complete(target, success(target));
+                return;
+            }
+
+            target.connectNanos = System.nanoTime() - target.probeStart;
+            target.request.clear();
+            target.statusLine.clear();
+            target.key.interestOps(SelectionKey.OP_WRITE);
+            onWritable(target);
+        }
+
+        private void onWritable(Target target) {
+            SocketChannel channel = (SocketChannel) target.channel;
+            try {
+                channel.write(target.request);
+            } catch (IOException e) {
+                closeQuietly(channel);
+                complete(target, failure(e));
+                return;
+            }
+            if(! target.request.hasRemaining()) target.key.interestOps(SelectionKey.OP_READ);
+        }
+
+        private void onReadable(Target target) {
+            if(target.probe.type() == ProbeTarget.Type.DNS) onDnsReply(target);
+            else onHttpReply(target);
+        }
+
+        /**
+         * Waits for the status line of the reply, the rest doesn't matter
+         */
+        private void onHttpReply(Target target) {
+            SocketChannel channel = (SocketChannel) target.channel;
+            ByteBuffer statusLine = target.statusLine;
+            int read;
+            try {
+                read = channel.read(statusLine);
+            } catch (IOException e) {
+                closeQuietly(channel);
+                complete(target, failure(e));
+                return;
+            }
+            if(read > 0 && target.firstByteNanos == -1) target.firstByteNanos = System.nanoTime() - target.probeStart;
+
+            int end = -1;
+            for(int i = 0; i < statusLine.position(); i++){
+                if(statusLine.get(i) == '\n'){
+                    end = i;
+                    break;
+                }
+            }
+            if(end == -1 && read != -1 && statusLine.hasRemaining()) return; // more to come
+
+            closeQuietly(channel);
+            if(end == -1){
+                complete(target, ProbeResult.failure(ProbeResult.Status.ERROR, target.connectNanos, target.firstByteNanos,
+                        (read == -1 ? "Connection closed before an HTTP reply" : "Not an HTTP reply") + phases(target)));
+                return;
+            }
+            String line = new String(statusLine.array(), 0, end, StandardCharsets.ISO_8859_1).strip();
+            int status = parseStatus(line);
+            if(status == -1){
+                complete(target, ProbeResult.failure(ProbeResult.Status.ERROR, target.connectNanos, target.firstByteNanos,
+                        "Not an HTTP reply: " + line + phases(target)));
+            } else if(status >= 500){
+                complete(target, ProbeResult.failure(ProbeResult.Status.ERROR, target.connectNanos, target.firstByteNanos,
+                        "HTTP %d from %s%s".formatted(status, target.ip, phases(target))));
+            } else {
+                complete(target, success(target, "HTTP " + status));
+            }
+        }
+
+        /**
+         * Any reply to the query counts, but a server failure or a refusal
+         */
+        private void onDnsReply(Target target) {
+            DatagramChannel channel = (DatagramChannel) target.channel;
+            ByteBuffer reply = datagram.clear();
+            try {
+                if(channel.read(reply) <= 0) return;
+            } catch (PortUnreachableException e) {
+                closeQuietly(channel);
+                complete(target, ProbeResult.failure(ProbeResult.Status.UNREACHABLE, "Destination port unreachable: no DNS server at "+target.ip));
+                return;
+            } catch (IOException e) {
+                closeQuietly(channel);
+                complete(target, failure(e));
+                return;
+            }
+            // a reply to an earlier query, or not a reply, is ignored
+            if(reply.position() < 12 || reply.getShort(0) != target.request.getShort(0) || (reply.get(2) & 0x80) == 0) return;
+
+            target.firstByteNanos = System.nanoTime() - target.probeStart;
+            closeQuietly(channel);
+            int code = reply.get(3) & 0x0F;
+            int answers = reply.getShort(6) & 0xFFFF;
+            switch(code){
+                case 0 -> complete(target, success(target, answers + (answers == 1 ? " answer" : " answers") + " for " + target.probe.path()));
+                case 3 -> complete(target, success(target, target.probe.path() + " not found"));
+                default -> complete(target, ProbeResult.failure(ProbeResult.Status.ERROR, -1, target.firstByteNanos,
+                        "DNS error %s from %s".formatted(dnsError(code), target.ip)));
+            }
+        }
+
+        private void complete(Target target, ProbeResult result) {
+            target.channel = null;
+            target.key = null;
+            // the listener updates the target's schedule, so it runs before the next probe is scheduled
+            listener.onResult(target.index, result);
+            long interval = schedules == null ? intervalNanos : TimeUnit.MILLISECONDS.toNanos(schedules[target.index].getDelay());
+            schedule(target, System.nanoTime() + interval);
+        }
+
+        private ProbeResult success(Target target) {
+            long rtt = System.nanoTime() - target.probeStart;
+            return ProbeResult.success(rtt, "Reply from %s: time=%sms".formatted(target.ip, rtt / 1_000_000));
+        }
+
+        /**
+         * @param details what the reply said
+         */
+        private ProbeResult success(Target target, String details) {
+            long rtt = System.nanoTime() - target.probeStart;
+            return ProbeResult.success(rtt, target.connectNanos, target.firstByteNanos,
+                    "Reply from %s: %s, time=%sms%s".formatted(target.ip, details, rtt / 1_000_000, phases(target)));
+        }
+
+        private ProbeResult failure(IOException e) {
+            return ProbeResult.failure(ProbeResult.Status.UNREACHABLE, "Destination host unreachable: "+e.getMessage());
+        }
+
+        private void closeQuietly(SelectableChannel channel) {
+            if(channel == null) return;
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * @return true for an IPv4 or IPv6 address, which needs no lookup
+     */
+    private static boolean isLiteral(String host) {
+        if(host.indexOf(':') != -1) return true;
+        for(int i = 0; i < host.length(); i++){
+            char c = host.charAt(i);
+            if(c != '.' && (c < '0' || c > '9')) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the phases the probe went through, like ", connect=3ms, first byte=12ms"
+     */
+    private static String phases(Target target) {
+        if(target.probe.type() != ProbeTarget.Type.HTTP) return "";
+        StringBuilder phases = new StringBuilder();
+        if(target.connectNanos != -1) phases.append(", connect=").append(target.connectNanos / 1_000_000).append("ms");
+        if(target.firstByteNanos != -1) phases.append(", first byte=").append(target.firstByteNanos / 1_000_000).append("ms");
+        return phases.toString();
+    }
+
+    /**
+     * @return the status code of an HTTP status line like "HTTP/1.1 200 OK", or -1 if it isn't one
+     */
+    static int parseStatus(String line) {
+        if(! line.startsWith("HTTP/")) return -1;
+        int space = line.indexOf(' ');
+        if(space == -1 || line.length() < space + 4) return -1;
+        try {
+            return Integer.parseInt(line.substring(space + 1, space + 4));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String dnsError(int code) {
+        return switch(code){
+            case 1 -> "FORMERR";
+            case 2 -> "SERVFAIL";
+            case 4 -> "NOTIMP";
+            case 5 -> "REFUSED";
+            default -> "rcode " + code;
+        };
+    }
+}
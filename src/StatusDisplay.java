@@ -0,0 +1,475 @@
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Draws the status of the monitored addresses on the console.
+ * <ul>
+ * <li>line - the single status line that is rewritten in place, for a few addresses</li>
+ * <li>grid - a header and a grid of cells, one per address with its state and median round trip time.
+ *     Only the cells that changed since the last frame are redrawn, by moving the cursor with ANSI escape codes.
+ *     When the grid doesn't fit the terminal it is split into pages that take turns</li>
+ * </ul>
+ * Frames are drawn into a reused byte buffer and written to the console in one go,
+ * so a frame of a thousand addresses that barely changed costs a few comparisons per cell and a short write.
+ * Not thread safe, the main thread draws everything.
+ */
+public class StatusDisplay {
+
+    public enum Mode {
+        AUTO, LINE, GRID, OFF;
+
+        public static Mode parse(String value) {
+            return switch(value.strip().toLowerCase()){
+                case "auto" -> AUTO;
+                case "line" -> LINE;
+                case "grid" -> GRID;
+                case "off" -> OFF;
+                default -> throw new IllegalArgumentException("status_display must be auto, line, grid or off: "+value);
+            };
+        }
+    }
+
+    private static final int LINE_MODE_MAX_ITEMS = 3; // auto uses the line for up to this many addresses (or groups)
+    private static final int MAX_LABEL_WIDTH = 21; // 255.255.255.255:65535
+    private static final int RTT_WIDTH = 6;
+    private static final int CELL_GAP = 3;
+    private static final long PAGE_TIME_NANOS = 5_000_000_000L;
+    private static final int DEFAULT_COLUMNS = 80;
+    private static final int DEFAULT_ROWS = 24;
+
+    private static final byte[] ESC = {27, '['};
+    private static final byte[] CLEAR_TO_END_OF_LINE = ascii("\033[K");
+    private static final byte[] CLEAR_TO_END_OF_SCREEN = ascii("\033[J");
+    private static final byte[] OK = ascii("OK");
+    private static final byte[] DOWN = ascii("\033[31mXX\033[0m");
+    private static final byte[] NO_RTT = ascii("-");
+    private static final byte[] MS = ascii("ms");
+
+    private final PrintStream out;
+    private final MonitorGroup[] groups;
+    private final MonitorGroup[] targetGroups;
+    private final String[] addresses;
+    private final LatencyStats[] stats;
+    private final Mode mode;
+    private final boolean grid;
+    private final int columns;
+
+    private final byte[][] addressNames;
+    private final byte[][] groupNames;
+
+    // grid layout
+    private final byte[][] labels; // padded to labelWidth
+    private final int labelWidth;
+    private final int cellWidth;
+    private final int cellsPerRow;
+    private final int rowsPerPage;
+    private final int pages;
+
+    // what is on the screen. Slot 0 is the header, then the cells of the page
+    private final byte[][] shown;
+    private final int[] shownLength;
+    private boolean drawn; // false when the next frame has to draw everything
+    private int shownPage = -1;
+    private int height; // the lines drawn, the cursor waits on the line below them
+
+    // reused by every frame
+    private byte[] frame = new byte[16 * 1024];
+    private int length;
+    private byte[] scratch = new byte[256];
+    private int scratchLength;
+
+    /**
+     * @param addresses the addresses of all the groups, in the order of the groups
+     * @param targetGroups the group of every address
+     */
+    public StatusDisplay(PrintStream out, Mode mode, MonitorGroup[] groups, MonitorGroup[] targetGroups, String[] addresses, LatencyStats[] stats) {
+        this.out = out;
+        this.groups = groups;
+        this.targetGroups = targetGroups;
+        this.addresses = addresses;
+        this.stats = stats;
+        this.mode = mode;
+        boolean legacy = groups.length == 1 && groups[0].getName() == null;
+        int items = legacy ? addresses.length : groups.length;
+        grid = mode == Mode.GRID || (mode == Mode.AUTO && items > LINE_MODE_MAX_ITEMS && isAnsiTerminal());
+
+        columns = getTerminalSize("COLUMNS", DEFAULT_COLUMNS);
+        int rows = getTerminalSize("LINES", DEFAULT_ROWS);
+        int longest = 0;
+        for(String address : addresses) longest = Math.max(longest, address.length());
+        labelWidth = Math.min(longest, MAX_LABEL_WIDTH);
+        cellWidth = labelWidth + 1 + 2 + 1 + RTT_WIDTH;
+        // the last column of the terminal is left alone, writing there wraps the line on some terminals
+        cellsPerRow = Math.max(1, (columns - 1 + CELL_GAP) / (cellWidth + CELL_GAP));
+        int neededRows = (addresses.length + cellsPerRow - 1) / cellsPerRow;
+        rowsPerPage = Math.max(1, Math.min(neededRows, rows - 2)); // the header and the line the cursor waits on
+        pages = Math.max(1, (neededRows + rowsPerPage - 1) / rowsPerPage);
+
+        addressNames = new byte[addresses.length][];
+        for(int i = 0; i < addresses.length; i++) addressNames[i] = addresses[i].getBytes(StandardCharsets.UTF_8);
+        groupNames = new byte[groups.length][];
+        for(int g = 0; g < groups.length; g++) groupNames[g] = legacy ? null : ascii(groups[g].getName());
+        labels = new byte[addresses.length][];
+        for(int i = 0; i < addresses.length; i++){
+            String label = addresses[i].length() > labelWidth ? addresses[i].substring(0, labelWidth) : addresses[i];
+            labels[i] = (label + " ".repeat(labelWidth - label.length())).getBytes(StandardCharsets.UTF_8);
+        }
+        shown = new byte[1 + rowsPerPage * cellsPerRow][64];
+        shownLength = new int[shown.length];
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public boolean isGrid() {
+        return grid;
+    }
+
+    /**
+     * Draws a frame: the lines that changed in grid mode, or the whole status line in line mode
+     * @param symbol the spinner that shows the program is alive
+     */
+    public void render(char symbol) {
+        if(mode == Mode.OFF) return;
+        length = 0;
+        if(grid) renderGrid(symbol);
+        else renderLine(symbol);
+        if(length > 0){
+            out.write(frame, 0, length);
+            out.flush();
+        }
+    }
+
+    /**
+     * Prints a message above the status, which is drawn again in full by the next frame
+     */
+    public void printMessage(Object message) {
+        clear();
+        out.println(message);
+    }
+
+    /**
+     * Erases the status. The next frame draws it in full
+     */
+    public void clear() {
+        length = 0;
+        if(grid){
+            if(drawn && height > 0){
+                moveUp(height);
+                append((byte) '\r').append(CLEAR_TO_END_OF_SCREEN);
+            }
+        } else if(shownLength[0] > 0){
+            append((byte) '\r');
+            for(int i = 0; i < shownLength[0]; i++) append((byte) ' ');
+            append((byte) '\r');
+        }
+        out.write(frame, 0, length);
+        out.flush();
+        drawn = false;
+        shownLength[0] = 0;
+    }
+
+    //========================================================================== |
+    //================================= LINE =================================== |
+    //========================================================================== |
+
+    private void renderLine(char symbol) {
+        startScratch();
+        putScratch("Monitoring [ ").putScratch(symbol).putScratch(" ]");
+        if(groups.length == 1 && groups[0].getName() == null){
+            MonitorGroup group = groups[0];
+            for(int i = 0; i < addresses.length; i++){
+                putScratch(" - ").putScratch(addressNames[i]).putScratch(" [ ").putScratch(group.isDown(i) ? "XX" : "OK").putScratch(" ]");
+                if(stats[i].hasSamples(LatencyStats.ONE_MINUTE)) putSummary(stats[i]);
+            }
+        } else {
+            for(int g = 0; g < groups.length; g++){
+                MonitorGroup group = groups[g];
+                ConnectivityState.Snapshot state = group.getConnectivity().get();
+                putScratch(" - ").putScratch(groupNames[g]).putScratch(" [ ");
+                switch(state.getState()){
+                    case UP -> putScratch("OK");
+                    case DOWN -> putScratch("XX");
+                    case DEGRADED -> putScratch(state.getDownCount()).putScratch('/').putScratch(group.size()).putScratch(" XX");
+                }
+                putScratch(" ]");
+            }
+        }
+
+        append((byte) '\r').append(scratch, 0, scratchLength);
+        // a shorter line leaves the end of the old one behind
+        for(int i = scratchLength; i < shownLength[0]; i++) append((byte) ' ');
+        shownLength[0] = scratchLength;
+    }
+
+    /**
+     * Like {@link LatencyStats#shortSummary}, without building strings
+     */
+    private void putSummary(LatencyStats stats) {
+        double p50 = stats.getPercentile(LatencyStats.ONE_MINUTE, 50);
+        double loss = stats.getLossPercentage(LatencyStats.ONE_MINUTE);
+        putScratch(" (");
+        if(p50 != -1){
+            putScratch("p50/p99 ").putScratchFixed(p50).putScratch('/').putScratchFixed(stats.getPercentile(LatencyStats.ONE_MINUTE, 99)).putScratch(" ms, ");
+        }
+        putScratch("loss ").putScratchFixed(loss).putScratch("%)");
+    }
+
+    //========================================================================== |
+    //================================= GRID =================================== |
+    //========================================================================== |
+
+    private void renderGrid(char symbol) {
+        int page = pages == 1 ? 0 : (int) ((System.nanoTime() / PAGE_TIME_NANOS) % pages);
+        if(! drawn || page != shownPage){
+            drawGrid(symbol, page);
+            return;
+        }
+
+        // the cursor waits at the start of the line below the grid
+        int cursorLine = height;
+        for(int slot = 0; slot < shown.length; slot++){
+            int target = slot == 0 ? -1 : page * rowsPerPage * cellsPerRow + slot - 1;
+            if(target >= addresses.length) break;
+            if(slot == 0) renderHeader(symbol, page);
+            else renderCell(target);
+            if(scratchLength == shownLength[slot] && Arrays.equals(scratch, 0, scratchLength, shown[slot], 0, scratchLength)) continue;
+
+            int line = slot == 0 ? 0 : 1 + (slot - 1) / cellsPerRow;
+            int column = slot == 0 ? 0 : ((slot - 1) % cellsPerRow) * (cellWidth + CELL_GAP);
+            moveLines(line - cursorLine);
+            cursorLine = line;
+            append(ESC).appendNumber(column + 1).append((byte) 'G');
+            append(scratch, 0, scratchLength);
+            if(slot == 0) append(CLEAR_TO_END_OF_LINE);
+            remember(slot);
+        }
+        if(cursorLine != height){
+            moveLines(height - cursorLine);
+            append((byte) '\r');
+        }
+    }
+
+    private void drawGrid(char symbol, int page) {
+        if(drawn && height > 0){
+            // a new page, start over from the header
+            moveUp(height);
+            append((byte) '\r').append(CLEAR_TO_END_OF_SCREEN);
+        }
+        renderHeader(symbol, page);
+        append(scratch, 0, scratchLength).append(CLEAR_TO_END_OF_LINE).append((byte) '\n');
+        remember(0);
+        height = 1;
+
+        int first = page * rowsPerPage * cellsPerRow;
+        for(int slot = 1; slot < shown.length; slot++){
+            int target = first + slot - 1;
+            if(target >= addresses.length){
+                shownLength[slot] = 0;
+                continue;
+            }
+            int column = (slot - 1) % cellsPerRow;
+            if(column > 0) for(int i = 0; i < CELL_GAP; i++) append((byte) ' ');
+            renderCell(target);
+            append(scratch, 0, scratchLength);
+            remember(slot);
+            if(column == cellsPerRow - 1 || target == addresses.length - 1){
+                append(CLEAR_TO_END_OF_LINE).append((byte) '\n');
+                height++;
+            }
+        }
+        // the cells of a shorter last page leave nothing behind, the screen below the header was cleared
+        drawn = true;
+        shownPage = page;
+    }
+
+    private void renderHeader(char symbol, int page) {
+        int down = 0;
+        int firstDown = -1;
+        for(int i = 0; i < addresses.length; i++){
+            if(targetGroups[i].isDown(i)){
+                if(firstDown == -1) firstDown = i;
+                down++;
+            }
+        }
+        startScratch();
+        putScratch("Monitoring [ ").putScratch(symbol).putScratch(" ] ").putScratch(addresses.length).putScratch(" addresses, ").putScratch(down).putScratch(" down");
+        if(groups.length > 1 || groups[0].getName() != null){
+            int lost = 0;
+            for(MonitorGroup group : groups){
+                if(group.getConnectivity().get().getState() == ConnectivityState.State.DOWN) lost++;
+            }
+            putScratch(", ").putScratch(lost).putScratch(" of ").putScratch(groups.length).putScratch(" groups lost connection");
+        }
+        if(firstDown != -1) putScratch(" (").putScratch(addressNames[firstDown]).putScratch(down > 1 ? " and more)" : ")");
+        if(pages > 1) putScratch(", page ").putScratch(page + 1).putScratch('/').putScratch(pages);
+        // a header that wraps would throw off the cursor moves
+        scratchLength = Math.min(scratchLength, columns - 1);
+    }
+
+    /**
+     * {@code 8.8.8.8         OK   14ms}
+     */
+    private void renderCell(int target) {
+        startScratch();
+        putScratch(labels[target]).putScratch(' ').putScratch(targetGroups[target].isDown(target) ? DOWN : OK).putScratch(' ');
+        double p50 = stats[target].getPercentile(LatencyStats.ONE_MINUTE, 50);
+        int start = scratchLength;
+        if(p50 == -1){
+            putScratch(NO_RTT);
+        } else {
+            putScratch(Math.min(Math.round(p50), 9999)).putScratch(MS);
+        }
+        // right aligned
+        int width = scratchLength - start;
+        if(width < RTT_WIDTH){
+            int pad = RTT_WIDTH - width;
+            System.arraycopy(scratch, start, scratch, start + pad, width);
+            Arrays.fill(scratch, start, start + pad, (byte) ' ');
+            scratchLength += pad;
+        }
+    }
+
+    private void remember(int slot) {
+        if(shown[slot].length < scratchLength) shown[slot] = new byte[scratchLength * 2];
+        System.arraycopy(scratch, 0, shown[slot], 0, scratchLength);
+        shownLength[slot] = scratchLength;
+    }
+
+    private void moveUp(int lines) {
+        moveLines(-lines);
+    }
+
+    /**
+     * Moves the cursor down, or up for a negative number of lines
+     */
+    private void moveLines(int lines) {
+        if(lines < 0) append(ESC).appendNumber(-lines).append((byte) 'A');
+        else if(lines > 0) append(ESC).appendNumber(lines).append((byte) 'B');
+    }
+
+    //========================================================================== |
+    //=============================== BUFFERS ================================== |
+    //========================================================================== |
+
+    private StatusDisplay append(byte b) {
+        if(length == frame.length) frame = Arrays.copyOf(frame, frame.length * 2);
+        frame[length++] = b;
+        return this;
+    }
+
+    private StatusDisplay append(byte[] bytes) {
+        return append(bytes, 0, bytes.length);
+    }
+
+    private StatusDisplay append(byte[] bytes, int from, int count) {
+        if(length + count > frame.length) frame = Arrays.copyOf(frame, Math.max(frame.length * 2, length + count));
+        System.arraycopy(bytes, from, frame, length, count);
+        length += count;
+        return this;
+    }
+
+    private StatusDisplay appendNumber(int value) {
+        int digits = 1;
+        for(int rest = value / 10; rest > 0; rest /= 10) digits++;
+        for(int i = 0; i < digits; i++) append((byte) '0');
+        for(int i = length - 1; i >= length - digits; i--){
+            frame[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return this;
+    }
+
+    private void startScratch() {
+        scratchLength = 0;
+    }
+
+    private StatusDisplay putScratch(char c) {
+        ensureScratch(scratchLength + 1);
+        scratch[scratchLength++] = (byte) c;
+        return this;
+    }
+
+    private StatusDisplay putScratch(byte[] bytes) {
+        ensureScratch(scratchLength + bytes.length);
+        System.arraycopy(bytes, 0, scratch, scratchLength, bytes.length);
+        scratchLength += bytes.length;
+        return this;
+    }
+
+    /**
+     * For the fixed ASCII parts, the names are encoded up front
+     */
+    private StatusDisplay putScratch(String text) {
+        ensureScratch(scratchLength + text.length());
+        for(int i = 0; i < text.length(); i++) scratch[scratchLength++] = (byte) text.charAt(i);
+        return this;
+    }
+
+    private StatusDisplay putScratch(long value) {
+        ensureScratch(scratchLength + 20);
+        if(value < 0){
+            scratch[scratchLength++] = '-';
+            value = -value;
+        }
+        int start = scratchLength;
+        do {
+            scratch[scratchLength++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while(value > 0);
+        // the digits came out backwards
+        for(int i = start, j = scratchLength - 1; i < j; i++, j--){
+            byte digit = scratch[i];
+            scratch[i] = scratch[j];
+            scratch[j] = digit;
+        }
+        return this;
+    }
+
+    /**
+     * One decimal, like %.1f
+     */
+    private StatusDisplay putScratchFixed(double value) {
+        long tenths = Math.round(value * 10);
+        return putScratch(tenths / 10).putScratch('.').putScratch((char) ('0' + tenths % 10));
+    }
+
+    private void ensureScratch(int capacity) {
+        if(capacity > scratch.length) scratch = Arrays.copyOf(scratch, Math.max(scratch.length * 2, capacity));
+    }
+
+    //========================================================================== |
+    //============================== TERMINAL ================================== |
+    //========================================================================== |
+
+    /**
+     * @return true if the console most likely understands ANSI escape codes.
+     * The classic Windows console doesn't unless a program turns them on, Windows Terminal does
+     */
+    static boolean isAnsiTerminal() {
+        if(System.console() == null) return false;
+        if(System.getProperty("os.name", "").toLowerCase().startsWith("windows")){
+            return System.getenv("WT_SESSION") != null || System.getenv("ConEmuANSI") != null || System.getenv("TERM") != null;
+        }
+        String term = System.getenv("TERM");
+        return term != null && ! term.equals("dumb");
+    }
+
+    /**
+     * Java can't ask the terminal for its size, but shells can export it
+     */
+    private static int getTerminalSize(String variable, int fallback) {
+        try {
+            String value = System.getenv(variable);
+            return value == null ? fallback : Math.max(Integer.parseInt(value.strip()), 1);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
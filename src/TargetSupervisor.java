@@ -0,0 +1,65 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one address that fails from stopping the monitoring of the others.
+ * <p>
+ * When the probing of an address fails with an exception, only that address is restarted, after a back-off
+ * that starts at {@link #MIN_BACKOFF} and doubles with every failure in a row up to {@link #MAX_BACKOFF}.
+ * An address that probed for {@link #STABLE_AFTER} since its last restart starts over at the shortest back-off.
+ * The state of its group, an outage in progress included, is left alone.
+ * <p>
+ * All times are {@link System#nanoTime()} values passed in by the caller.
+ */
+public class TargetSupervisor {
+
+    public static final long MIN_BACKOFF = TimeUnit.MILLISECONDS.toNanos(250);
+    public static final long MAX_BACKOFF = TimeUnit.SECONDS.toNanos(30);
+    private static final long STABLE_AFTER = TimeUnit.SECONDS.toNanos(60);
+
+    private int failuresInRow;
+    private long failedAt = -1; // -1 while the address is being probed
+    private long restartedAt;
+    private boolean restartedOnce;
+
+    private long restarts;
+    private long restartNanos; // the time the address wasn't probed because of restarts
+    private long maxRestartNanos;
+
+    /**
+     * Called when the probing of the address failed with an exception
+     * @return the nanoseconds to wait before probing the address again
+     */
+    public synchronized long onFailure(long now) {
+        if(restartedOnce && now - restartedAt >= STABLE_AFTER) failuresInRow = 0;
+        failedAt = now;
+        long backoff = MIN_BACKOFF << Math.min(failuresInRow, 20);
+        failuresInRow++;
+        return Math.min(backoff, MAX_BACKOFF);
+    }
+
+    /**
+     * Called when the address is probed again after a failure
+     */
+    public synchronized void onRestarted(long now) {
+        if(failedAt == -1) return;
+        long duration = now - failedAt;
+        failedAt = -1;
+        restartedAt = now;
+        restartedOnce = true;
+        restarts++;
+        restartNanos += duration;
+        if(duration > maxRestartNanos) maxRestartNanos = duration;
+    }
+
+    public synchronized long getRestarts() {
+        return restarts;
+    }
+
+    public synchronized long getRestartNanos() {
+        return restartNanos;
+    }
+
+    public synchronized long getMaxRestartNanos() {
+        return maxRestartNanos;
+    }
+}
@@ -0,0 +1,77 @@
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+/**
+ * Probes the target by opening a TCP connection to it.
+ * <p>
+ * The address can be given as {@code host:port}, otherwise {@link #DEFAULT_PORT} is used.
+ * A refused connection still counts as a response, since the target had to answer it.
+ */
+public class TcpProbeEngine implements ProbeEngine {
+    public static final int DEFAULT_PORT = 443;
+
+    private final String ip;
+    private final InetSocketAddress unresolved;
+    private InetSocketAddress address;
+
+    public TcpProbeEngine(String ip) {
+        this.ip = ip;
+        unresolved = toSocketAddress(ip);
+    }
+
+    @Override
+    public ProbeResult probe(int timeout) {
+        try {
+            if(address == null){
+                address = resolve(unresolved);
+            }
+        } catch (UnknownHostException e) {
+            return ProbeResult.failure(ProbeResult.Status.ERROR, "Could not find host "+unresolved.getHostString());
+        }
+
+        long start = System.nanoTime();
+        try (Socket socket = new Socket()) {
+            socket.connect(address, timeout);
+            return success(System.nanoTime() - start);
+        } catch (ConnectException e) {
+            long rtt = System.nanoTime() - start;
+            if(isRefused(e)){
+                return success(rtt);
+            }
+            return ProbeResult.failure(ProbeResult.Status.UNREACHABLE, "Destination host unreachable: "+e.getMessage());
+        } catch (SocketTimeoutException e) {
+            return ProbeResult.failure(ProbeResult.Status.TIMEOUT, "Request timed out.");
+        } catch (IOException e) {
+            return ProbeResult.failure(ProbeResult.Status.UNREACHABLE, "Destination host unreachable: "+e.getMessage());
+        }
+    }
+
+    /**
+     * @return an unresolved socket address for {@code host} or {@code host:port}
+     */
+    public static InetSocketAddress toSocketAddress(String ip) {
+        int colon = ip.lastIndexOf(':');
+        // only treat the colon as a port separator if it isn't a bare IPv6 address
+        if(colon > 0 && ip.indexOf(':') == colon){
+            return InetSocketAddress.createUnresolved(ip.substring(0,colon), Integer.parseInt(ip.substring(colon+1)));
+        }
+        return InetSocketAddress.createUnresolved(ip, DEFAULT_PORT);
+    }
+
+    public static InetSocketAddress resolve(InetSocketAddress unresolved) throws UnknownHostException {
+        return new InetSocketAddress(InetAddress.getByName(unresolved.getHostString()), unresolved.getPort());
+    }
+
+    static boolean isRefused(ConnectException e) {
+        return e.getMessage() != null && e.getMessage().contains("refused");
+    }
+
+    private ProbeResult success(long rtt) {
+        return ProbeResult.success(rtt, "Reply from %s: time=%sms".formatted(ip, rtt / 1_000_000));
+    }
+}
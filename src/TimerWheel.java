@@ -0,0 +1,209 @@
+/**
+ * A hierarchical timing wheel for a single thread: O(1) schedule and cancel for any number of timers.
+ * <p>
+ * Time is cut into ticks. The wheel has {@link #LEVELS} levels of {@link #SLOTS} slots, each level covering
+ * {@code SLOTS} times the range of the one below it (with 1 ms ticks: 256 ms, 65 s, 4.6 hours and 49 days).
+ * A timer goes into the lowest level whose range holds its deadline, and every time a level wraps around,
+ * the next slot of the level above is spread out into the levels below (the Varghese and Lauck scheme, as in the Linux kernel).
+ * <p>
+ * Timers are intrusive: a class that needs a timer extends {@link Timer}, and a timer is a node
+ * in the doubly linked list of its slot. So scheduling allocates nothing, and cancelling just unlinks the node.
+ * Every level keeps a bitmap of its non-empty slots, so finding the next deadline doesn't walk empty slots.
+ * <p>
+ * Timers fire on the first tick at or after their deadline, so they are up to one tick late. Not thread safe.
+ */
+public class TimerWheel {
+
+    public static final int LEVELS = 4;
+    public static final int SLOTS = 256;
+    private static final int SLOT_BITS = 8;
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    public static class Timer {
+        private long deadline;
+        private int level = -1; // -1 when not scheduled
+        private int slot;
+        private Timer prev;
+        private Timer next;
+
+        public boolean isScheduled() {
+            return level != -1;
+        }
+
+        /**
+         * @return the time the timer was scheduled for, in nanoTime
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+
+    public interface Handler {
+        void onExpired(Timer timer);
+    }
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Timer[][] heads = new Timer[LEVELS][SLOTS];
+    private final long[][] occupied = new long[LEVELS][SLOTS / 64];
+    private long tick; // the next tick to process
+    private int size;
+
+    public TimerWheel(long tickNanos, long now) {
+        this.tickNanos = tickNanos;
+        startNanos = now;
+    }
+
+    /**
+     * Schedules the timer, or moves it if it is already scheduled
+     * @param deadline in nanoTime. A deadline in the past fires on the next tick
+     */
+    public void schedule(Timer timer, long deadline) {
+        if(timer.isScheduled()) cancel(timer);
+        timer.deadline = deadline;
+        add(timer, Math.max(tickOf(deadline), tick));
+        size++;
+    }
+
+    public void cancel(Timer timer) {
+        if(! timer.isScheduled()) return;
+        unlink(timer);
+        size--;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Fires every timer whose tick has passed. A handler may schedule timers, including the one that fired
+     * @return the number of timers that fired
+     */
+    public int advance(long now, Handler handler) {
+        // a tick is processed once its time has fully come
+        long lastTick = Math.floorDiv(now - startNanos, tickNanos);
+        int fired = 0;
+        while(tick <= lastTick){
+            if(size == 0){
+                // nothing to fire or cascade, jump straight to now
+                tick = lastTick + 1;
+                break;
+            }
+            int index = (int) (tick & SLOT_MASK);
+            if(index == 0 && tick != 0) cascade();
+
+            // take the whole slot first, so timers the handler schedules for this tick wait for the next one
+            Timer timer = heads[0][index];
+            heads[0][index] = null;
+            clearOccupied(0, index);
+            tick++;
+            while(timer != null){
+                Timer next = timer.next;
+                timer.level = -1;
+                timer.prev = null;
+                timer.next = null;
+                size--;
+                fired++;
+                handler.onExpired(timer);
+                timer = next;
+            }
+        }
+        return fired;
+    }
+
+    /**
+     * @return how long until the wheel has to be advanced again, or -1 if there are no timers.
+     * This is either the next non-empty slot, or the next time the lowest level wraps around and cascades
+     */
+    public long nanosUntilNext(long now) {
+        if(size == 0) return -1;
+        int index = (int) (tick & SLOT_MASK);
+        long nextTick;
+        if(index == 0 && tick != 0){
+            // the next tick starts a new rotation, and its cascade can bring timers down to any slot
+            nextTick = tick;
+        } else {
+            int next = nextOccupied(0, index);
+            nextTick = next != -1 ? tick - index + next : (tick | SLOT_MASK) + 1;
+        }
+        return Math.max(startNanos + nextTick * tickNanos - now, 0);
+    }
+
+    /**
+     * @return the tick a timer with this deadline fires on - rounded up, so a timer never fires before its deadline
+     */
+    private long tickOf(long time) {
+        return Math.max(Math.floorDiv(time - startNanos + tickNanos - 1, tickNanos), 0);
+    }
+
+    private void add(Timer timer, long timerTick) {
+        int level = 0;
+        while(level < LEVELS - 1 && (timerTick >>> (SLOT_BITS * (level + 1))) != (tick >>> (SLOT_BITS * (level + 1)))){
+            level++;
+        }
+        int slot;
+        if(level == LEVELS - 1 && (timerTick >>> (SLOT_BITS * level)) - (tick >>> (SLOT_BITS * level)) >= SLOTS){
+            // beyond the range of the wheel: park it in the last slot the top level reaches, it is placed again from there
+            slot = (int) ((tick >>> (SLOT_BITS * level)) - 1) & SLOT_MASK;
+        } else {
+            slot = (int) (timerTick >>> (SLOT_BITS * level)) & SLOT_MASK;
+        }
+
+        timer.level = level;
+        timer.slot = slot;
+        timer.prev = null;
+        timer.next = heads[level][slot];
+        if(timer.next != null) timer.next.prev = timer;
+        heads[level][slot] = timer;
+        occupied[level][slot >>> 6] |= 1L << slot;
+    }
+
+    private void unlink(Timer timer) {
+        if(timer.prev != null){
+            timer.prev.next = timer.next;
+        } else {
+            heads[timer.level][timer.slot] = timer.next;
+            if(timer.next == null) clearOccupied(timer.level, timer.slot);
+        }
+        if(timer.next != null) timer.next.prev = timer.prev;
+        timer.level = -1;
+        timer.prev = null;
+        timer.next = null;
+    }
+
+    /**
+     * Spreads the current slot of each level above into the levels below, going up as long as the levels wrap around
+     */
+    private void cascade() {
+        for(int level = 1; level < LEVELS; level++){
+            int index = (int) (tick >>> (SLOT_BITS * level)) & SLOT_MASK;
+            Timer timer = heads[level][index];
+            heads[level][index] = null;
+            clearOccupied(level, index);
+            while(timer != null){
+                Timer next = timer.next;
+                add(timer, Math.max(tickOf(timer.deadline), tick));
+                timer = next;
+            }
+            if(index != 0) break;
+        }
+    }
+
+    private void clearOccupied(int level, int slot) {
+        occupied[level][slot >>> 6] &= ~(1L << slot);
+    }
+
+    /**
+     * @return the first non-empty slot at or after {@code from} in the level, or -1 if there is none
+     */
+    private int nextOccupied(int level, int from) {
+        long[] bits = occupied[level];
+        int word = from >>> 6;
+        long current = bits[word] & (-1L << from);
+        while(true){
+            if(current != 0) return (word << 6) + Long.numberOfTrailingZeros(current);
+            if(++word == bits.length) return -1;
+            current = bits[word];
+        }
+    }
+}